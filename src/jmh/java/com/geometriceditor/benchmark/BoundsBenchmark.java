@@ -0,0 +1,73 @@
+package com.geometriceditor.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeGroup;
+import com.geometriceditor.visitor.BoundingBoxVisitor;
+
+/**
+ * Bounding boxes of deep group trees: a full recomputation, and the
+ * incremental case of one leaf edit followed by a bounds query at the root.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class BoundsBenchmark {
+    private static final int FANOUT = 3;
+
+    // 3^7 = 2187 and 3^10 = 59049 leaves
+    @Param({ "7", "10" })
+    public int depth;
+
+    private ShapeGroup root;
+    private final List<Shape> leaves = new ArrayList<>();
+    private int leaf = 0;
+    private int step = 1;
+
+    @Setup
+    public void setUp() {
+        root = Documents.groupTree(depth, FANOUT, leaves);
+    }
+
+    @State(Scope.Benchmark)
+    public static class StaleTree {
+        @Setup(Level.Invocation)
+        public void invalidate(BoundsBenchmark benchmark) {
+            for (Shape shape : benchmark.leaves) {
+                shape.invalidateBounds();
+            }
+        }
+    }
+
+    @Benchmark
+    public java.awt.Rectangle visitStaleTree(StaleTree stale) {
+        return root.accept(new BoundingBoxVisitor());
+    }
+
+    @Benchmark
+    public java.awt.Rectangle editLeafThenRootBounds() {
+        leaf = (leaf + 1) % leaves.size();
+        step = -step; // Keeps the tree from drifting
+        leaves.get(leaf).move(step, 0);
+        return root.getBounds();
+    }
+}
@@ -0,0 +1,64 @@
+package com.geometriceditor.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.geometriceditor.command.CommandManager;
+import com.geometriceditor.command.MoveCommand;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.ui.WhiteboardPanel;
+
+/**
+ * Command throughput: moving a selection through the CommandManager, with the
+ * whiteboard listening as it does in the editor.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class CommandBenchmark {
+    private static final int SELECTION_SIZE = 100;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int shapeCount;
+
+    private CommandManager commandManager;
+    private WhiteboardPanel whiteboard;
+    private List<Shape> selection;
+
+    @Setup
+    public void setUp() {
+        commandManager = new CommandManager();
+        List<Shape> shapes = Documents.randomShapes(shapeCount);
+        whiteboard = Documents.whiteboard(shapes, commandManager);
+        selection = shapes.subList(0, Math.min(SELECTION_SIZE, shapes.size()));
+        // One command in the history so undoRedo always has something to undo
+        commandManager.executeCommand(new MoveCommand(whiteboard, selection, 1, 1));
+    }
+
+    @Benchmark
+    public void executeThenUndo() {
+        commandManager.executeCommand(new MoveCommand(whiteboard, selection, 5, 5));
+        commandManager.undo();
+    }
+
+    @Benchmark
+    public void undoRedo() {
+        commandManager.undo();
+        commandManager.redo();
+    }
+}
@@ -0,0 +1,94 @@
+package com.geometriceditor.benchmark;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.geometriceditor.command.CommandManager;
+import com.geometriceditor.factory.ShapeFactory;
+import com.geometriceditor.model.Rectangle;
+import com.geometriceditor.model.RegularPolygon;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeGroup;
+import com.geometriceditor.ui.WhiteboardPanel;
+
+/**
+ * Builds the synthetic documents shared by the benchmarks. Generation is
+ * seeded, so every run measures the same documents.
+ */
+final class Documents {
+    static final long SEED = 42L;
+    static final int VIEWPORT_WIDTH = 1920;
+    static final int VIEWPORT_HEIGHT = 1080;
+    // Average area per shape, so density stays constant as documents grow
+    private static final int CELL_SIZE = 60;
+
+    private Documents() {
+    }
+
+    /**
+     * @return The side of the square area a document of this size spreads over.
+     */
+    static int extent(int shapeCount) {
+        return Math.max(VIEWPORT_WIDTH, (int) Math.sqrt((double) shapeCount) * CELL_SIZE);
+    }
+
+    /**
+     * Generates top-level rectangles and polygons, a few of them rotated.
+     */
+    static List<Shape> randomShapes(int shapeCount) {
+        Random random = new Random(SEED);
+        int extent = extent(shapeCount);
+        List<Shape> shapes = new ArrayList<>(shapeCount);
+        for (int i = 0; i < shapeCount; i++) {
+            int x = random.nextInt(extent);
+            int y = random.nextInt(extent);
+            Shape shape;
+            if (random.nextInt(10) < 7) {
+                shape = new Rectangle(x, y, 10 + random.nextInt(80), 10 + random.nextInt(50));
+            } else {
+                shape = new RegularPolygon(x, y, 3 + random.nextInt(6), 10 + random.nextInt(30));
+            }
+            shape.setFillColor(new Color(random.nextInt(0x1000000)));
+            if (random.nextInt(10) == 0) {
+                shape.setRotation(random.nextInt(360));
+            }
+            shapes.add(shape);
+        }
+        return shapes;
+    }
+
+    /**
+     * Creates a whiteboard holding the shapes, bypassing the undo history.
+     */
+    static WhiteboardPanel whiteboard(List<Shape> shapes, CommandManager commandManager) {
+        WhiteboardPanel whiteboard = new WhiteboardPanel(ShapeFactory.getInstance(), commandManager);
+        whiteboard.setSize(VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+        for (Shape shape : shapes) {
+            whiteboard.directAddShape(shape);
+        }
+        return whiteboard;
+    }
+
+    /**
+     * Builds a complete group tree whose leaves are rectangles.
+     *
+     * @param depth  Group levels above the leaves.
+     * @param fanout Children per group.
+     * @param leaves Receives the leaves in creation order.
+     */
+    static ShapeGroup groupTree(int depth, int fanout, List<Shape> leaves) {
+        ShapeGroup group = new ShapeGroup();
+        for (int i = 0; i < fanout; i++) {
+            if (depth > 1) {
+                group.addShape(groupTree(depth - 1, fanout, leaves));
+            } else {
+                Rectangle leaf = new Rectangle(leaves.size() * 15, leaves.size() % 97 * 11, 10, 10);
+                leaves.add(leaf);
+                group.addShape(leaf);
+            }
+        }
+        return group;
+    }
+}
@@ -0,0 +1,141 @@
+package com.geometriceditor.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.geometriceditor.command.CommandManager;
+import com.geometriceditor.io.DocumentSnapshot;
+import com.geometriceditor.io.SerializationManager;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.state.StateManager;
+import com.geometriceditor.ui.WhiteboardPanel;
+
+/**
+ * Saving and loading whole documents through both persistence paths.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class PersistenceBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int shapeCount;
+
+    private WhiteboardPanel source;
+    private WhiteboardPanel target;
+    private final StateManager stateManager = new StateManager();
+    private final StateManager incrementalManager = new StateManager();
+    private final StateManager compressedManager = new StateManager();
+    private File directory;
+    private File serializedFile;
+    private File stateFile;
+    private File outputFile;
+    private File incrementalFile;
+    private File compressedFile;
+    private Shape movedShape;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = Documents.whiteboard(Documents.randomShapes(shapeCount), new CommandManager());
+        directory = Files.createTempDirectory("whiteboard-bench").toFile();
+        serializedFile = new File(directory, "document.ser");
+        stateFile = new File(directory, "document.state");
+        outputFile = new File(directory, "output");
+        SerializationManager.saveWhiteboard(source, serializedFile.getPath());
+        stateManager.saveToFile(source, stateFile);
+        incrementalFile = new File(directory, "incremental.state");
+        incrementalManager.setCompactionThreshold(Long.MAX_VALUE);
+        incrementalManager.saveToFile(source, incrementalFile);
+        movedShape = source.getShapes().get(0);
+        compressedFile = new File(directory, "compressed.state");
+        compressedManager.setCompressionLevel(Deflater.BEST_SPEED);
+        compressedManager.saveToFile(source, compressedFile);
+    }
+
+    // Loading pushes onto the undo history, so every load starts from a fresh whiteboard
+    @Setup(Level.Invocation)
+    public void newTarget() {
+        target = Documents.whiteboard(java.util.Collections.emptyList(), new CommandManager());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public long serializationSave() throws IOException {
+        SerializationManager.saveWhiteboard(source, outputFile.getPath());
+        return outputFile.length();
+    }
+
+    @Benchmark
+    public int serializationLoad() throws IOException, ClassNotFoundException {
+        SerializationManager.loadWhiteboard(target, serializedFile.getPath());
+        return target.getShapes().size();
+    }
+
+    @Benchmark
+    public long stateSave() throws IOException {
+        new StateManager().saveToFile(source, outputFile); // Writes the whole document
+        return outputFile.length();
+    }
+
+    // Saving again after moving one shape appends a delta segment
+    @Benchmark
+    public long stateSaveIncremental() throws IOException {
+        movedShape.move(1, 0);
+        source.directUpdateShapes(List.of(movedShape));
+        incrementalManager.saveToFile(source, incrementalFile);
+        return incrementalFile.length();
+    }
+
+    @Benchmark
+    public int stateLoad() throws IOException, ClassNotFoundException {
+        stateManager.loadFromFile(target, stateFile);
+        return target.getShapes().size();
+    }
+
+    // Blocks are compressed and decompressed on all cores
+    @Benchmark
+    public long compressedSave() throws IOException {
+        compressedManager.saveToFile(source, outputFile);
+        return outputFile.length();
+    }
+
+    @Benchmark
+    public int compressedLoad() throws IOException, ClassNotFoundException {
+        compressedManager.loadFromFile(target, compressedFile);
+        return target.getShapes().size();
+    }
+
+    // The pause autosave imposes on the event dispatch thread
+    @Benchmark
+    public int snapshotCapture() {
+        return DocumentSnapshot.capture(source.getShapes()).getRecordCount();
+    }
+}
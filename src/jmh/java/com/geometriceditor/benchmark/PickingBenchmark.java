@@ -0,0 +1,72 @@
+package com.geometriceditor.benchmark;
+
+import java.awt.Point;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.geometriceditor.command.CommandManager;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.ui.WhiteboardPanel;
+
+/**
+ * Hit-testing and rubber-band selection at random places in the document.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class PickingBenchmark {
+    private static final int PROBES = 1024; // Power of two, see next()
+    private static final int SELECTION_SIZE = 200;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int shapeCount;
+
+    private WhiteboardPanel whiteboard;
+    private final Point[] points = new Point[PROBES];
+    private final java.awt.Rectangle[] areas = new java.awt.Rectangle[PROBES];
+    private int probe = 0;
+
+    @Setup
+    public void setUp() {
+        whiteboard = Documents.whiteboard(Documents.randomShapes(shapeCount), new CommandManager());
+        Random random = new Random(Documents.SEED);
+        int extent = Documents.extent(shapeCount);
+        for (int i = 0; i < PROBES; i++) {
+            points[i] = new Point(random.nextInt(extent), random.nextInt(extent));
+            areas[i] = new java.awt.Rectangle(random.nextInt(extent), random.nextInt(extent),
+                    SELECTION_SIZE, SELECTION_SIZE);
+        }
+    }
+
+    private int next() {
+        return probe = (probe + 1) & (PROBES - 1);
+    }
+
+    @Benchmark
+    public Shape findShapeAtPoint() {
+        return whiteboard.findShapeAtPoint(points[next()]);
+    }
+
+    @Benchmark
+    public int selectShapesInRectangle() {
+        whiteboard.directSelectShapes(Collections.emptyList());
+        whiteboard.selectShapesInRectangle(areas[next()]);
+        return whiteboard.getSelectedShapes().size();
+    }
+}
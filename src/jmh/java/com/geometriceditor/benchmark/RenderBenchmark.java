@@ -0,0 +1,62 @@
+package com.geometriceditor.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.geometriceditor.command.CommandManager;
+import com.geometriceditor.ui.WhiteboardPanel;
+
+/**
+ * Paints a full viewport of the whiteboard into an image, headless.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int shapeCount;
+
+    // Off measures rendering the shapes themselves, on measures blitting cached tiles
+    @Param({ "false", "true" })
+    public boolean tileCache;
+
+    private WhiteboardPanel whiteboard;
+    private BufferedImage image;
+
+    @Setup
+    public void setUp() {
+        whiteboard = Documents.whiteboard(Documents.randomShapes(shapeCount), new CommandManager());
+        if (!tileCache) {
+            whiteboard.setTileCacheLimit(0);
+        }
+        image = new BufferedImage(Documents.VIEWPORT_WIDTH, Documents.VIEWPORT_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    @Benchmark
+    public int paintViewport() {
+        Graphics2D g = image.createGraphics();
+        try {
+            whiteboard.paint(g);
+        } finally {
+            g.dispose();
+        }
+        return whiteboard.getLastFrameDrawnCount();
+    }
+}
@@ -3,6 +3,8 @@ package com.geometriceditor.command;
 import com.geometriceditor.model.Shape;
 import com.geometriceditor.ui.WhiteboardPanel;
 
+import java.util.List;
+
 // In command/AddShapeCommand.java
 public class AddShapeCommand implements Command {
     private final WhiteboardPanel whiteboard;
@@ -28,4 +30,9 @@ public class AddShapeCommand implements Command {
     public void redo() {
         execute();
     }
+
+    @Override
+    public java.awt.Rectangle getAffectedArea() {
+        return AffectedAreas.union(null, List.of(shape));
+    }
 }
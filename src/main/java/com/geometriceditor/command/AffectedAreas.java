@@ -0,0 +1,32 @@
+package com.geometriceditor.command;
+
+import com.geometriceditor.model.Shape;
+
+/**
+ * Helpers for commands computing the area their changes affect.
+ */
+final class AffectedAreas {
+
+    private AffectedAreas() {
+    }
+
+    /**
+     * Grows an area to cover the current bounds of some shapes.
+     *
+     * @param area   The area so far, may be null.
+     * @param shapes The shapes to cover.
+     * @return The union, or null if area was null and there were no shapes.
+     */
+    static java.awt.Rectangle union(java.awt.Rectangle area, Iterable<? extends Shape> shapes) {
+        java.awt.Rectangle result = area;
+        for (Shape shape : shapes) {
+            java.awt.Rectangle bounds = shape.getBounds();
+            if (result == null) {
+                result = bounds;
+            } else {
+                result.add(bounds);
+            }
+        }
+        return result;
+    }
+}
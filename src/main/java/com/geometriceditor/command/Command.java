@@ -1,9 +1,49 @@
 package com.geometriceditor.command;
 
-public interface Command {
+import java.io.Serializable;
+
+/**
+ * An undoable operation on the whiteboard. Commands are serializable so that
+ * old ones can be moved out of memory, see {@link HistorySpill}: references to
+ * the whiteboard and to shapes on it are written as such, other shapes in full.
+ */
+public interface Command extends Serializable {
     void execute();
 
     void undo();
 
     void redo();
+
+    /**
+     * Reports the whiteboard area changed by the last execute, undo or redo: the
+     * union of every affected shape's bounds before and after the change.
+     *
+     * @return The affected area, or null if unknown (everything may have changed).
+     */
+    default java.awt.Rectangle getAffectedArea() {
+        return null;
+    }
+
+    /**
+     * Absorbs the command executed right after this one, so that both are
+     * undone at once, e.g. successive moves of the same shapes. Called by
+     * {@link CommandManager} for commands executed within its merge window.
+     *
+     * @param next The next command, already executed.
+     * @return true if this command now stands for both.
+     */
+    default boolean mergeWith(Command next) {
+        return false;
+    }
+
+    /**
+     * Estimates the memory the command keeps alive to be undone, not counting
+     * shapes that are on the whiteboard anyway. Bounds the undo history, see
+     * {@link CommandManager#setHistoryLimit}.
+     *
+     * @return An estimate in bytes.
+     */
+    default long estimateRetainedBytes() {
+        return 64;
+    }
 }
@@ -1,13 +1,50 @@
 package com.geometriceditor.command;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList; // Added
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List; // Added
+import java.util.Set;
 import java.util.Stack;
 
 public class CommandManager {
-    private final Stack<Command> undoStack = new Stack<>();
+    private static final long DEFAULT_MERGE_WINDOW_MILLIS = 1000;
+
+    private final Deque<UndoEntry> undoStack = new ArrayDeque<>(); // Most recent first
     private final Stack<Command> redoStack = new Stack<>();
     private final List<CommandExecutionListener> listeners = new ArrayList<>(); // Added listener list
+    private Command lastCommand; // Most recently executed, undone or redone command
+
+    // Bounds of the undo history kept in memory, see setHistoryLimit
+    private int maxHistoryCommands = Integer.MAX_VALUE;
+    private long maxHistoryBytes = Long.MAX_VALUE;
+    private long historyBytes = 0; // Estimated size of the undo stack
+    private HistorySpill historySpill; // Receives the commands beyond the limits, null to forget them
+
+    // Successive commands executed within the window are merged, see Command.mergeWith
+    private long mergeWindowNanos = DEFAULT_MERGE_WINDOW_MILLIS * 1_000_000;
+    private Command mergeTarget; // Most recently executed command, null once undone or redone
+    private long lastExecutionNanos;
+
+    // Open transactions, innermost first, each collecting the commands executed in it
+    private final Deque<CompositeCommand> transactions = new ArrayDeque<>();
+
+    /**
+     * An undoable command with its size when it was pushed.
+     */
+    private static final class UndoEntry {
+        final Command command;
+        final long bytes;
+
+        UndoEntry(Command command) {
+            this.command = command;
+            this.bytes = command.estimateRetainedBytes();
+        }
+    }
 
     // --- Listener Management ---
 
@@ -28,13 +65,283 @@ public class CommandManager {
         }
     }
 
+    /**
+     * Lets listeners limit their work to what the last operation touched.
+     *
+     * @return The area affected by the most recent execute, undo or redo, or null
+     *         if unknown.
+     */
+    public java.awt.Rectangle getLastAffectedArea() {
+        return lastCommand != null ? lastCommand.getAffectedArea() : null;
+    }
+
+    // --- History Limits ---
+
+    /**
+     * Bounds the undo history kept in memory. Beyond either limit, the oldest
+     * commands go to the history spill, if any, and are read back once undo
+     * reaches them; without a spill they are forgotten.
+     *
+     * @param maxCommands The number of undoable commands kept in memory.
+     * @param maxBytes    Their total size, see {@link Command#estimateRetainedBytes()}.
+     */
+    public void setHistoryLimit(int maxCommands, long maxBytes) {
+        if (maxCommands < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("History limits must be positive");
+        }
+        this.maxHistoryCommands = maxCommands;
+        this.maxHistoryBytes = maxBytes;
+        trimHistory();
+    }
+
+    /**
+     * Sets where the commands beyond the history limits go.
+     *
+     * @param spill The spill, or null to forget those commands.
+     */
+    public void setHistorySpill(HistorySpill spill) {
+        this.historySpill = spill;
+    }
+
+    /**
+     * @return The estimated size of the undo history kept in memory.
+     */
+    public long getHistoryBytes() {
+        return historyBytes;
+    }
+
+    /**
+     * @return The number of commands that can be undone, in memory or spilled.
+     */
+    public int getUndoCount() {
+        return undoStack.size() + (historySpill != null ? historySpill.size() : 0);
+    }
+
+    private void pushUndo(Command command) {
+        UndoEntry entry = new UndoEntry(command);
+        undoStack.push(entry);
+        historyBytes += entry.bytes;
+    }
+
+    private Command popUndo() {
+        UndoEntry entry = undoStack.pop();
+        historyBytes -= entry.bytes;
+        return entry.command;
+    }
+
+    /**
+     * Moves the oldest commands out of memory once the history exceeds a limit,
+     * down to three quarters of the limits so that it happens a page at a time.
+     */
+    private void trimHistory() {
+        if (undoStack.size() <= maxHistoryCommands && historyBytes <= maxHistoryBytes) {
+            return;
+        }
+        List<Command> oldest = new ArrayList<>(); // Oldest first
+        while (!undoStack.isEmpty() && (undoStack.size() > maxHistoryCommands - maxHistoryCommands / 4
+                || historyBytes > maxHistoryBytes - maxHistoryBytes / 4)) {
+            UndoEntry entry = undoStack.removeLast();
+            historyBytes -= entry.bytes;
+            oldest.add(entry.command);
+        }
+        if (historySpill == null) {
+            return;
+        }
+        try {
+            historySpill.push(oldest);
+        } catch (IOException e) {
+            // Older commands cannot be undone across the gap
+            System.err.println("Could not move undo history to disk: " + e.getMessage());
+            historySpill.clear();
+        }
+    }
+
+    /**
+     * Brings back the most recent spilled commands once the ones in memory
+     * were undone.
+     */
+    private void readBackHistory() {
+        if (historySpill == null || historySpill.isEmpty()) {
+            return;
+        }
+        try {
+            historySpill.pop().forEach(this::pushUndo);
+        } catch (IOException e) {
+            System.err.println("Could not read back undo history: " + e.getMessage());
+            historySpill.clear();
+        }
+    }
+
+    // --- Merging ---
+
+    /**
+     * Sets how soon after a command the next one must be executed to be merged
+     * into it, see {@link Command#mergeWith}. The window restarts with every
+     * merged command, so a continuous operation becomes one history entry.
+     *
+     * @param millis The window, 0 to never merge.
+     */
+    public void setMergeWindow(long millis) {
+        this.mergeWindowNanos = millis * 1_000_000;
+    }
+
+    /**
+     * Tells whether two commands work on the same shapes, for
+     * {@link Command#mergeWith} implementations.
+     */
+    static boolean sameShapes(Collection<?> shapes, Collection<?> otherShapes) {
+        if (shapes.size() != otherShapes.size()) {
+            return false;
+        }
+        Set<Object> identities = Collections.newSetFromMap(new IdentityHashMap<>());
+        identities.addAll(shapes);
+        return identities.containsAll(otherShapes);
+    }
+
+    /**
+     * Lets the most recently executed command absorb the one just executed.
+     *
+     * @return true if it did.
+     */
+    private boolean mergeIntoPrevious(Command cmd) {
+        long now = System.nanoTime();
+        boolean merged = mergeTarget != null && now - lastExecutionNanos <= mergeWindowNanos
+                && !undoStack.isEmpty() && undoStack.peek().command == mergeTarget && mergeTarget.mergeWith(cmd);
+        if (merged) {
+            pushUndo(popUndo()); // Its size may have changed
+        } else {
+            mergeTarget = cmd;
+        }
+        lastExecutionNanos = now;
+        return merged;
+    }
+
+    // --- Transactions ---
+
+    /**
+     * Opens a transaction: the commands executed until it is committed become
+     * one undoable command, and listeners are notified once, at commit.
+     * Transactions nest; an inner one becomes part of the outer one. Close every
+     * transaction on every path:
+     *
+     * <pre>
+     * commandManager.beginTransaction();
+     * try {
+     *     ...
+     *     commandManager.commit();
+     * } catch (RuntimeException e) {
+     *     commandManager.rollback();
+     *     throw e;
+     * }
+     * </pre>
+     *
+     * or use {@link #runInTransaction(Runnable)}.
+     */
+    public void beginTransaction() {
+        transactions.push(new CompositeCommand());
+    }
+
+    /**
+     * @return true if commands are collected by a transaction.
+     */
+    public boolean isInTransaction() {
+        return !transactions.isEmpty();
+    }
+
+    /**
+     * Closes the innermost transaction, keeping its commands. Once the
+     * outermost one is committed, they are undoable at once and listeners are
+     * notified.
+     *
+     * @throws IllegalStateException if no transaction is open.
+     */
+    public void commit() {
+        CompositeCommand transaction = closeTransaction();
+        if (transaction.isEmpty()) {
+            return;
+        }
+        if (!transactions.isEmpty()) {
+            transactions.peek().add(transaction);
+            return;
+        }
+        pushUndo(transaction);
+        trimHistory();
+        redoStack.clear();
+        lastCommand = transaction;
+        mergeTarget = null;
+        notifyListeners();
+    }
+
+    /**
+     * Closes the innermost transaction, undoing its commands. Commands of
+     * enclosing transactions are kept.
+     *
+     * @throws IllegalStateException if no transaction is open.
+     */
+    public void rollback() {
+        CompositeCommand transaction = closeTransaction();
+        if (transaction.isEmpty()) {
+            return;
+        }
+        transaction.undo();
+        if (transactions.isEmpty()) {
+            // Nothing was notified for these commands, but views may show them
+            lastCommand = transaction;
+            notifyListeners();
+        }
+    }
+
+    /**
+     * Runs operations in a transaction, committed if they complete and rolled
+     * back if they throw.
+     */
+    public void runInTransaction(Runnable operations) {
+        beginTransaction();
+        try {
+            operations.run();
+        } catch (RuntimeException | Error e) {
+            rollback();
+            throw e;
+        }
+        commit();
+    }
+
+    private CompositeCommand closeTransaction() {
+        if (transactions.isEmpty()) {
+            throw new IllegalStateException("No transaction is open");
+        }
+        return transactions.pop();
+    }
+
+    private void checkNoTransaction() {
+        if (!transactions.isEmpty()) {
+            throw new IllegalStateException("A transaction is open");
+        }
+    }
+
     // --- Command Execution ---
 
+    /**
+     * Executes a command and makes it undoable. In a transaction, the command is
+     * collected and listeners are not notified until the transaction commits;
+     * if it fails, the exception is thrown so that the transaction can be
+     * rolled back, see {@link #runInTransaction}. Otherwise failures are
+     * reported and the command is dropped.
+     */
     public void executeCommand(Command cmd) {
+        if (!transactions.isEmpty()) {
+            cmd.execute();
+            transactions.peek().add(cmd);
+            return;
+        }
         try {
             cmd.execute();
-            undoStack.push(cmd);
+            if (!mergeIntoPrevious(cmd)) {
+                pushUndo(cmd);
+                trimHistory();
+            }
             redoStack.clear();
+            lastCommand = cmd; // Its area is what changed now, merged or not
             notifyListeners(); // Notify after successful execution
         } catch (Exception e) {
             System.err.println("Command execution failed: " + e.getMessage());
@@ -42,20 +349,55 @@ public class CommandManager {
         }
     }
 
+    /**
+     * Forgets every undoable and redoable command, e.g. after a document was
+     * loaded, and notifies listeners once.
+     *
+     * @throws IllegalStateException if a transaction is open.
+     */
+    public void clearHistory() {
+        checkNoTransaction();
+        undoStack.clear();
+        historyBytes = 0;
+        if (historySpill != null) {
+            historySpill.clear();
+        }
+        redoStack.clear();
+        lastCommand = null;
+        mergeTarget = null;
+        notifyListeners();
+    }
+
+    /**
+     * @throws IllegalStateException if a transaction is open.
+     */
     public void undo() {
+        checkNoTransaction();
+        if (undoStack.isEmpty()) {
+            readBackHistory();
+        }
         if (!undoStack.isEmpty()) {
-            Command cmd = undoStack.pop();
+            Command cmd = popUndo();
             cmd.undo();
             redoStack.push(cmd);
+            lastCommand = cmd;
+            mergeTarget = null;
             notifyListeners(); // Notify after undo
         }
     }
 
+    /**
+     * @throws IllegalStateException if a transaction is open.
+     */
     public void redo() {
+        checkNoTransaction();
         if (!redoStack.isEmpty()) {
             Command cmd = redoStack.pop();
             cmd.redo();
-            undoStack.push(cmd);
+            pushUndo(cmd);
+            trimHistory();
+            lastCommand = cmd;
+            mergeTarget = null;
             notifyListeners(); // Notify after redo
         }
     }
@@ -49,6 +49,36 @@ public class CompositeCommand implements Command {
         execute();
     }
 
+    /**
+     * @return The union of the children's affected areas, or null if any child
+     *         cannot tell
+     */
+    @Override
+    public java.awt.Rectangle getAffectedArea() {
+        java.awt.Rectangle area = null;
+        for (Command command : commands) {
+            java.awt.Rectangle childArea = command.getAffectedArea();
+            if (childArea == null) {
+                return null;
+            }
+            if (area == null) {
+                area = new java.awt.Rectangle(childArea); // Not the child's own
+            } else {
+                area.add(childArea);
+            }
+        }
+        return area;
+    }
+
+    @Override
+    public long estimateRetainedBytes() {
+        long bytes = 64 + 4L * commands.size();
+        for (Command command : commands) {
+            bytes += command.estimateRetainedBytes();
+        }
+        return bytes;
+    }
+
     /**
      * @return The number of commands in this composite
      */
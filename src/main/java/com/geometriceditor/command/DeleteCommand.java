@@ -2,7 +2,6 @@ package com.geometriceditor.command;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import com.geometriceditor.model.Shape;
 import com.geometriceditor.ui.WhiteboardPanel;
@@ -13,21 +12,24 @@ import com.geometriceditor.ui.WhiteboardPanel;
 public class DeleteCommand implements Command {
 
     private final WhiteboardPanel whiteboard;
-    // Store copies of the shapes to be deleted for undo
-    private final List<Shape> shapesToDelete;
+    // Ids of the shapes to delete, resolved through the whiteboard's id index
+    private final long[] idsToDelete;
+    // The shapes actually removed, added back on undo
+    private final List<Shape> removedShapes = new ArrayList<>();
     // Store the selection state before deletion for undo
     private List<Shape> previousSelection;
+    // Bounds of the removed/restored shapes and of the selection they replaced
+    private java.awt.Rectangle affectedArea;
 
     /**
      * Creates a command to delete shapes.
      *
      * @param whiteboard The whiteboard panel containing the shapes.
-     * @param shapes     The list of shapes to delete. A defensive copy is made.
+     * @param shapes     The list of shapes to delete. Only their ids are kept.
      */
     public DeleteCommand(WhiteboardPanel whiteboard, List<Shape> shapes) {
         this.whiteboard = whiteboard;
-        // Store clones for undo, as the original objects will be removed
-        this.shapesToDelete = shapes.stream().map(Shape::clone).collect(Collectors.toList());
+        this.idsToDelete = shapes.stream().mapToLong(Shape::getId).toArray();
     }
 
     @Override
@@ -36,16 +38,21 @@ public class DeleteCommand implements Command {
         previousSelection = new ArrayList<>(whiteboard.getSelectedShapes());
 
         // Use whiteboard's direct methods for removal and deselection
-        List<String> idsToDelete = shapesToDelete.stream().map(Shape::getId).collect(Collectors.toList());
-        List<Shape> actualShapesToRemove = whiteboard.getShapes().stream()
-                .filter(s -> idsToDelete.contains(s.getId()))
-                .collect(Collectors.toList());
+        removedShapes.clear();
+        for (long id : idsToDelete) {
+            Shape shape = whiteboard.getShapeById(id);
+            if (shape != null) {
+                removedShapes.add(shape);
+            }
+        }
 
         // Deselect all first to handle cases where deleted items were selected
         whiteboard.deselectAll(); // This repaints, but observer handles final repaint
 
+        affectedArea = AffectedAreas.union(AffectedAreas.union(null, previousSelection), removedShapes);
+
         // Remove the actual shapes found on the whiteboard
-        actualShapesToRemove.forEach(whiteboard::directRemoveShape);
+        removedShapes.forEach(whiteboard::directRemoveShape);
         // Note: directRemoveShape calls repaint, but the final repaint will be
         // triggered by the CommandManager listener notification.
     }
@@ -53,10 +60,12 @@ public class DeleteCommand implements Command {
     @Override
     public void undo() {
         // Add the shapes back using direct method
-        shapesToDelete.forEach(whiteboard::directAddShape);
+        // The same instances go back, keeping their ids for redo
+        removedShapes.forEach(whiteboard::directAddShape);
 
         // Restore previous selection state
         whiteboard.directSelectShapes(previousSelection);
+        affectedArea = AffectedAreas.union(AffectedAreas.union(null, previousSelection), removedShapes);
         // Note: directAddShape calls repaint, listener handles final repaint.
         // directSelectShapes does not repaint.
     }
@@ -66,10 +75,31 @@ public class DeleteCommand implements Command {
         execute(); // Redoing deletion is the same as executing it
     }
 
+    @Override
+    public java.awt.Rectangle getAffectedArea() {
+        return affectedArea;
+    }
+
+    /**
+     * @return The size of the removed shapes, which only this command keeps
+     *         once executed.
+     */
+    @Override
+    public long estimateRetainedBytes() {
+        long bytes = 64 + 8L * idsToDelete.length + 4L * removedShapes.size();
+        if (previousSelection != null) {
+            bytes += 4L * previousSelection.size();
+        }
+        for (Shape shape : removedShapes) {
+            bytes += shape.estimateBytes();
+        }
+        return bytes;
+    }
+
     // Optional: Add getDescription() if needed later for UI hints
     // @Override
     // public String getDescription() {
-    // String desc = shapesToDelete.size() == 1 ? "shape" : "shapes";
-    // return "Delete " + shapesToDelete.size() + " " + desc;
+    // String desc = idsToDelete.length == 1 ? "shape" : "shapes";
+    // return "Delete " + idsToDelete.length + " " + desc;
     // }
 }
@@ -35,6 +35,7 @@ public class GroupCommand implements Command {
         if (createdGroup != null) {
             // Use a direct method in WhiteboardPanel to perform ungrouping
             // This method should handle removing the group, adding originals back
+            createdGroup.foldOffsets(); // Top-level children are in world coordinates
             whiteboard.directUngroupShape(createdGroup);
             // Reselect the original shapes
             whiteboard.directSelectShapes(shapesToGroup);
@@ -42,6 +43,17 @@ public class GroupCommand implements Command {
         }
     }
 
+    @Override
+    public java.awt.Rectangle getAffectedArea() {
+        // Grouping changes no geometry; the group covers exactly its members
+        return AffectedAreas.union(null, shapesToGroup);
+    }
+
+    @Override
+    public long estimateRetainedBytes() {
+        return 64 + 4L * shapesToGroup.size();
+    }
+
     @Override
     public void redo() {
         // Re-execute the grouping logic
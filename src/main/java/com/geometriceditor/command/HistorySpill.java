@@ -0,0 +1,213 @@
+package com.geometriceditor.command;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeGroup;
+import com.geometriceditor.ui.WhiteboardPanel;
+
+/**
+ * A file holding the oldest commands of an undo history that outgrew its
+ * limit, see {@link CommandManager#setHistoryLimit}. Commands are written a
+ * page at a time with Java serialization, and the most recent page is read back
+ * once undo reaches it.
+ * <p>
+ * The whiteboard and the shapes on it are written as references and resolved
+ * by id when read back; undo restores the whiteboard as it was when a command
+ * ran, so its shapes are there again. Other shapes, e.g. deleted ones, are
+ * written in full.
+ * <p>
+ * Use from the event dispatch thread only.
+ */
+public class HistorySpill implements AutoCloseable {
+    private final WhiteboardPanel whiteboard;
+    private final FileChannel channel;
+    private final Deque<long[]> pages = new ArrayDeque<>(); // {offset, length, command count}, most recent first
+    private long end = 0;
+    private int commandCount = 0;
+
+    // Written in place of the whiteboard
+    private static final class WhiteboardReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    // Written in place of a shape on the whiteboard
+    private static final class ShapeReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final long id;
+
+        ShapeReference(long id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * @param whiteboard The whiteboard the commands work on.
+     * @param file       The spill file; previous content is discarded.
+     */
+    public HistorySpill(WhiteboardPanel whiteboard, Path file) throws IOException {
+        this.whiteboard = whiteboard;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * @return The number of commands in the file.
+     */
+    public int size() {
+        return commandCount;
+    }
+
+    public boolean isEmpty() {
+        return pages.isEmpty();
+    }
+
+    /**
+     * Writes a page of commands, more recent than those already written.
+     *
+     * @param commands The commands, oldest first.
+     */
+    void push(List<Command> commands) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new SpillOutput(bytes, shapesOnWhiteboard())) {
+            out.writeObject(commands.toArray(new Command[0]));
+        }
+        ByteBuffer page = ByteBuffer.wrap(bytes.toByteArray());
+        while (page.hasRemaining()) {
+            channel.write(page, end + page.position());
+        }
+        pages.push(new long[] { end, page.capacity(), commands.size() });
+        end += page.capacity();
+        commandCount += commands.size();
+    }
+
+    /**
+     * Reads back the most recent page and removes it from the file. Call when
+     * the whiteboard is as it was after the page's last command.
+     *
+     * @return The page's commands, oldest first.
+     */
+    List<Command> pop() throws IOException {
+        long[] page = pages.pop();
+        end = page[0];
+        commandCount -= (int) page[2];
+        ByteBuffer bytes = ByteBuffer.allocate((int) page[1]);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, page[0] + bytes.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        channel.truncate(end);
+        try (ObjectInputStream in = new SpillInput(new ByteArrayInputStream(bytes.array()), shapesOnWhiteboard())) {
+            return Arrays.asList((Command[]) in.readObject());
+        } catch (ClassNotFoundException e) {
+            throw new InvalidObjectException("Unknown command class: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forgets every command in the file.
+     */
+    public void clear() {
+        pages.clear();
+        end = 0;
+        commandCount = 0;
+        try {
+            channel.truncate(0);
+        } catch (IOException e) {
+            System.err.println("Could not truncate the undo history file: " + e.getMessage()); // Overwritten later
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return Every created shape on the whiteboard, nested or not, by id.
+     */
+    private Map<Long, Shape> shapesOnWhiteboard() {
+        Map<Long, Shape> shapes = new HashMap<>();
+        whiteboard.getCreatedShapes().forEach(shape -> addWithChildren(shape, shapes));
+        return shapes;
+    }
+
+    private static void addWithChildren(Shape shape, Map<Long, Shape> shapes) {
+        shapes.put(shape.getId(), shape);
+        if (shape instanceof ShapeGroup) {
+            for (Shape child : ((ShapeGroup) shape).getLocalShapes()) {
+                addWithChildren(child, shapes);
+            }
+        }
+    }
+
+    private final class SpillOutput extends ObjectOutputStream {
+        private final Map<Long, Shape> shapes;
+
+        SpillOutput(OutputStream out, Map<Long, Shape> shapes) throws IOException {
+            super(out);
+            this.shapes = shapes;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            if (obj == whiteboard) {
+                return new WhiteboardReference();
+            }
+            if (obj instanceof Shape && shapes.get(((Shape) obj).getId()) == obj) {
+                return new ShapeReference(((Shape) obj).getId());
+            }
+            return obj;
+        }
+    }
+
+    private final class SpillInput extends ObjectInputStream {
+        private final Map<Long, Shape> shapes;
+
+        SpillInput(InputStream in, Map<Long, Shape> shapes) throws IOException {
+            super(in);
+            this.shapes = shapes;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof WhiteboardReference) {
+                return whiteboard;
+            }
+            if (obj instanceof ShapeReference) {
+                Shape shape = shapes.get(((ShapeReference) obj).id);
+                if (shape == null) {
+                    throw new InvalidObjectException("Shape " + ((ShapeReference) obj).id + " is gone");
+                }
+                return shape;
+            }
+            if (obj instanceof Shape) {
+                // Written in full, but back on the whiteboard since, e.g. by undoing its deletion
+                return shapes.getOrDefault(((Shape) obj).getId(), (Shape) obj);
+            }
+            return obj;
+        }
+    }
+}
@@ -3,16 +3,20 @@ package com.geometriceditor.command;
 import java.util.List;
 
 import com.geometriceditor.model.Shape;
+import com.geometriceditor.ui.WhiteboardPanel;
 
 /**
  * Command to move one or more shapes by a given delta (dx, dy).
  */
 public class MoveCommand implements Command {
 
+    // Optional: the whiteboard whose spatial index must follow the moved shapes
+    private final WhiteboardPanel whiteboard;
     // Use a copy of the list to prevent issues if the original selection changes
     private final List<Shape> shapesToMove;
-    private final int dx;
-    private final int dy;
+    private int dx; // Grows when later moves are merged in
+    private int dy;
+    private java.awt.Rectangle affectedArea;
     // Optional: Store original positions if move(-dx, -dy) isn't perfectly
     // reversible
     // private final Map<Shape, Shape.Point> originalPositions;
@@ -25,6 +29,20 @@ public class MoveCommand implements Command {
      * @param dy     The vertical displacement.
      */
     public MoveCommand(List<Shape> shapes, int dx, int dy) {
+        this(null, shapes, dx, dy);
+    }
+
+    /**
+     * Creates a command to move shapes that live on a whiteboard, keeping the
+     * whiteboard's spatial index up to date.
+     *
+     * @param whiteboard The whiteboard panel containing the shapes.
+     * @param shapes     The list of shapes to move. A defensive copy is made.
+     * @param dx         The horizontal displacement.
+     * @param dy         The vertical displacement.
+     */
+    public MoveCommand(WhiteboardPanel whiteboard, List<Shape> shapes, int dx, int dy) {
+        this.whiteboard = whiteboard;
         // Store an immutable copy of the shapes list at the time of command creation
         this.shapesToMove = List.copyOf(shapes);
         this.dx = dx;
@@ -38,13 +56,19 @@ public class MoveCommand implements Command {
     @Override
     public void execute() {
         // Move each shape by the delta
+        java.awt.Rectangle before = AffectedAreas.union(null, shapesToMove);
         shapesToMove.forEach(shape -> shape.move(dx, dy));
+        affectedArea = AffectedAreas.union(before, shapesToMove);
+        updateWhiteboard();
     }
 
     @Override
     public void undo() {
         // Move each shape back by the inverse delta
+        java.awt.Rectangle before = AffectedAreas.union(null, shapesToMove);
         shapesToMove.forEach(shape -> shape.move(-dx, -dy));
+        affectedArea = AffectedAreas.union(before, shapesToMove);
+        updateWhiteboard();
 
         // Example if restoring original positions:
         // shapesToMove.forEach(shape ->
@@ -57,6 +81,40 @@ public class MoveCommand implements Command {
         execute();
     }
 
+    @Override
+    public java.awt.Rectangle getAffectedArea() {
+        return affectedArea;
+    }
+
+    @Override
+    public long estimateRetainedBytes() {
+        return 64 + 4L * shapesToMove.size();
+    }
+
+    /**
+     * Absorbs a later move of the same shapes on the same whiteboard.
+     */
+    @Override
+    public boolean mergeWith(Command next) {
+        if (!(next instanceof MoveCommand)) {
+            return false;
+        }
+        MoveCommand move = (MoveCommand) next;
+        if (move.whiteboard != whiteboard || !CommandManager.sameShapes(shapesToMove, move.shapesToMove)) {
+            return false;
+        }
+        dx += move.dx;
+        dy += move.dy;
+        affectedArea = affectedArea != null ? affectedArea.union(move.affectedArea) : null;
+        return true;
+    }
+
+    private void updateWhiteboard() {
+        if (whiteboard != null) {
+            whiteboard.directUpdateShapes(shapesToMove);
+        }
+    }
+
     // Removed @Override as it's not in the Command interface
     public String getDescription() {
         if (shapesToMove.isEmpty()) {
@@ -0,0 +1,67 @@
+package com.geometriceditor.command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.ui.WhiteboardPanel;
+
+/**
+ * Command to replace every shape on the whiteboard at once, e.g. with a loaded
+ * document. The whole list is inserted in one pass, so large documents cost
+ * one history entry and one notification.
+ */
+public class ReplaceShapesCommand implements Command {
+
+    private final WhiteboardPanel whiteboard;
+    private final List<Shape> newShapes;
+    // The shapes and selection replaced, restored on undo
+    private List<Shape> previousShapes;
+    private List<Shape> previousSelection;
+
+    /**
+     * @param whiteboard The whiteboard panel to update.
+     * @param shapes     The new top-level shapes, bottom-most first. A defensive
+     *                   copy of the list is made.
+     */
+    public ReplaceShapesCommand(WhiteboardPanel whiteboard, List<Shape> shapes) {
+        this.whiteboard = whiteboard;
+        this.newShapes = new ArrayList<>(shapes);
+    }
+
+    @Override
+    public void execute() {
+        previousShapes = whiteboard.getShapes();
+        previousSelection = whiteboard.getSelectedShapes();
+        whiteboard.directReplaceShapes(newShapes);
+    }
+
+    @Override
+    public void undo() {
+        whiteboard.directReplaceShapes(previousShapes);
+        whiteboard.directSelectShapes(previousSelection);
+    }
+
+    @Override
+    public void redo() {
+        execute();
+    }
+
+    /**
+     * @return The size of the replaced document, which only this command keeps
+     *         once executed.
+     */
+    @Override
+    public long estimateRetainedBytes() {
+        long bytes = 64 + 4L * newShapes.size();
+        if (previousShapes != null) {
+            bytes += 4L * (previousShapes.size() + previousSelection.size());
+            for (Shape shape : previousShapes) {
+                bytes += shape.estimateBytes();
+            }
+        }
+        return bytes;
+    }
+
+    // The default null affected area already means "everything"
+}
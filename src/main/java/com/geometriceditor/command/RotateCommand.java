@@ -6,18 +6,29 @@ import java.util.List;
 import java.util.Map;
 
 import com.geometriceditor.model.Shape;
+import com.geometriceditor.ui.WhiteboardPanel;
 
 public class RotateCommand implements Command {
+    private final WhiteboardPanel whiteboard; // Optional: keeps the spatial index in sync
     private final List<Shape> shapesToRotate;
-    private final float rotationAmount; // Can be relative (degrees to add) or absolute (target degrees)
-    private final boolean isAbsoluteRotation; // Flag to distinguish between relative and absolute rotation
+    private float rotationAmount; // Can be relative (degrees to add) or absolute (target degrees)
+    private boolean isAbsoluteRotation; // Flag to distinguish between relative and absolute rotation
     private final Map<Shape, Float> originalRotations; // Store original rotation for undo
+    private java.awt.Rectangle affectedArea; // Bounds before and after the last change
 
     /**
      * Constructor for relative rotation.
      */
     // Removed WhiteboardPanel whiteboard parameter
     public RotateCommand(List<Shape> shapes, float degreesToAdd) {
+        this(null, shapes, degreesToAdd);
+    }
+
+    /**
+     * Constructor for relative rotation of shapes living on a whiteboard.
+     */
+    public RotateCommand(WhiteboardPanel whiteboard, List<Shape> shapes, float degreesToAdd) {
+        this.whiteboard = whiteboard;
         this.shapesToRotate = new ArrayList<>(shapes); // Copy list
         this.rotationAmount = degreesToAdd;
         this.isAbsoluteRotation = false;
@@ -31,6 +42,14 @@ public class RotateCommand implements Command {
      */
     // Removed WhiteboardPanel whiteboard parameter
     public RotateCommand(List<Shape> shapes, int targetDegrees) {
+        this(null, shapes, targetDegrees);
+    }
+
+    /**
+     * Constructor for absolute rotation of shapes living on a whiteboard.
+     */
+    public RotateCommand(WhiteboardPanel whiteboard, List<Shape> shapes, int targetDegrees) {
+        this.whiteboard = whiteboard;
         this.shapesToRotate = new ArrayList<>(shapes); // Copy list
         this.rotationAmount = targetDegrees % 360; // Normalize target angle
         this.isAbsoluteRotation = true;
@@ -42,6 +61,7 @@ public class RotateCommand implements Command {
     @Override
     public void execute() {
         System.out.println("--- Executing RotateCommand ---"); // DEBUG
+        java.awt.Rectangle before = AffectedAreas.union(null, shapesToRotate);
         for (Shape shape : shapesToRotate) {
             System.out.println("Shape ID: " + shape.getId()); // DEBUG
             float currentRotation = shape.getRotation();
@@ -63,20 +83,71 @@ public class RotateCommand implements Command {
             System.out.println("Rotation set. New shape.getRotation(): " + shape.getRotation()); // DEBUG
         }
         System.out.println("--- Finished RotateCommand ---"); // DEBUG
+        affectedArea = AffectedAreas.union(before, shapesToRotate);
+        updateWhiteboard();
         // Whiteboard repaint is handled by the caller
     }
 
     @Override
     public void undo() {
         // Restore original rotations
+        java.awt.Rectangle before = AffectedAreas.union(null, shapesToRotate);
         for (Shape shape : shapesToRotate) {
             if (originalRotations.containsKey(shape)) {
                 shape.setRotation(originalRotations.get(shape));
             }
         }
+        affectedArea = AffectedAreas.union(before, shapesToRotate);
+        updateWhiteboard();
         // Whiteboard repaint is handled by the caller
     }
 
+    @Override
+    public java.awt.Rectangle getAffectedArea() {
+        return affectedArea;
+    }
+
+    @Override
+    public long estimateRetainedBytes() {
+        return 64 + 52L * shapesToRotate.size(); // A list slot, a map entry and a boxed rotation per shape
+    }
+
+    /**
+     * Absorbs a later rotation of the same shapes on the same whiteboard,
+     * keeping the rotations before this one for undo.
+     */
+    @Override
+    public boolean mergeWith(Command next) {
+        if (!(next instanceof RotateCommand)) {
+            return false;
+        }
+        RotateCommand rotate = (RotateCommand) next;
+        if (rotate.whiteboard != whiteboard || !CommandManager.sameShapes(shapesToRotate, rotate.shapesToRotate)) {
+            return false;
+        }
+        if (rotate.isAbsoluteRotation) {
+            rotationAmount = rotate.rotationAmount;
+            isAbsoluteRotation = true;
+        } else if (isAbsoluteRotation) {
+            // Every shape ended at the same angle, which the later rotation turned further
+            rotationAmount = (rotationAmount + rotate.rotationAmount) % 360;
+            if (rotationAmount < 0) {
+                rotationAmount += 360;
+            }
+        } else {
+            rotationAmount = (rotationAmount + rotate.rotationAmount) % 360;
+        }
+        affectedArea = affectedArea != null && rotate.affectedArea != null
+                ? affectedArea.union(rotate.affectedArea) : null;
+        return true;
+    }
+
+    private void updateWhiteboard() {
+        if (whiteboard != null) {
+            whiteboard.directUpdateShapes(shapesToRotate);
+        }
+    }
+
     @Override
     public void redo() {
         // Re-apply the rotation
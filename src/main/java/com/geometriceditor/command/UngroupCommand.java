@@ -24,6 +24,7 @@ public class UngroupCommand implements Command {
         if (groupToUngroup != null) {
             // Use a direct method in WhiteboardPanel to perform ungrouping
             // This method should handle removing the group, adding originals back
+            groupToUngroup.foldOffsets(); // Top-level children are in world coordinates
             List<Shape> children = whiteboard.directUngroupShape(groupToUngroup);
             // Select the newly ungrouped shapes
             whiteboard.directSelectShapes(children);
@@ -41,6 +42,17 @@ public class UngroupCommand implements Command {
         }
     }
 
+    @Override
+    public java.awt.Rectangle getAffectedArea() {
+        return AffectedAreas.union(null, originalChildren);
+    }
+
+    @Override
+    public long estimateRetainedBytes() {
+        // The emptied group itself; its children are on the whiteboard
+        return 64 + 144 + 8L * originalChildren.size();
+    }
+
     @Override
     public void redo() {
         // Re-execute the ungrouping logic
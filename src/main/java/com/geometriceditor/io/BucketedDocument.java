@@ -0,0 +1,746 @@
+package com.geometriceditor.io;
+
+import java.awt.Color;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.ObjIntConsumer;
+
+import com.geometriceditor.model.LazyShapeSource;
+import com.geometriceditor.model.Rectangle;
+import com.geometriceditor.model.RegularPolygon;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeChanges;
+import com.geometriceditor.model.ShapeGroup;
+
+/**
+ * A document in the spatially bucketed layout, see {@link BucketedFormat}.
+ * Opening reads only the bucket directory; a whole bucket is read when a shape
+ * it may hold is first asked for, so showing one neighbourhood of a huge board
+ * reads that neighbourhood only. Saving changes writes back just the buckets
+ * holding the changed shapes, before and after the changes.
+ * <p>
+ * Not thread-safe: use it from the thread that owns the whiteboard.
+ */
+public final class BucketedDocument implements LazyShapeSource, AutoCloseable {
+    private static final int RECORDS_PER_BUCKET = 1024;
+    private static final int MAX_GRID_SIDE = 256;
+    // Segments no longer in use are dropped once they are this large and outweigh the others
+    private static final long MIN_COMPACTION_BYTES = 1024L * 1024;
+
+    private final Path file;
+    private FileChannel channel;
+    private final Map<Integer, Integer> palette = new HashMap<>(); // ARGB -> index
+    private Color[] colors = new Color[0];
+
+    // Grid: bucket of (column, row) is row * columns + column
+    private int gridX;
+    private int gridY;
+    private int cellWidth;
+    private int cellHeight;
+    private int columns;
+    private int rows;
+    private Directory directory;
+
+    private BitSet loaded;
+    // Bucket and stacking key of every shape created from the file or saved to it
+    private final Map<Long, Placement> placements = new HashMap<>();
+    private int pendingCount;
+    private int pendingRectangles;
+    private int pendingPolygons;
+
+    private static final class Placement {
+        final int bucket;
+        final int key;
+
+        Placement(int bucket, int key) {
+            this.bucket = bucket;
+            this.key = key;
+        }
+    }
+
+    /**
+     * The directory as on disk, by bucket. Saves change a copy, which replaces
+     * the directory once it is on disk too.
+     */
+    private static final class Directory {
+        final long[] offsets;
+        final int[] lengths;
+        final int[] records;
+        final int[] rectangles;
+        final int[] polygons;
+        final int[] boundsX;
+        final int[] boundsY;
+        final int[] boundsWidth;
+        final int[] boundsHeight;
+        int nextKey;
+        long length; // Of the directory itself
+
+        Directory(int buckets) {
+            offsets = new long[buckets];
+            lengths = new int[buckets];
+            records = new int[buckets];
+            rectangles = new int[buckets];
+            polygons = new int[buckets];
+            boundsX = new int[buckets];
+            boundsY = new int[buckets];
+            boundsWidth = new int[buckets];
+            boundsHeight = new int[buckets];
+        }
+
+        Directory copy() {
+            Directory copy = new Directory(offsets.length);
+            System.arraycopy(offsets, 0, copy.offsets, 0, offsets.length);
+            for (int[][] arrays : new int[][][] { { lengths, copy.lengths }, { records, copy.records },
+                    { rectangles, copy.rectangles }, { polygons, copy.polygons }, { boundsX, copy.boundsX },
+                    { boundsY, copy.boundsY }, { boundsWidth, copy.boundsWidth },
+                    { boundsHeight, copy.boundsHeight } }) {
+                System.arraycopy(arrays[0], 0, arrays[1], 0, offsets.length);
+            }
+            copy.nextKey = nextKey;
+            copy.length = length;
+            return copy;
+        }
+
+        /**
+         * Describes a bucket's new segment, holding the given top-level records
+         * of a snapshot.
+         */
+        void set(int bucket, long offset, int length, DocumentSnapshot snapshot, int[] topLevels, int from, int to) {
+            offsets[bucket] = offset;
+            lengths[bucket] = length;
+            records[bucket] = to - from;
+            int rectangleCount = 0;
+            int polygonCount = 0;
+            long minX = Long.MAX_VALUE, minY = Long.MAX_VALUE;
+            long maxX = Long.MIN_VALUE, maxY = Long.MIN_VALUE;
+            for (int k = from; k < to; k++) {
+                int i = topLevels[k];
+                for (int r = snapshot.topLevelRecords[i]; r < snapshot.endOfTopLevel(i); r++) {
+                    int kind = snapshot.tags[r] & DocumentFormat.KIND_MASK;
+                    if (kind == DocumentFormat.KIND_RECTANGLE) {
+                        rectangleCount++;
+                    } else if (kind == DocumentFormat.KIND_POLYGON) {
+                        polygonCount++;
+                    }
+                }
+                minX = Math.min(minX, snapshot.boundsX[i]);
+                minY = Math.min(minY, snapshot.boundsY[i]);
+                maxX = Math.max(maxX, (long) snapshot.boundsX[i] + snapshot.boundsWidth[i]);
+                maxY = Math.max(maxY, (long) snapshot.boundsY[i] + snapshot.boundsHeight[i]);
+            }
+            rectangles[bucket] = rectangleCount;
+            polygons[bucket] = polygonCount;
+            boolean empty = from == to;
+            boundsX[bucket] = empty ? 0 : (int) minX;
+            boundsY[bucket] = empty ? 0 : (int) minY;
+            boundsWidth[bucket] = empty ? 0 : (int) (maxX - minX);
+            boundsHeight[bucket] = empty ? 0 : (int) (maxY - minY);
+        }
+    }
+
+    /**
+     * The records of a bucket's segment.
+     */
+    private static final class Segment {
+        final int[] keys;
+        final List<Shape> shapes;
+
+        Segment(int[] keys, List<Shape> shapes) {
+            this.keys = keys;
+            this.shapes = shapes;
+        }
+    }
+
+    private BucketedDocument(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens a document by reading its bucket directory.
+     *
+     * @param file A file in the bucketed layout.
+     * @return The document, with every shape pending.
+     */
+    public static BucketedDocument open(Path file) throws IOException {
+        BucketedDocument document = new BucketedDocument(file);
+        document.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            document.readDirectory();
+        } catch (IOException | RuntimeException e) {
+            document.close();
+            throw e;
+        }
+        Directory directory = document.directory;
+        document.loaded = new BitSet(directory.offsets.length);
+        for (int bucket = 0; bucket < directory.offsets.length; bucket++) {
+            document.pendingCount += directory.records[bucket];
+            document.pendingRectangles += directory.rectangles[bucket];
+            document.pendingPolygons += directory.polygons[bucket];
+        }
+        return document;
+    }
+
+    /**
+     * Tells bucketed documents from others.
+     *
+     * @param file The file to inspect.
+     */
+    public static boolean isBucketed(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return isBucketed(channel);
+        }
+    }
+
+    /**
+     * Tells bucketed documents from others without moving the channel.
+     */
+    static boolean isBucketed(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        while (magic.hasRemaining()) {
+            if (channel.read(magic, magic.position()) < 0) {
+                return false;
+            }
+        }
+        return magic.getInt(0) == BucketedFormat.MAGIC;
+    }
+
+    /**
+     * Writes a document in the bucketed layout, replacing the file atomically.
+     *
+     * @param file   The destination file.
+     * @param shapes The top-level shapes, bottom-most first.
+     * @return The document, open for saving changes to the given shapes, which
+     *         count as created.
+     */
+    public static BucketedDocument create(Path file, List<Shape> shapes) throws IOException {
+        DocumentSnapshot snapshot = DocumentSnapshot.capture(shapes);
+        BucketedDocument document = new BucketedDocument(file);
+        document.layOutGrid(snapshot);
+        Directory directory = new Directory(document.columns * document.rows);
+        directory.nextKey = snapshot.topLevelCount;
+
+        // Sorting by bucket keeps the stacking order within each bucket
+        int[] bucketOf = new int[snapshot.topLevelCount];
+        int[] start = new int[directory.offsets.length + 1];
+        for (int i = 0; i < bucketOf.length; i++) {
+            bucketOf[i] = document.bucketOf(snapshot, i);
+            start[bucketOf[i] + 1]++;
+            document.placements.put(snapshot.ids[snapshot.topLevelRecords[i]], new Placement(bucketOf[i], i));
+        }
+        for (int bucket = 0; bucket < directory.offsets.length; bucket++) {
+            start[bucket + 1] += start[bucket];
+        }
+        int[] order = new int[bucketOf.length];
+        int[] fill = start.clone();
+        for (int i = 0; i < bucketOf.length; i++) {
+            order[fill[bucketOf[i]]++] = i;
+        }
+
+        DocumentWriter.replaceAtomically(file, channel -> {
+            BinaryOutput out = new BinaryOutput(channel);
+            out.writeInt(BucketedFormat.MAGIC);
+            out.writeVarInt(BucketedFormat.VERSION);
+            out.writeLong(0); // Directory offset, set below
+            DocumentWriter writer = new DocumentWriter(out, snapshot, document.palette);
+            for (int bucket = 0; bucket < directory.offsets.length; bucket++) {
+                if (start[bucket] == start[bucket + 1]) {
+                    continue;
+                }
+                long offset = out.position();
+                out.writeVarInt(start[bucket + 1] - start[bucket]);
+                for (int k = start[bucket]; k < start[bucket + 1]; k++) {
+                    out.writeVarInt(order[k]); // The stacking key
+                    writer.writeTopLevel(order[k]);
+                }
+                directory.set(bucket, offset, (int) (out.position() - offset), snapshot, order, start[bucket],
+                        start[bucket + 1]);
+            }
+            long directoryOffset = out.position();
+            document.writeDirectory(out, directory);
+            out.close();
+            writeDirectoryOffset(channel, directoryOffset);
+        });
+
+        document.directory = directory;
+        document.colors = document.toColors();
+        document.loaded = new BitSet(directory.offsets.length);
+        document.loaded.set(0, directory.offsets.length);
+        document.channel = FileChannel.open(file, StandardOpenOption.READ);
+        return document;
+    }
+
+    /**
+     * Reads a whole document from a channel, which is left open.
+     *
+     * @return The top-level shapes, bottom-most first.
+     */
+    static List<Shape> read(FileChannel channel) throws IOException {
+        BucketedDocument document = new BucketedDocument(null);
+        document.channel = channel;
+        document.readDirectory();
+        document.loaded = new BitSet(document.directory.offsets.length);
+        Shape[] byKey = new Shape[document.directory.nextKey];
+        try {
+            document.materializeAll((shape, key) -> byKey[key] = shape);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        List<Shape> shapes = new ArrayList<>();
+        for (Shape shape : byKey) {
+            if (shape != null) {
+                shapes.add(shape);
+            }
+        }
+        return shapes;
+    }
+
+    private void layOutGrid(DocumentSnapshot snapshot) {
+        long minX = 0, minY = 0, maxX = 0, maxY = 0;
+        for (int i = 0; i < snapshot.topLevelCount; i++) {
+            minX = i == 0 ? snapshot.boundsX[i] : Math.min(minX, snapshot.boundsX[i]);
+            minY = i == 0 ? snapshot.boundsY[i] : Math.min(minY, snapshot.boundsY[i]);
+            maxX = Math.max(i == 0 ? Long.MIN_VALUE : maxX, (long) snapshot.boundsX[i] + snapshot.boundsWidth[i]);
+            maxY = Math.max(i == 0 ? Long.MIN_VALUE : maxY, (long) snapshot.boundsY[i] + snapshot.boundsHeight[i]);
+        }
+        int side = (int) Math.min(MAX_GRID_SIDE,
+                Math.max(1, Math.ceil(Math.sqrt((double) snapshot.topLevelCount / RECORDS_PER_BUCKET))));
+        gridX = (int) minX;
+        gridY = (int) minY;
+        cellWidth = (int) Math.max(1, (maxX - minX) / side + 1);
+        cellHeight = (int) Math.max(1, (maxY - minY) / side + 1);
+        columns = side;
+        rows = side;
+    }
+
+    /**
+     * @return The bucket holding the center of a top-level record's bounds;
+     *         records outside the grid go to the nearest bucket.
+     */
+    private int bucketOf(DocumentSnapshot snapshot, int topLevel) {
+        long centerX = snapshot.boundsX[topLevel] + snapshot.boundsWidth[topLevel] / 2L;
+        long centerY = snapshot.boundsY[topLevel] + snapshot.boundsHeight[topLevel] / 2L;
+        int column = (int) Math.max(0, Math.min(columns - 1, Math.floorDiv(centerX - gridX, (long) cellWidth)));
+        int row = (int) Math.max(0, Math.min(rows - 1, Math.floorDiv(centerY - gridY, (long) cellHeight)));
+        return row * columns + column;
+    }
+
+    private void readDirectory() throws IOException {
+        ByteBuffer header = readFully(0, BucketedFormat.HEADER_SIZE);
+        if (header.getInt() != BucketedFormat.MAGIC) {
+            throw new StreamCorruptedException("Not a bucketed whiteboard document");
+        }
+        int version = header.get();
+        if (version != BucketedFormat.VERSION) {
+            throw new IOException("Unsupported bucketed document version " + version);
+        }
+        long directoryOffset = header.getLong();
+        if (directoryOffset < BucketedFormat.HEADER_SIZE || directoryOffset > channel.size()) {
+            throw new StreamCorruptedException("Invalid directory offset " + directoryOffset);
+        }
+
+        // The directory is the last thing written; anything after it was left by an interrupted save
+        ByteBuffer bytes = readFully(directoryOffset, (int) (channel.size() - directoryOffset));
+        BinaryInput in = new BinaryInput(bytes);
+        int colorCount = in.readVarInt();
+        for (int i = 0; i < colorCount; i++) {
+            palette.put(in.readInt(), i);
+        }
+        colors = toColors();
+        gridX = in.readSignedVarInt();
+        gridY = in.readSignedVarInt();
+        cellWidth = in.readVarInt();
+        cellHeight = in.readVarInt();
+        columns = in.readVarInt();
+        rows = in.readVarInt();
+        if (cellWidth < 1 || cellHeight < 1 || columns < 1 || rows < 1
+                || (long) columns * rows > MAX_GRID_SIDE * MAX_GRID_SIDE) {
+            throw new StreamCorruptedException("Invalid bucket grid");
+        }
+        directory = new Directory(columns * rows);
+        directory.nextKey = in.readVarInt();
+        for (int bucket = 0; bucket < directory.offsets.length; bucket++) {
+            directory.offsets[bucket] = in.readVarLong();
+            directory.lengths[bucket] = in.readVarInt();
+            directory.records[bucket] = in.readVarInt();
+            directory.rectangles[bucket] = in.readVarInt();
+            directory.polygons[bucket] = in.readVarInt();
+            directory.boundsX[bucket] = in.readSignedVarInt();
+            directory.boundsY[bucket] = in.readSignedVarInt();
+            directory.boundsWidth[bucket] = in.readVarInt();
+            directory.boundsHeight[bucket] = in.readVarInt();
+        }
+        directory.length = bytes.position();
+    }
+
+    private void writeDirectory(BinaryOutput out, Directory directory) throws IOException {
+        long start = out.position();
+        int[] argb = new int[palette.size()];
+        palette.forEach((color, index) -> argb[index] = color);
+        out.writeVarInt(argb.length);
+        for (int color : argb) {
+            out.writeInt(color);
+        }
+        out.writeSignedVarInt(gridX);
+        out.writeSignedVarInt(gridY);
+        out.writeVarInt(cellWidth);
+        out.writeVarInt(cellHeight);
+        out.writeVarInt(columns);
+        out.writeVarInt(rows);
+        out.writeVarInt(directory.nextKey);
+        for (int bucket = 0; bucket < directory.offsets.length; bucket++) {
+            out.writeVarLong(directory.offsets[bucket]);
+            out.writeVarInt(directory.lengths[bucket]);
+            out.writeVarInt(directory.records[bucket]);
+            out.writeVarInt(directory.rectangles[bucket]);
+            out.writeVarInt(directory.polygons[bucket]);
+            out.writeSignedVarInt(directory.boundsX[bucket]);
+            out.writeSignedVarInt(directory.boundsY[bucket]);
+            out.writeVarInt(directory.boundsWidth[bucket]);
+            out.writeVarInt(directory.boundsHeight[bucket]);
+        }
+        directory.length = out.position() - start;
+    }
+
+    private static void writeDirectoryOffset(FileChannel channel, long directoryOffset) throws IOException {
+        ByteBuffer offset = ByteBuffer.allocate(8).putLong(0, directoryOffset);
+        while (offset.hasRemaining()) {
+            channel.write(offset, BucketedFormat.DIRECTORY_OFFSET_POSITION + offset.position());
+        }
+    }
+
+    private Color[] toColors() {
+        Color[] result = Arrays.copyOf(colors, palette.size());
+        palette.forEach((argb, index) -> {
+            if (result[index] == null) {
+                result[index] = new Color(argb, true); // Shared by every shape using it
+            }
+        });
+        return result;
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private Segment readSegment(int bucket) throws IOException {
+        BinaryInput in = new BinaryInput(readFully(directory.offsets[bucket], directory.lengths[bucket]));
+        DocumentReader reader = new DocumentReader(in, colors);
+        int[] keys = new int[in.readVarInt()];
+        List<Shape> shapes = new ArrayList<>(keys.length);
+        for (int k = 0; k < keys.length; k++) {
+            keys[k] = in.readVarInt();
+            shapes.add(reader.readTopLevelShape());
+        }
+        return new Segment(keys, shapes);
+    }
+
+    @Override
+    public int size() {
+        return directory.nextKey;
+    }
+
+    @Override
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    @Override
+    public int getPendingRectangleCount() {
+        return pendingRectangles;
+    }
+
+    @Override
+    public int getPendingPolygonCount() {
+        return pendingPolygons;
+    }
+
+    @Override
+    public java.awt.Rectangle getBounds() {
+        java.awt.Rectangle bounds = null;
+        for (int bucket = 0; bucket < directory.offsets.length; bucket++) {
+            if (directory.records[bucket] > 0) {
+                java.awt.Rectangle content = new java.awt.Rectangle(directory.boundsX[bucket],
+                        directory.boundsY[bucket], directory.boundsWidth[bucket], directory.boundsHeight[bucket]);
+                bounds = bounds == null ? content : bounds.union(content);
+            }
+        }
+        return bounds != null ? bounds : new java.awt.Rectangle();
+    }
+
+    @Override
+    public void materialize(java.awt.Rectangle area, ObjIntConsumer<Shape> consumer) {
+        if (pendingCount == 0) {
+            return;
+        }
+        long areaMaxX = (long) area.x + Math.max(0, area.width);
+        long areaMaxY = (long) area.y + Math.max(0, area.height);
+        for (int bucket = loaded.nextClearBit(0); bucket < directory.offsets.length;
+                bucket = loaded.nextClearBit(bucket + 1)) {
+            if (directory.records[bucket] > 0 && directory.boundsX[bucket] <= areaMaxX
+                    && area.x <= (long) directory.boundsX[bucket] + directory.boundsWidth[bucket]
+                    && directory.boundsY[bucket] <= areaMaxY
+                    && area.y <= (long) directory.boundsY[bucket] + directory.boundsHeight[bucket]) {
+                load(bucket, consumer);
+            }
+        }
+    }
+
+    @Override
+    public void materializeAll(ObjIntConsumer<Shape> consumer) {
+        for (int bucket = loaded.nextClearBit(0); bucket < directory.offsets.length;
+                bucket = loaded.nextClearBit(bucket + 1)) {
+            load(bucket, consumer);
+        }
+    }
+
+    private void load(int bucket, ObjIntConsumer<Shape> consumer) {
+        Segment segment;
+        try {
+            segment = directory.lengths[bucket] > 0 ? readSegment(bucket) : new Segment(new int[0], List.of());
+        } catch (IOException | RuntimeException e) {
+            throw new UncheckedIOException(new StreamCorruptedException(
+                    "Cannot read bucket " + bucket + ": " + e.getMessage()));
+        }
+        loaded.set(bucket);
+        for (int k = 0; k < segment.keys.length; k++) {
+            Shape shape = segment.shapes.get(k);
+            if (placements.containsKey(shape.getId())) {
+                continue; // Created before, then saved to this bucket
+            }
+            placements.put(shape.getId(), new Placement(bucket, segment.keys[k]));
+            int[] counts = countLeaves(shape, new int[2]);
+            pendingCount--;
+            pendingRectangles -= counts[0];
+            pendingPolygons -= counts[1];
+            consumer.accept(shape, segment.keys[k]);
+        }
+    }
+
+    private static int[] countLeaves(Shape shape, int[] counts) {
+        if (shape instanceof ShapeGroup) {
+            for (Shape child : ((ShapeGroup) shape).getLocalShapes()) {
+                countLeaves(child, counts);
+            }
+        } else if (shape instanceof Rectangle) {
+            counts[0]++;
+        } else if (shape instanceof RegularPolygon) {
+            counts[1]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Writes changes back to the file. Every bucket holding a changed shape,
+     * before or after the changes, gets a new segment; added shapes go on top
+     * of the others. Like {@link JournalWriter#encodeBatch}, must run where the
+     * shapes cannot change meanwhile.
+     *
+     * @param changes The changes since the document was opened or last saved;
+     *                must not be a replacement of the document.
+     */
+    public void save(ShapeChanges changes) throws IOException {
+        if (changes.isReplaced()) {
+            throw new IllegalArgumentException("A replaced document needs to be created anew");
+        }
+        List<Shape> changed = new ArrayList<>(changes.getAdded());
+        int addedCount = changed.size();
+        changed.addAll(changes.getModified());
+        DocumentSnapshot snapshot = DocumentSnapshot.capture(changed);
+        Directory next = directory.copy();
+
+        // Where every changed shape goes, and which old records are left out
+        Map<Long, Placement> moved = new HashMap<>();
+        Set<Long> superseded = new HashSet<>();
+        Map<Integer, List<Integer>> incoming = new TreeMap<>(); // Bucket -> changed shapes
+        for (long id : changes.getRemovedIds()) {
+            Placement previous = placements.get(id);
+            if (previous != null) {
+                superseded.add(id);
+                moved.put(id, null);
+                incoming.computeIfAbsent(previous.bucket, bucket -> new ArrayList<>());
+            }
+        }
+        for (int i = 0; i < changed.size(); i++) {
+            long id = changed.get(i).getId();
+            Placement previous = placements.get(id);
+            if (previous != null) {
+                superseded.add(id);
+                incoming.computeIfAbsent(previous.bucket, bucket -> new ArrayList<>());
+            }
+            int key = previous == null || i < addedCount ? next.nextKey++ : previous.key;
+            int bucket = bucketOf(snapshot, i);
+            moved.put(id, new Placement(bucket, key));
+            incoming.computeIfAbsent(bucket, b -> new ArrayList<>()).add(i);
+        }
+        if (incoming.isEmpty()) {
+            return;
+        }
+
+        try (FileChannel output = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            long start = output.size();
+            output.position(start);
+            BinaryOutput out = new BinaryOutput(output);
+            for (Map.Entry<Integer, List<Integer>> entry : incoming.entrySet()) {
+                int bucket = entry.getKey();
+                List<Shape> shapes = new ArrayList<>();
+                List<Integer> keys = new ArrayList<>();
+                if (directory.lengths[bucket] > 0) {
+                    Segment old = readSegment(bucket);
+                    for (int k = 0; k < old.keys.length; k++) {
+                        if (!superseded.contains(old.shapes.get(k).getId())) {
+                            shapes.add(old.shapes.get(k));
+                            keys.add(old.keys[k]);
+                        }
+                    }
+                }
+                for (int i : entry.getValue()) {
+                    shapes.add(changed.get(i));
+                    keys.add(moved.get(changed.get(i).getId()).key);
+                }
+                writeSegment(out, start, next, bucket, shapes, keys);
+            }
+            long directoryOffset = start + out.position();
+            writeDirectory(out, next);
+            out.close();
+            output.force(false);
+            writeDirectoryOffset(output, directoryOffset);
+            output.force(false);
+        }
+
+        directory = next;
+        colors = toColors();
+        moved.forEach((id, placement) -> {
+            if (placement != null) {
+                placements.put(id, placement);
+            } else {
+                placements.remove(id);
+            }
+        });
+        compactIfWasteful();
+    }
+
+    /**
+     * Writes a bucket's records, sorted by stacking key, as its new segment.
+     */
+    private void writeSegment(BinaryOutput out, long base, Directory next, int bucket, List<Shape> shapes,
+            List<Integer> keys) throws IOException {
+        Integer[] order = new Integer[shapes.size()];
+        for (int k = 0; k < order.length; k++) {
+            order[k] = k;
+        }
+        Arrays.sort(order, Comparator.comparing(keys::get));
+        List<Shape> sorted = new ArrayList<>(order.length);
+        for (int k : order) {
+            sorted.add(shapes.get(k));
+        }
+        if (sorted.isEmpty()) {
+            next.set(bucket, 0, 0, DocumentSnapshot.capture(sorted), new int[0], 0, 0);
+            return;
+        }
+
+        DocumentSnapshot snapshot = DocumentSnapshot.capture(sorted);
+        DocumentWriter writer = new DocumentWriter(out, snapshot, palette);
+        long offset = out.position();
+        out.writeVarInt(sorted.size());
+        int[] topLevels = new int[sorted.size()];
+        for (int i = 0; i < topLevels.length; i++) {
+            topLevels[i] = i;
+            out.writeVarInt(keys.get(order[i]));
+            writer.writeTopLevel(i);
+        }
+        next.set(bucket, base + offset, (int) (out.position() - offset), snapshot, topLevels, 0, topLevels.length);
+    }
+
+    /**
+     * Rewrites the file without the segments replaced by saves, once they make
+     * up most of it. Each rewrite at least halves the file, so the copying
+     * stays proportional to what the saves wrote.
+     */
+    private void compactIfWasteful() throws IOException {
+        long used = BucketedFormat.HEADER_SIZE + directory.length;
+        for (int length : directory.lengths) {
+            used += length;
+        }
+        long unused = channel.size() - used;
+        if (unused < MIN_COMPACTION_BYTES || unused < used) {
+            return;
+        }
+        Directory next = directory.copy();
+        DocumentWriter.replaceAtomically(file, target -> {
+            BinaryOutput out = new BinaryOutput(target);
+            out.writeInt(BucketedFormat.MAGIC);
+            out.writeVarInt(BucketedFormat.VERSION);
+            out.writeLong(0); // Directory offset, set below
+            for (int bucket = 0; bucket < next.offsets.length; bucket++) {
+                if (next.lengths[bucket] > 0) {
+                    ByteBuffer segment = readFully(next.offsets[bucket], next.lengths[bucket]);
+                    next.offsets[bucket] = out.position();
+                    out.writeBytes(segment.array(), 0, segment.limit());
+                }
+            }
+            long directoryOffset = out.position();
+            writeDirectory(out, next);
+            out.close();
+            writeDirectoryOffset(target, directoryOffset);
+        });
+        directory = next;
+        channel.close();
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    /**
+     * Copies the document as last saved, pending shapes included, to a file
+     * without creating any shape. The file is replaced atomically. Unlike the
+     * rest of the document, may run on any thread, even while it is saved.
+     *
+     * @param destination The destination file.
+     */
+    public void copyTo(Path destination) throws IOException {
+        // A channel of its own still reads the old file once compaction replaces it
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(BucketedFormat.HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (source.read(header, header.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            // Saves write everything before pointing the header at it, so the size is read after
+            long directoryOffset = header.getLong(BucketedFormat.DIRECTORY_OFFSET_POSITION);
+            long size = source.size();
+            DocumentWriter.replaceAtomically(destination, target -> {
+                for (long position = 0; position < size;) {
+                    position += source.transferTo(position, size - position, target);
+                }
+                writeDirectoryOffset(target, directoryOffset);
+            });
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,35 @@
+package com.geometriceditor.io;
+
+/**
+ * Constants of the spatially bucketed document layout, see
+ * {@link BucketedDocument}. A uniform grid divides the board into buckets; each
+ * top-level record is stored in the bucket holding the center of its bounds,
+ * so the records of a neighbourhood are contiguous in the file.
+ *
+ * <pre>
+ * header     magic "GEDB" (int), version (varint), directory offset (long)
+ * segment    record count (varint),
+ *            per record: stacking key (varint), top-level record as in documents
+ * directory  palette as in documents,
+ *            grid x, y (signed varints), cell width, cell height, columns, rows,
+ *            next stacking key (varints),
+ *            per bucket, row by row: segment offset (varlong), segment length,
+ *            record count, rectangle count, polygon count (varints),
+ *            content bounds x, y (signed varints), width, height (varints)
+ * </pre>
+ *
+ * Stacking keys order the records across buckets, bottom-most first; they may
+ * have gaps. Saving changes appends a new segment for every bucket they touch
+ * and a new directory, then points the header at it: the previous directory
+ * stays valid until then, so an interrupted save leaves the document as it was.
+ * The palette only grows, so older segments keep their color indices.
+ */
+public final class BucketedFormat {
+    public static final int MAGIC = 0x47454442; // "GEDB"
+    static final int VERSION = 1;
+    static final int DIRECTORY_OFFSET_POSITION = 4 + 1; // After the magic and a one-byte version
+    static final int HEADER_SIZE = DIRECTORY_OFFSET_POSITION + 8;
+
+    private BucketedFormat() {
+    }
+}
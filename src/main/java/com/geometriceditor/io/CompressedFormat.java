@@ -0,0 +1,32 @@
+package com.geometriceditor.io;
+
+/**
+ * Constants of the compressed document container, shared by
+ * {@link CompressedWriter} and {@link CompressedReader}. It holds the same
+ * records as {@link DocumentFormat}, split into blocks of top-level records
+ * that are compressed, and later decompressed, independently and in parallel.
+ *
+ * <pre>
+ * header   magic "GEDZ" (int), version (varint),
+ *          palette as in documents,
+ *          top-level shape count (varint)
+ * blocks   one Deflate stream per block of {@link #BLOCK_SIZE} top-level records
+ *          (fewer in the last block), records as in documents
+ * table    first block offset (varlong), block count (varint),
+ *          per block: compressed length, uncompressed length,
+ *          top-level record count (varints)
+ * trailer  table offset (long), magic (int)
+ * </pre>
+ *
+ * Compressed documents cannot be mapped lazily or take delta segments; they
+ * are always read and written in full.
+ */
+public final class CompressedFormat {
+    public static final int MAGIC = 0x4745445A; // "GEDZ"
+    static final int VERSION = 1;
+    static final int BLOCK_SIZE = 8192;
+    static final int TRAILER_SIZE = 8 + 4;
+
+    private CompressedFormat() {
+    }
+}
@@ -0,0 +1,151 @@
+package com.geometriceditor.io;
+
+import java.awt.Color;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.geometriceditor.model.Shape;
+
+/**
+ * Reads documents in the compressed container, see {@link CompressedFormat}.
+ * Blocks are decompressed and decoded on the common fork-join pool, and handed
+ * to the caller in document order.
+ */
+final class CompressedReader {
+
+    private CompressedReader() {
+    }
+
+    /**
+     * Tells compressed documents from others without moving the channel.
+     */
+    static boolean isCompressed(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        while (magic.hasRemaining()) {
+            if (channel.read(magic, magic.position()) < 0) {
+                return false;
+            }
+        }
+        return magic.getInt(0) == CompressedFormat.MAGIC;
+    }
+
+    /**
+     * Reads a whole document a chunk of top-level shapes at a time, like
+     * {@link DocumentReader#read(java.nio.channels.ReadableByteChannel, int, DocumentReader.ChunkConsumer)}.
+     */
+    static boolean read(FileChannel channel, int chunkSize, DocumentReader.ChunkConsumer consumer)
+            throws IOException {
+        ByteBuffer trailer = ByteBuffer.allocate(CompressedFormat.TRAILER_SIZE);
+        long trailerOffset = channel.size() - CompressedFormat.TRAILER_SIZE;
+        if (trailerOffset < 0) {
+            throw new EOFException();
+        }
+        readFully(channel, trailer, trailerOffset);
+        long tableOffset = trailer.getLong(0);
+        if (trailer.getInt(8) != CompressedFormat.MAGIC || tableOffset < 0 || tableOffset > trailerOffset) {
+            throw new StreamCorruptedException("Compressed document has no block table");
+        }
+
+        BinaryInput table = new BinaryInput(readFully(channel, tableOffset, (int) (trailerOffset - tableOffset)));
+        long offset = table.readVarLong();
+        int blockCount = table.readVarInt();
+        if (offset < 0 || offset > tableOffset) {
+            throw new StreamCorruptedException("Invalid block offset " + offset);
+        }
+
+        // The header ends where the first block starts
+        BinaryInput in = new BinaryInput(readFully(channel, 0, (int) offset));
+        if (in.readInt() != CompressedFormat.MAGIC) {
+            throw new StreamCorruptedException("Not a compressed whiteboard document");
+        }
+        int version = in.readVarInt();
+        if (version != CompressedFormat.VERSION) {
+            throw new IOException("Unsupported compressed document version " + version);
+        }
+        DocumentReader header = new DocumentReader(in, null);
+        header.readPalette();
+        Color[] palette = header.getPalette();
+        int count = in.readVarInt();
+
+        List<Future<List<Shape>>> blocks = new ArrayList<>(blockCount);
+        try {
+            for (int b = 0; b < blockCount; b++) {
+                long blockOffset = offset;
+                int compressedLength = table.readVarInt();
+                int length = table.readVarInt();
+                int topLevelCount = table.readVarInt();
+                blocks.add(ForkJoinPool.commonPool().submit(
+                        () -> decompress(channel, blockOffset, compressedLength, length, topLevelCount, palette)));
+                offset += compressedLength;
+            }
+
+            int read = 0;
+            for (Future<List<Shape>> future : blocks) {
+                List<Shape> block = CompressedWriter.await(future);
+                for (int from = 0; from < block.size(); from += chunkSize) {
+                    List<Shape> chunk = block.subList(from, Math.min(from + chunkSize, block.size()));
+                    read += chunk.size();
+                    if (!consumer.accept(new ArrayList<>(chunk), read, count)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            blocks.forEach(future -> future.cancel(false)); // Blocks not started yet when stopped early
+        }
+    }
+
+    private static List<Shape> decompress(FileChannel channel, long offset, int compressedLength, int length,
+            int topLevelCount, Color[] palette) {
+        Inflater inflater = new Inflater();
+        try {
+            // Positional reads let the blocks share the channel
+            inflater.setInput(readFully(channel, offset, compressedLength));
+            ByteBuffer records = ByteBuffer.allocate(length);
+            while (records.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(records) == 0 && inflater.needsInput()) {
+                    throw new EOFException("Block truncated at " + offset);
+                }
+            }
+            records.flip();
+            DocumentReader reader = new DocumentReader(new BinaryInput(records), palette);
+            List<Shape> shapes = new ArrayList<>(topLevelCount);
+            for (int i = 0; i < topLevelCount; i++) {
+                shapes.add(reader.readTopLevelShape());
+            }
+            return shapes;
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new StreamCorruptedException("Damaged block at " + offset));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.geometriceditor.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes snapshots in the compressed container, see {@link CompressedFormat}.
+ * Blocks are encoded and compressed on the common fork-join pool while the
+ * calling thread writes the finished ones in order.
+ */
+final class CompressedWriter {
+
+    private CompressedWriter() {
+    }
+
+    /**
+     * A compressed block of top-level records.
+     */
+    private static final class Block {
+        final byte[] compressed;
+        final int length; // Uncompressed
+        final int topLevelCount;
+
+        Block(byte[] compressed, int length, int topLevelCount) {
+            this.compressed = compressed;
+            this.length = length;
+            this.topLevelCount = topLevelCount;
+        }
+    }
+
+    /**
+     * Writes a snapshot to a channel, which is left open.
+     *
+     * @param level A {@link Deflater} compression level.
+     */
+    static void write(DocumentSnapshot snapshot, WritableByteChannel channel, int level) throws IOException {
+        try (BinaryOutput out = new BinaryOutput(channel)) {
+            DocumentWriter header = new DocumentWriter(out, snapshot);
+            out.writeInt(CompressedFormat.MAGIC);
+            out.writeVarInt(CompressedFormat.VERSION);
+            header.writePalette();
+            out.writeVarInt(snapshot.topLevelCount);
+
+            List<Future<Block>> blocks = new ArrayList<>();
+            for (int from = 0; from < snapshot.topLevelCount; from += CompressedFormat.BLOCK_SIZE) {
+                int start = from;
+                int end = Math.min(from + CompressedFormat.BLOCK_SIZE, snapshot.topLevelCount);
+                blocks.add(ForkJoinPool.commonPool().submit(() -> compress(header, start, end, level)));
+            }
+
+            long blocksOffset = out.position();
+            List<Block> written = new ArrayList<>(blocks.size());
+            try {
+                for (Future<Block> future : blocks) {
+                    Block block = await(future);
+                    out.writeBytes(block.compressed, 0, block.compressed.length);
+                    written.add(block);
+                }
+            } finally {
+                blocks.forEach(future -> future.cancel(false)); // Blocks not started yet after a failure
+            }
+
+            long tableOffset = out.position();
+            out.writeVarLong(blocksOffset);
+            out.writeVarInt(written.size());
+            for (Block block : written) {
+                out.writeVarInt(block.compressed.length);
+                out.writeVarInt(block.length);
+                out.writeVarInt(block.topLevelCount);
+            }
+            out.writeLong(tableOffset);
+            out.writeInt(CompressedFormat.MAGIC);
+        }
+    }
+
+    private static Block compress(DocumentWriter header, int from, int to, int level) {
+        Deflater deflater = new Deflater(level);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DeflaterOutputStream stream = new DeflaterOutputStream(compressed, deflater, BinaryOutput.BUFFER_SIZE)) {
+            BinaryOutput out = new BinaryOutput(Channels.newChannel(stream), BinaryOutput.BUFFER_SIZE);
+            DocumentWriter writer = new DocumentWriter(out, header);
+            for (int i = from; i < to; i++) {
+                writer.writeTopLevel(i);
+            }
+            out.close();
+            stream.finish();
+            return new Block(compressed.toByteArray(), (int) out.position(), to - from);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by an in-memory stream
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Waits for a task of the fork-join pool, rethrowing its failure.
+     */
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a block");
+        }
+    }
+}
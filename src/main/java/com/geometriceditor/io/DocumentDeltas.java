@@ -0,0 +1,144 @@
+package com.geometriceditor.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import com.geometriceditor.model.Shape;
+
+/**
+ * The net effect of change batches on a base document, as stored in journals
+ * (see {@link JournalFormat}) and in the delta segments of documents (see
+ * {@link DocumentFormat}). Batches are folded together first, so the base can
+ * then be streamed through {@link #resolve(Shape)} without holding it whole.
+ */
+final class DocumentDeltas {
+    private final Set<Long> supersededIds = new HashSet<>(); // Removed, or added again on top
+    private final Map<Long, Shape> modified = new HashMap<>();
+    private final Map<Long, Shape> added = new LinkedHashMap<>();
+
+    /**
+     * Applies framed batches in order, up to the end of the buffer or the first
+     * incomplete or damaged batch.
+     */
+    void applyBatches(ByteBuffer bytes) throws IOException {
+        ByteBuffer payload;
+        while ((payload = nextPayload(bytes)) != null) {
+            applyBatch(new BinaryInput(payload));
+        }
+    }
+
+    /**
+     * @return The length of the complete, undamaged batches at the start of the
+     *         buffer; a crash may have left an incomplete one after them.
+     */
+    static int completeLength(ByteBuffer bytes) {
+        ByteBuffer batches = bytes.duplicate();
+        while (nextPayload(batches) != null) {
+            // Skips the batch
+        }
+        return batches.position() - bytes.position();
+    }
+
+    /**
+     * Advances over the next batch if it is complete and undamaged.
+     *
+     * @return The batch's payload, or null.
+     */
+    private static ByteBuffer nextPayload(ByteBuffer bytes) {
+        if (bytes.remaining() < JournalFormat.BATCH_HEADER_SIZE) {
+            return null;
+        }
+        int start = bytes.position();
+        int length = bytes.getInt(start);
+        int checksum = bytes.getInt(start + 4);
+        if (length < 0 || length > bytes.remaining() - JournalFormat.BATCH_HEADER_SIZE) {
+            return null; // Torn write at the tail
+        }
+        ByteBuffer payload = bytes.duplicate();
+        payload.position(start + JournalFormat.BATCH_HEADER_SIZE);
+        payload.limit(payload.position() + length);
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        bytes.position(payload.limit());
+        return payload;
+    }
+
+    private void applyBatch(BinaryInput in) throws IOException {
+        int removedCount = in.readVarInt();
+        for (int i = 0; i < removedCount; i++) {
+            long id = in.readSignedVarLong();
+            added.remove(id);
+            modified.remove(id);
+            supersededIds.add(id);
+        }
+        DocumentReader reader = new DocumentReader(in, null);
+        reader.readPalette();
+        int addedCount = in.readVarInt();
+        int modifiedCount = in.readVarInt();
+        for (int i = 0; i < addedCount; i++) {
+            Shape shape = reader.readTopLevelShape();
+            added.remove(shape.getId()); // Added shapes go on top
+            added.put(shape.getId(), shape);
+            modified.remove(shape.getId());
+            supersededIds.add(shape.getId());
+        }
+        for (int i = 0; i < modifiedCount; i++) {
+            Shape shape = reader.readTopLevelShape();
+            if (added.containsKey(shape.getId())) {
+                added.put(shape.getId(), shape); // Keeps its place
+            } else if (!supersededIds.contains(shape.getId())) {
+                modified.put(shape.getId(), shape);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return supersededIds.isEmpty() && modified.isEmpty();
+    }
+
+    /**
+     * @param base A top-level shape of the base document.
+     * @return The shape to keep in its place, or null if it is gone from there.
+     */
+    Shape resolve(Shape base) {
+        if (supersededIds.contains(base.getId())) {
+            return null;
+        }
+        return modified.getOrDefault(base.getId(), base);
+    }
+
+    /**
+     * @return The shapes to put on top of the base document, bottom-most first.
+     */
+    Collection<Shape> getAdded() {
+        return added.values();
+    }
+
+    /**
+     * @param base The top-level shapes of the base document, bottom-most first.
+     * @return The top-level shapes after the batches, bottom-most first.
+     */
+    List<Shape> applyTo(List<Shape> base) {
+        List<Shape> shapes = new ArrayList<>(base.size() + added.size());
+        for (Shape shape : base) {
+            Shape resolved = resolve(shape);
+            if (resolved != null) {
+                shapes.add(resolved);
+            }
+        }
+        shapes.addAll(added.values());
+        return shapes;
+    }
+}
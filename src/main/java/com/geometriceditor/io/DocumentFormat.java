@@ -0,0 +1,109 @@
+package com.geometriceditor.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Constants of the binary document format, shared by {@link DocumentWriter}
+ * and {@link DocumentReader}.
+ *
+ * <pre>
+ * header   magic "GEDT" (int), version (varint),
+ *          (version 3) delta offset (long), 0 when no delta segment follows
+ * palette  color count (varint), ARGB (int) per color
+ * body     top-level shape count (varint), one record per shape
+ * index    (version 2) entry count (varint), one entry per top-level record
+ * trailer  (version 2) index offset (long), magic (int)
+ * deltas   (version 3) from the delta offset to the end of the file, change
+ *          batches framed and encoded as in {@link JournalFormat}
+ *
+ * record   tag (byte): kind in the low bits, FLAG_* in the high bits
+ *          id delta (signed varlong), x delta, y delta (signed varints),
+ *          fill and border palette indices (varints),
+ *          [rotation (float)], [rotation center offset from position (2 signed varints)]
+ *          rectangle: width, height (signed varints), [corner radius (float)]
+ *          polygon:   sides (varint), side length (signed varint)
+ *          group:     child count (varint), then one record per child
+ *
+ * entry    record offset delta (varlong), kind (byte),
+ *          [group: rectangle and polygon counts in the subtree (varints)],
+ *          bounds x, y deltas from the previous entry (signed varints),
+ *          bounds width, height (varints)
+ * </pre>
+ *
+ * Ids and positions are deltas from the previous record in document order,
+ * which keeps them to one or two bytes for typical documents. From version 2
+ * the deltas restart at every top-level record, so each one can be decoded on
+ * its own through the index (see {@link MappedDocument}).
+ * <p>
+ * From version 3 a saved document can be extended in place: each save appends
+ * a delta segment with the top-level shapes changed and removed since the
+ * previous one, and readers apply the segments in order to the base document.
+ * The delta offset is set only once the first segment is on disk, and reading
+ * stops at the first incomplete segment, so an interrupted save leaves the
+ * document as it was. Rewriting the document folds the segments back into the
+ * base.
+ */
+public final class DocumentFormat {
+    public static final int MAGIC = 0x47454454; // "GEDT"
+    public static final int VERSION = 3;
+    static final int FIRST_INDEXED_VERSION = 2;
+    static final int FIRST_DELTA_VERSION = 3;
+    static final int DELTA_OFFSET_POSITION = 4 + 1; // After the magic and a one-byte version
+    static final int TRAILER_SIZE = 8 + 4;
+
+    static final int KIND_MASK = 0x0F;
+    static final int KIND_RECTANGLE = 1;
+    static final int KIND_POLYGON = 2;
+    static final int KIND_GROUP = 3;
+
+    static final int FLAG_ROTATED = 0x10;
+    static final int FLAG_ROTATION_CENTER = 0x20;
+    static final int FLAG_CORNER_RADIUS = 0x40;
+
+    private DocumentFormat() {
+    }
+
+    /**
+     * Tells binary documents, compressed, bucketed or not, from files written
+     * with Java serialization.
+     *
+     * @param file The file to inspect.
+     * @return true if the file starts with the magic number of the binary
+     *         format, of its compressed container or of the bucketed layout.
+     */
+    public static boolean isBinaryDocument(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    return false;
+                }
+            }
+            int magic = header.getInt(0);
+            return magic == MAGIC || magic == CompressedFormat.MAGIC || magic == BucketedFormat.MAGIC;
+        }
+    }
+
+    /**
+     * Tells whether saves can append delta segments to a file, which must be
+     * rewritten otherwise.
+     *
+     * @param file The file to inspect.
+     * @return true if the file is a binary document of the current version.
+     */
+    public static boolean acceptsDeltas(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(DELTA_OFFSET_POSITION);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    return false;
+                }
+            }
+            return header.getInt(0) == MAGIC && header.get(4) == VERSION;
+        }
+    }
+}
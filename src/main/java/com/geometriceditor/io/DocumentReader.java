@@ -0,0 +1,291 @@
+package com.geometriceditor.io;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.geometriceditor.model.Rectangle;
+import com.geometriceditor.model.RegularPolygon;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeGroup;
+
+/**
+ * Reads shapes in the binary document format, see {@link DocumentFormat}.
+ * Shapes get the ids they were saved with.
+ */
+public final class DocumentReader {
+    private final BinaryInput in;
+    private Color[] palette;
+    private int version;
+    private long deltaOffset = 0;
+    private long previousId = 0;
+    private int previousX = 0;
+    private int previousY = 0;
+
+    DocumentReader(BinaryInput in) {
+        this.in = in;
+    }
+
+    /**
+     * Creates a reader for single top-level records of an indexed document
+     * whose header was already read.
+     */
+    DocumentReader(BinaryInput in, Color[] palette) {
+        this(in);
+        this.palette = palette;
+        this.version = DocumentFormat.VERSION;
+    }
+
+    /**
+     * Reads a whole document from a file.
+     *
+     * @param file The document file.
+     * @return The top-level shapes, bottom-most first.
+     */
+    public static List<Shape> read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+
+    /**
+     * Reads a whole document from a channel, which is left open. A document with
+     * delta segments can only be read from a {@link SeekableByteChannel}, a
+     * compressed or bucketed one only from a {@link FileChannel}.
+     *
+     * @param channel The source channel, positioned at the header.
+     * @return The top-level shapes, bottom-most first.
+     */
+    public static List<Shape> read(ReadableByteChannel channel) throws IOException {
+        if (channel instanceof FileChannel && CompressedReader.isCompressed((FileChannel) channel)) {
+            List<Shape> shapes = new ArrayList<>();
+            CompressedReader.read((FileChannel) channel, Integer.MAX_VALUE,
+                    (chunk, read, total) -> shapes.addAll(chunk));
+            return shapes;
+        }
+        if (channel instanceof FileChannel && BucketedDocument.isBucketed((FileChannel) channel)) {
+            return BucketedDocument.read((FileChannel) channel);
+        }
+        DocumentReader reader = new DocumentReader(new BinaryInput(channel));
+        reader.readHeader();
+        DocumentDeltas deltas = reader.readDeltas(channel);
+        int count = reader.in.readVarInt();
+        List<Shape> shapes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            shapes.add(reader.readTopLevelShape());
+        }
+        return deltas.isEmpty() ? shapes : deltas.applyTo(shapes);
+    }
+
+    /**
+     * Reads a whole document from a channel a chunk of top-level shapes at a
+     * time, e.g. to show a document while it is being loaded. The channel is
+     * left open. Shapes added by delta segments come last, in a chunk of their
+     * own.
+     *
+     * @param channel   The source channel, positioned at the header.
+     * @param chunkSize The number of top-level shapes per chunk; the last chunk
+     *                  may be smaller.
+     * @param consumer  Receives each chunk on the calling thread.
+     * @return true if the whole document was read, false if the consumer
+     *         stopped the read.
+     */
+    public static boolean read(ReadableByteChannel channel, int chunkSize, ChunkConsumer consumer)
+            throws IOException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        if (channel instanceof FileChannel && CompressedReader.isCompressed((FileChannel) channel)) {
+            return CompressedReader.read((FileChannel) channel, chunkSize, consumer);
+        }
+        if (channel instanceof FileChannel && BucketedDocument.isBucketed((FileChannel) channel)) {
+            List<Shape> shapes = BucketedDocument.read((FileChannel) channel);
+            for (int from = 0; from < shapes.size(); from += chunkSize) {
+                int to = Math.min(from + chunkSize, shapes.size());
+                if (!consumer.accept(new ArrayList<>(shapes.subList(from, to)), to, shapes.size())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        DocumentReader reader = new DocumentReader(new BinaryInput(channel));
+        reader.readHeader();
+        DocumentDeltas deltas = reader.readDeltas(channel);
+        int count = reader.in.readVarInt();
+        int read = 0;
+        while (read < count) {
+            List<Shape> chunk = new ArrayList<>(Math.min(chunkSize, count - read));
+            while (chunk.size() < chunkSize && read < count) {
+                Shape shape = deltas.resolve(reader.readTopLevelShape());
+                if (shape != null) {
+                    chunk.add(shape);
+                }
+                read++;
+            }
+            if (!consumer.accept(chunk, read, count)) {
+                return false;
+            }
+        }
+        return deltas.getAdded().isEmpty() || consumer.accept(new ArrayList<>(deltas.getAdded()), count, count);
+    }
+
+    /**
+     * Reads the delta segments of a document whose header was read, leaving the
+     * channel where it was.
+     */
+    private DocumentDeltas readDeltas(ReadableByteChannel channel) throws IOException {
+        DocumentDeltas deltas = new DocumentDeltas();
+        if (deltaOffset == 0) {
+            return deltas;
+        }
+        if (!(channel instanceof SeekableByteChannel)) {
+            throw new IOException("A document with delta segments needs a seekable channel");
+        }
+        SeekableByteChannel file = (SeekableByteChannel) channel;
+        long resume = file.position();
+        long length = file.size() - deltaOffset;
+        if (length < 0 || length > Integer.MAX_VALUE - 8) {
+            throw new StreamCorruptedException("Invalid delta offset " + deltaOffset);
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) length);
+        file.position(deltaOffset);
+        while (bytes.hasRemaining() && file.read(bytes) >= 0) {
+            // Read until full or at end of file
+        }
+        file.position(resume);
+        bytes.flip();
+        deltas.applyBatches(bytes);
+        return deltas;
+    }
+
+    /**
+     * Receives the top-level shapes of a document read in chunks.
+     */
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        /**
+         * @param chunk The next top-level shapes, bottom-most first.
+         * @param read  The number of top-level shapes read so far, chunk
+         *              included.
+         * @param total The number of top-level shapes in the document.
+         * @return false to stop reading.
+         */
+        boolean accept(List<Shape> chunk, int read, int total);
+    }
+
+    /**
+     * Reads a top-level record and everything nested in it.
+     */
+    Shape readTopLevelShape() throws IOException {
+        if (version >= DocumentFormat.FIRST_INDEXED_VERSION) {
+            previousId = 0;
+            previousX = 0;
+            previousY = 0;
+        }
+        return readShape();
+    }
+
+    void readHeader() throws IOException {
+        if (in.readInt() != DocumentFormat.MAGIC) {
+            throw new StreamCorruptedException("Not a whiteboard document");
+        }
+        version = in.readVarInt();
+        if (version < 1 || version > DocumentFormat.VERSION) {
+            throw new IOException("Unsupported document version " + version);
+        }
+        if (version >= DocumentFormat.FIRST_DELTA_VERSION) {
+            deltaOffset = in.readLong();
+        }
+        readPalette();
+    }
+
+    /**
+     * Reads the colors records refer to by index.
+     */
+    void readPalette() throws IOException {
+        palette = new Color[in.readVarInt()];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = new Color(in.readInt(), true); // Shared by every shape using it
+        }
+    }
+
+    /**
+     * @return Where the delta segments start, or 0 if there are none.
+     */
+    long getDeltaOffset() {
+        return deltaOffset;
+    }
+
+    Color[] getPalette() {
+        return palette;
+    }
+
+    private Shape readShape() throws IOException {
+        int tag = in.readByte();
+        long id = previousId + in.readSignedVarLong();
+        int x = previousX + in.readSignedVarInt();
+        int y = previousY + in.readSignedVarInt();
+        Color fillColor = color(in.readVarInt());
+        Color borderColor = color(in.readVarInt());
+        float rotation = (tag & DocumentFormat.FLAG_ROTATED) != 0 ? in.readFloat() : 0f;
+        Shape.Point center = null;
+        if ((tag & DocumentFormat.FLAG_ROTATION_CENTER) != 0) {
+            center = new Shape.Point(x + in.readSignedVarInt(), y + in.readSignedVarInt());
+        }
+        previousId = id;
+        previousX = x;
+        previousY = y;
+
+        Shape shape;
+        switch (tag & DocumentFormat.KIND_MASK) {
+            case DocumentFormat.KIND_RECTANGLE:
+                Rectangle rectangle = new Rectangle(x, y, in.readSignedVarInt(), in.readSignedVarInt());
+                if ((tag & DocumentFormat.FLAG_CORNER_RADIUS) != 0) {
+                    rectangle.setCornerRadius(in.readFloat());
+                }
+                shape = rectangle;
+                break;
+            case DocumentFormat.KIND_POLYGON:
+                shape = new RegularPolygon(x, y, in.readVarInt(), in.readSignedVarInt());
+                break;
+            case DocumentFormat.KIND_GROUP:
+                ShapeGroup group = new ShapeGroup();
+                int childCount = in.readVarInt();
+                List<Shape> children = new ArrayList<>(childCount);
+                for (int i = 0; i < childCount; i++) {
+                    children.add(readShape());
+                }
+                group.addShapes(children);
+                group.setPosition(new Shape.Point(x, y));
+                shape = group;
+                break;
+            default:
+                throw new StreamCorruptedException("Unknown record tag " + tag);
+        }
+
+        shape.setId(id);
+        shape.setFillColor(fillColor);
+        shape.setBorderColor(borderColor);
+        if (rotation != 0) {
+            shape.setRotation(rotation);
+        }
+        // Like newly created shapes, the rotation center follows the position by default
+        shape.setRotationCenter(center != null ? center : shape.getPosition());
+        return shape;
+    }
+
+    private Color color(int index) throws IOException {
+        if (index >= palette.length) {
+            throw new StreamCorruptedException("Color index " + index + " outside the palette");
+        }
+        return palette[index];
+    }
+}
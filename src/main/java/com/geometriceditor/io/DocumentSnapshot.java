@@ -0,0 +1,201 @@
+package com.geometriceditor.io;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.geometriceditor.model.Rectangle;
+import com.geometriceditor.model.RegularPolygon;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeGroup;
+
+/**
+ * An immutable copy of a document, taken as flat primitive columns rather than
+ * cloned shapes: one row per shape, nested shapes included, in the order
+ * {@link DocumentWriter} writes them (each group followed by its children).
+ * <p>
+ * Capturing allocates only the columns, so it is cheap enough to run on the
+ * event dispatch thread while the shapes must not change; the snapshot can
+ * then be written from any thread while editing goes on.
+ */
+public final class DocumentSnapshot {
+    private static final int MIN_CAPACITY = 16;
+
+    // Per record
+    int recordCount;
+    byte[] tags; // Kind and FLAG_* bits, as written
+    long[] ids;
+    int[] xs;
+    int[] ys;
+    int[] fillColors; // Packed ARGB
+    int[] borderColors; // Packed ARGB
+    float[] rotations;
+    int[] centerXs; // Rotation center, if FLAG_ROTATION_CENTER is set
+    int[] centerYs;
+    int[] sizes1; // Rectangle width, polygon sides, group child count
+    int[] sizes2; // Rectangle height, polygon side length
+    float[] cornerRadii;
+
+    // Per top-level shape
+    final int topLevelCount;
+    final int[] topLevelRecords; // Index of the first record of each top-level shape
+    final int[] boundsX;
+    final int[] boundsY;
+    final int[] boundsWidth;
+    final int[] boundsHeight;
+
+    private DocumentSnapshot(int topLevelCount, int capacity) {
+        this.topLevelCount = topLevelCount;
+        this.topLevelRecords = new int[topLevelCount];
+        this.boundsX = new int[topLevelCount];
+        this.boundsY = new int[topLevelCount];
+        this.boundsWidth = new int[topLevelCount];
+        this.boundsHeight = new int[topLevelCount];
+        allocate(Math.max(MIN_CAPACITY, capacity));
+    }
+
+    /**
+     * Copies the state of shapes. Must run where the shapes cannot change
+     * meanwhile, e.g. on the event dispatch thread.
+     *
+     * @param shapes The top-level shapes, bottom-most first.
+     * @return The snapshot.
+     */
+    public static DocumentSnapshot capture(List<Shape> shapes) {
+        DocumentSnapshot snapshot = new DocumentSnapshot(shapes.size(), shapes.size());
+        for (int i = 0; i < shapes.size(); i++) {
+            Shape shape = shapes.get(i);
+            java.awt.Rectangle bounds = shape.getBounds();
+            snapshot.topLevelRecords[i] = snapshot.recordCount;
+            snapshot.boundsX[i] = bounds.x;
+            snapshot.boundsY[i] = bounds.y;
+            snapshot.boundsWidth[i] = Math.max(0, bounds.width);
+            snapshot.boundsHeight[i] = Math.max(0, bounds.height);
+            snapshot.add(shape, 0, 0);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return The number of top-level shapes.
+     */
+    public int size() {
+        return topLevelCount;
+    }
+
+    /**
+     * @return The number of shapes, nested ones included.
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Adds a shape, then its children, without applying the pending
+     * translation of groups.
+     *
+     * @param offsetX The pending translation of the groups holding the shape,
+     *                added to its coordinates.
+     * @param offsetY See offsetX.
+     */
+    private void add(Shape shape, int offsetX, int offsetY) {
+        int tag;
+        int size1 = 0;
+        int size2 = 0;
+        float cornerRadius = 0;
+        if (shape instanceof Rectangle) {
+            Rectangle rectangle = (Rectangle) shape;
+            tag = DocumentFormat.KIND_RECTANGLE;
+            size1 = rectangle.getWidth();
+            size2 = rectangle.getHeight();
+            cornerRadius = rectangle.getCornerRadius();
+            if (cornerRadius != 0) {
+                tag |= DocumentFormat.FLAG_CORNER_RADIUS;
+            }
+        } else if (shape instanceof RegularPolygon) {
+            RegularPolygon polygon = (RegularPolygon) shape;
+            tag = DocumentFormat.KIND_POLYGON;
+            size1 = polygon.getNumberOfSides();
+            size2 = polygon.getSideLength();
+        } else if (shape instanceof ShapeGroup) {
+            tag = DocumentFormat.KIND_GROUP;
+            size1 = ((ShapeGroup) shape).getLocalShapes().size();
+        } else {
+            throw new IllegalArgumentException("Unsupported shape type: " + shape.getClass().getName());
+        }
+
+        int x = shape.getX();
+        int y = shape.getY();
+        Shape.Point center = shape.getRotationCenter(); // Relative, like the position
+        boolean customCenter = center != null && (center.x != x || center.y != y);
+        if (shape.getRotation() != 0) {
+            tag |= DocumentFormat.FLAG_ROTATED;
+        }
+        if (customCenter) {
+            tag |= DocumentFormat.FLAG_ROTATION_CENTER;
+        }
+
+        if (recordCount == tags.length) {
+            allocate(tags.length * 2);
+        }
+        int r = recordCount++;
+        tags[r] = (byte) tag;
+        ids[r] = shape.getId();
+        xs[r] = x + offsetX;
+        ys[r] = y + offsetY;
+        fillColors[r] = shape.getFillColor().getRGB();
+        borderColors[r] = shape.getBorderColor().getRGB();
+        rotations[r] = shape.getRotation();
+        if (customCenter) {
+            centerXs[r] = center.x + offsetX;
+            centerYs[r] = center.y + offsetY;
+        }
+        sizes1[r] = size1;
+        sizes2[r] = size2;
+        cornerRadii[r] = cornerRadius;
+
+        if (shape instanceof ShapeGroup) {
+            ShapeGroup group = (ShapeGroup) shape;
+            for (Shape child : group.getLocalShapes()) {
+                add(child, offsetX + group.getOffsetX(), offsetY + group.getOffsetY());
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        if (tags == null) {
+            tags = new byte[capacity];
+            ids = new long[capacity];
+            xs = new int[capacity];
+            ys = new int[capacity];
+            fillColors = new int[capacity];
+            borderColors = new int[capacity];
+            rotations = new float[capacity];
+            centerXs = new int[capacity];
+            centerYs = new int[capacity];
+            sizes1 = new int[capacity];
+            sizes2 = new int[capacity];
+            cornerRadii = new float[capacity];
+            return;
+        }
+        tags = Arrays.copyOf(tags, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        fillColors = Arrays.copyOf(fillColors, capacity);
+        borderColors = Arrays.copyOf(borderColors, capacity);
+        rotations = Arrays.copyOf(rotations, capacity);
+        centerXs = Arrays.copyOf(centerXs, capacity);
+        centerYs = Arrays.copyOf(centerYs, capacity);
+        sizes1 = Arrays.copyOf(sizes1, capacity);
+        sizes2 = Arrays.copyOf(sizes2, capacity);
+        cornerRadii = Arrays.copyOf(cornerRadii, capacity);
+    }
+
+    /**
+     * @return The index of the record after the last one of a top-level
+     *         shape's subtree.
+     */
+    int endOfTopLevel(int topLevel) {
+        return topLevel + 1 < topLevelCount ? topLevelRecords[topLevel + 1] : recordCount;
+    }
+}
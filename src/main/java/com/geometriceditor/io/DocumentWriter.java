@@ -0,0 +1,340 @@
+package com.geometriceditor.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeChanges;
+
+/**
+ * Writes shapes in the binary document format, see {@link DocumentFormat}.
+ * Documents are written from a {@link DocumentSnapshot}, so a snapshot taken
+ * on the event dispatch thread can be written from another thread.
+ */
+public final class DocumentWriter {
+    private final BinaryOutput out;
+    private final DocumentSnapshot snapshot;
+    private final Map<Integer, Integer> palette; // ARGB -> index
+
+    DocumentWriter(BinaryOutput out, DocumentSnapshot snapshot) {
+        this(out, snapshot, new HashMap<>());
+    }
+
+    /**
+     * Creates a writer whose records refer to a palette kept by the caller. The
+     * snapshot's colors missing from it are added after the others, so indices
+     * already in use stay valid.
+     */
+    DocumentWriter(BinaryOutput out, DocumentSnapshot snapshot, Map<Integer, Integer> palette) {
+        this.out = out;
+        this.snapshot = snapshot;
+        this.palette = palette;
+        for (int r = 0; r < snapshot.recordCount; r++) {
+            palette.putIfAbsent(snapshot.fillColors[r], palette.size());
+            palette.putIfAbsent(snapshot.borderColors[r], palette.size());
+        }
+    }
+
+    /**
+     * Creates a writer for more records of another writer's snapshot, using
+     * the palette it wrote. Writers sharing a palette can run in parallel.
+     */
+    DocumentWriter(BinaryOutput out, DocumentWriter paletteWriter) {
+        this.out = out;
+        this.snapshot = paletteWriter.snapshot;
+        this.palette = paletteWriter.palette;
+    }
+
+    /**
+     * Writes a document to a file, replacing its content.
+     *
+     * @param shapes The top-level shapes, bottom-most first.
+     * @param file   The destination file.
+     */
+    public static void write(List<Shape> shapes, Path file) throws IOException {
+        write(DocumentSnapshot.capture(shapes), file);
+    }
+
+    /**
+     * Writes a document to a channel, which is left open.
+     *
+     * @param shapes  The top-level shapes, bottom-most first.
+     * @param channel The destination channel.
+     */
+    public static void write(List<Shape> shapes, WritableByteChannel channel) throws IOException {
+        write(DocumentSnapshot.capture(shapes), channel);
+    }
+
+    /**
+     * Writes a snapshot to a file, replacing its content.
+     *
+     * @param snapshot The document.
+     * @param file     The destination file.
+     */
+    public static void write(DocumentSnapshot snapshot, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(snapshot, channel);
+        }
+    }
+
+    /**
+     * Writes a snapshot to a channel, which is left open.
+     *
+     * @param snapshot The document.
+     * @param channel  The destination channel.
+     */
+    public static void write(DocumentSnapshot snapshot, WritableByteChannel channel) throws IOException {
+        try (BinaryOutput out = new BinaryOutput(channel)) {
+            DocumentWriter writer = new DocumentWriter(out, snapshot);
+            writer.writeHeader();
+            out.writeVarInt(snapshot.topLevelCount);
+            long[] offsets = new long[snapshot.topLevelCount];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = out.position();
+                writer.writeTopLevel(i);
+            }
+            long indexOffset = out.position();
+            writer.writeIndex(offsets);
+            out.writeLong(indexOffset);
+            out.writeInt(DocumentFormat.MAGIC);
+        }
+    }
+
+    /**
+     * Writes a snapshot to a temporary file next to the destination, forces it
+     * to disk, then moves it over the destination, so the destination always
+     * holds either the previous or the new document in full.
+     *
+     * @param snapshot The document.
+     * @param file     The destination file.
+     */
+    public static void writeAtomically(DocumentSnapshot snapshot, Path file) throws IOException {
+        replaceAtomically(file, channel -> write(snapshot, channel));
+    }
+
+    /**
+     * Saves changes to a document file by appending them as a delta segment.
+     * The header marks where the base document ends before the first segment
+     * is written, and readers drop a segment left incomplete. Like
+     * {@link JournalWriter#encodeBatch}, must run where the shapes cannot
+     * change meanwhile.
+     *
+     * @param changes The changes since the file was last written; must not be
+     *                a replacement of the document.
+     * @param file    A file for which {@link DocumentFormat#acceptsDeltas(Path)}
+     *                is true.
+     * @return The total length of the file's delta segments, which
+     *         {@link #compact(Path)} folds back into the base document.
+     */
+    public static long appendDelta(ShapeChanges changes, Path file) throws IOException {
+        ByteBuffer batch = ByteBuffer.wrap(JournalWriter.encodeBatch(changes));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(DocumentFormat.DELTA_OFFSET_POSITION + 8);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // Read until full or at end of file
+            }
+            if (header.getInt(0) != DocumentFormat.MAGIC || header.get(4) != DocumentFormat.VERSION) {
+                throw new IOException("Delta segments need a document of version " + DocumentFormat.VERSION);
+            }
+            long deltaOffset = header.getLong(DocumentFormat.DELTA_OFFSET_POSITION);
+            if (deltaOffset == 0) {
+                // Marks where the base document ends before writing past it, so the
+                // trailer is never looked for at the end of a torn first segment
+                deltaOffset = channel.size();
+                ByteBuffer offset = ByteBuffer.allocate(8).putLong(0, deltaOffset);
+                while (offset.hasRemaining()) {
+                    channel.write(offset, DocumentFormat.DELTA_OFFSET_POSITION + offset.position());
+                }
+                channel.force(false);
+            }
+            // Drops a segment left incomplete by an interrupted save
+            ByteBuffer deltas = ByteBuffer.allocate((int) (channel.size() - deltaOffset));
+            while (deltas.hasRemaining() && channel.read(deltas, deltaOffset + deltas.position()) >= 0) {
+                // Read until full or at end of file
+            }
+            deltas.flip();
+            long end = deltaOffset + DocumentDeltas.completeLength(deltas);
+            channel.truncate(end);
+            long position = end;
+            while (batch.hasRemaining()) {
+                position += channel.write(batch, position);
+            }
+            channel.force(false);
+            return position - deltaOffset;
+        }
+    }
+
+    /**
+     * Rewrites a document file without delta segments, replacing it atomically.
+     * Can run on any thread, as long as nothing else writes the file meanwhile.
+     *
+     * @param file The document file.
+     */
+    public static void compact(Path file) throws IOException {
+        writeAtomically(DocumentSnapshot.capture(DocumentReader.read(file)), file);
+    }
+
+    /**
+     * Writes a snapshot like {@link #writeAtomically(DocumentSnapshot, Path)},
+     * compressed in blocks on all cores unless the level is
+     * {@link Deflater#NO_COMPRESSION}, see {@link CompressedFormat}.
+     *
+     * @param snapshot The document.
+     * @param file     The destination file.
+     * @param level    A {@link Deflater} compression level, 0 to 9.
+     */
+    public static void writeAtomically(DocumentSnapshot snapshot, Path file, int level) throws IOException {
+        if (level == Deflater.NO_COMPRESSION) {
+            writeAtomically(snapshot, file);
+            return;
+        }
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        replaceAtomically(file, channel -> CompressedWriter.write(snapshot, channel, level));
+    }
+
+    /**
+     * Content written to a file channel.
+     */
+    interface ChannelContent {
+        void writeTo(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Writes content to a temporary file next to the destination, forces it to
+     * disk, then moves it over the destination.
+     */
+    static void replaceAtomically(Path file, ChannelContent content) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                content.writeTo(channel);
+                channel.force(true);
+            }
+            try {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary); // Only left over if writing failed
+        }
+    }
+
+    private void writeIndex(long[] offsets) throws IOException {
+        out.writeVarInt(offsets.length);
+        long previousOffset = 0;
+        int previousBoundsX = 0;
+        int previousBoundsY = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            int record = snapshot.topLevelRecords[i];
+            int kind = snapshot.tags[record] & DocumentFormat.KIND_MASK;
+            out.writeVarLong(offsets[i] - previousOffset);
+            previousOffset = offsets[i];
+            out.writeByte(kind);
+            if (kind == DocumentFormat.KIND_GROUP) {
+                // The subtree's records follow the group's own
+                int rectangles = 0;
+                int polygons = 0;
+                for (int r = record + 1; r < snapshot.endOfTopLevel(i); r++) {
+                    int childKind = snapshot.tags[r] & DocumentFormat.KIND_MASK;
+                    if (childKind == DocumentFormat.KIND_RECTANGLE) {
+                        rectangles++;
+                    } else if (childKind == DocumentFormat.KIND_POLYGON) {
+                        polygons++;
+                    }
+                }
+                out.writeVarInt(rectangles);
+                out.writeVarInt(polygons);
+            }
+            out.writeSignedVarInt(snapshot.boundsX[i] - previousBoundsX);
+            out.writeSignedVarInt(snapshot.boundsY[i] - previousBoundsY);
+            out.writeVarInt(snapshot.boundsWidth[i]);
+            out.writeVarInt(snapshot.boundsHeight[i]);
+            previousBoundsX = snapshot.boundsX[i];
+            previousBoundsY = snapshot.boundsY[i];
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        out.writeInt(DocumentFormat.MAGIC);
+        out.writeVarInt(DocumentFormat.VERSION);
+        out.writeLong(0); // No delta segment yet
+        writePalette();
+    }
+
+    /**
+     * Writes the colors used by the snapshot, which records refer to by index.
+     */
+    void writePalette() throws IOException {
+        int[] colors = new int[palette.size()];
+        palette.forEach((argb, index) -> colors[index] = argb);
+        out.writeVarInt(colors.length);
+        for (int argb : colors) {
+            out.writeInt(argb);
+        }
+    }
+
+    /**
+     * Writes a top-level shape and its subtree. Records are stored in the
+     * order they are written, so no recursion is needed.
+     */
+    void writeTopLevel(int topLevel) throws IOException {
+        // Deltas restart at every top-level record
+        long previousId = 0;
+        int previousX = 0;
+        int previousY = 0;
+        for (int r = snapshot.topLevelRecords[topLevel]; r < snapshot.endOfTopLevel(topLevel); r++) {
+            int tag = snapshot.tags[r];
+            int x = snapshot.xs[r];
+            int y = snapshot.ys[r];
+            out.writeByte(tag);
+            out.writeSignedVarLong(snapshot.ids[r] - previousId);
+            out.writeSignedVarInt(x - previousX);
+            out.writeSignedVarInt(y - previousY);
+            out.writeVarInt(palette.get(snapshot.fillColors[r]));
+            out.writeVarInt(palette.get(snapshot.borderColors[r]));
+            if ((tag & DocumentFormat.FLAG_ROTATED) != 0) {
+                out.writeFloat(snapshot.rotations[r]);
+            }
+            if ((tag & DocumentFormat.FLAG_ROTATION_CENTER) != 0) {
+                out.writeSignedVarInt(snapshot.centerXs[r] - x);
+                out.writeSignedVarInt(snapshot.centerYs[r] - y);
+            }
+            previousId = snapshot.ids[r];
+            previousX = x;
+            previousY = y;
+
+            switch (tag & DocumentFormat.KIND_MASK) {
+                case DocumentFormat.KIND_RECTANGLE:
+                    out.writeSignedVarInt(snapshot.sizes1[r]);
+                    out.writeSignedVarInt(snapshot.sizes2[r]);
+                    if ((tag & DocumentFormat.FLAG_CORNER_RADIUS) != 0) {
+                        out.writeFloat(snapshot.cornerRadii[r]);
+                    }
+                    break;
+                case DocumentFormat.KIND_POLYGON:
+                    out.writeVarInt(snapshot.sizes1[r]);
+                    out.writeSignedVarInt(snapshot.sizes2[r]);
+                    break;
+                default:
+                    out.writeVarInt(snapshot.sizes1[r]); // Child records follow
+                    break;
+            }
+        }
+    }
+}
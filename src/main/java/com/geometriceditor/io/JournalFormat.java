@@ -0,0 +1,65 @@
+package com.geometriceditor.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Constants of the change journal, shared by {@link JournalWriter} and
+ * {@link JournalReader}. A journal extends a checkpoint, a document in the
+ * binary format, with the changes made since.
+ *
+ * <pre>
+ * header   magic "GEDJ" (int), version (byte),
+ *          checkpoint length (long), checkpoint CRC-32 (long)
+ * batch    payload length (int), payload CRC-32 (int), payload
+ *
+ * payload  removed count (varint), removed ids (signed varlongs),
+ *          palette as in documents,
+ *          added count, modified count (varints),
+ *          one top-level document record per added then modified shape
+ * </pre>
+ *
+ * Added shapes go on top of the others, replacing any shape with the same id;
+ * modified shapes replace the shape with their id in place. The header names
+ * the checkpoint the journal extends, so a journal left behind by a crash
+ * during a checkpoint is recognized as stale. Replay stops at the first
+ * incomplete or damaged batch: a crash only loses the batches not yet synced.
+ */
+public final class JournalFormat {
+    public static final int MAGIC = 0x4745444A; // "GEDJ"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 + 1 + 8 + 8;
+    static final int BATCH_HEADER_SIZE = 4 + 4;
+
+    private JournalFormat() {
+    }
+
+    /**
+     * Identifies a checkpoint file by its length and content.
+     *
+     * @param checkpoint The checkpoint file, which may not exist.
+     * @return {length, CRC-32}, with a length of -1 for a missing file.
+     */
+    static long[] signature(Path checkpoint) throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return new long[] { -1, 0 };
+        }
+        CRC32 crc = new CRC32();
+        long length = 0;
+        try (FileChannel channel = FileChannel.open(checkpoint, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BinaryOutput.BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                length += buffer.remaining();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return new long[] { length, crc.getValue() };
+    }
+}
@@ -0,0 +1,57 @@
+package com.geometriceditor.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.geometriceditor.model.Shape;
+
+/**
+ * Rebuilds a document from a checkpoint and the journal extending it, see
+ * {@link JournalFormat}.
+ */
+public final class JournalReader {
+
+    private JournalReader() {
+    }
+
+    /**
+     * Reads a checkpoint and replays the complete batches of its journal.
+     *
+     * @param checkpoint The checkpoint file; a missing one stands for an empty
+     *                   document.
+     * @param journal    The journal file; ignored if missing or if it extends
+     *                   another checkpoint.
+     * @return The top-level shapes, bottom-most first.
+     */
+    public static List<Shape> recover(Path checkpoint, Path journal) throws IOException {
+        List<Shape> base = Files.exists(checkpoint) ? DocumentReader.read(checkpoint) : new ArrayList<>();
+        if (!Files.exists(journal) || Files.size(journal) < JournalFormat.HEADER_SIZE) {
+            return base;
+        }
+
+        // Read rather than mapped, so the journal can be truncated right after
+        ByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ)) {
+            bytes = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8, channel.size()));
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                // Read until full or at end of file
+            }
+            bytes.flip();
+        }
+        long[] signature = JournalFormat.signature(checkpoint);
+        if (bytes.getInt() != JournalFormat.MAGIC || bytes.get() != JournalFormat.VERSION
+                || bytes.getLong() != signature[0] || bytes.getLong() != signature[1]) {
+            return base; // Stale: the checkpoint already holds these changes
+        }
+
+        DocumentDeltas deltas = new DocumentDeltas();
+        deltas.applyBatches(bytes);
+        return deltas.applyTo(base);
+    }
+}
@@ -0,0 +1,124 @@
+package com.geometriceditor.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeChanges;
+
+/**
+ * Appends change batches to a journal file, see {@link JournalFormat}.
+ * Encoding a batch needs no file and can run on any thread; appending and
+ * syncing must run on one thread at a time.
+ */
+public final class JournalWriter implements AutoCloseable {
+    private final FileChannel channel;
+
+    /**
+     * Opens a journal file, creating it if needed. Call {@link #reset(Path)}
+     * before appending.
+     */
+    public JournalWriter(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Empties the journal and starts it over as the extension of a checkpoint
+     * just written, forcing the new header to disk.
+     *
+     * @param checkpoint The checkpoint file.
+     */
+    public void reset(Path checkpoint) throws IOException {
+        long[] signature = JournalFormat.signature(checkpoint);
+        ByteBuffer header = ByteBuffer.allocate(JournalFormat.HEADER_SIZE);
+        header.putInt(JournalFormat.MAGIC);
+        header.put((byte) JournalFormat.VERSION);
+        header.putLong(signature[0]);
+        header.putLong(signature[1]);
+        header.flip();
+        channel.truncate(0);
+        channel.position(0);
+        writeFully(header);
+        channel.force(false);
+    }
+
+    /**
+     * Appends encoded batches. They are durable only after {@link #sync()}.
+     */
+    public void append(ByteBuffer batches) throws IOException {
+        writeFully(batches);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Forces appended batches to disk.
+     */
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Encodes accumulated changes as one batch, reading the current state of
+     * the added and modified shapes. Must run where the shapes cannot change
+     * meanwhile, e.g. on the event dispatch thread.
+     *
+     * @param changes The changes; must not be a replacement of the document.
+     * @return The batch, with its length and checksum.
+     */
+    public static byte[] encodeBatch(ShapeChanges changes) {
+        if (changes.isReplaced()) {
+            throw new IllegalArgumentException("A replaced document needs a checkpoint, not a batch");
+        }
+        List<Shape> added = changes.getAdded();
+        List<Shape> modified = changes.getModified();
+        List<Shape> written = new ArrayList<>(added);
+        written.addAll(modified);
+        DocumentSnapshot snapshot = DocumentSnapshot.capture(written);
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (BinaryOutput out = new BinaryOutput(Channels.newChannel(payload), 1024)) {
+            out.writeVarInt(changes.getRemovedIds().size());
+            for (long id : changes.getRemovedIds()) {
+                out.writeSignedVarLong(id);
+            }
+            DocumentWriter writer = new DocumentWriter(out, snapshot);
+            writer.writePalette();
+            out.writeVarInt(added.size());
+            out.writeVarInt(modified.size());
+            for (int i = 0; i < written.size(); i++) {
+                writer.writeTopLevel(i);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown by an in-memory channel
+        }
+
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer batch = ByteBuffer.allocate(JournalFormat.BATCH_HEADER_SIZE + bytes.length);
+        batch.putInt(bytes.length);
+        batch.putInt((int) crc.getValue());
+        batch.put(bytes);
+        return batch.array();
+    }
+}
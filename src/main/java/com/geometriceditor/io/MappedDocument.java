@@ -0,0 +1,384 @@
+package com.geometriceditor.io;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+import com.geometriceditor.model.LazyShapeSource;
+import com.geometriceditor.model.Shape;
+
+/**
+ * A binary document opened by memory-mapping the file. Opening reads only the
+ * header and the record index; shapes are decoded from the mapping when they
+ * are first asked for, so the cost of showing a viewport does not depend on
+ * the size of the file.
+ * <p>
+ * Pending records are found through a uniform grid over their stored bounds,
+ * kept in flat int arrays. Not thread-safe: use it from the thread that owns
+ * the whiteboard.
+ */
+public final class MappedDocument implements LazyShapeSource {
+    // Records spanning more grid cells than this are kept in a separate list
+    private static final int MAX_CELLS_PER_RECORD = 16;
+    private static final int RECORDS_PER_CELL = 4;
+    private static final int MAX_GRID_SIDE = 1024;
+
+    private final ByteBuffer mapping;
+    private final Color[] palette;
+    private final int size;
+
+    // Per-record index, by stacking position
+    private final int[] offsets;
+    private final int[] boundsX;
+    private final int[] boundsY;
+    private final int[] boundsWidth;
+    private final int[] boundsHeight;
+    private final byte[] kinds;
+    private final Map<Integer, int[]> groupCounts = new HashMap<>(); // {rectangles, polygons}
+
+    // Grid: records of cell c are cellRecords[cellStart[c] .. cellStart[c + 1])
+    private int gridX;
+    private int gridY;
+    private int cellWidth;
+    private int cellHeight;
+    private int columns;
+    private int rows;
+    private int[] cellStart;
+    private int[] cellRecords;
+    private int[] largeRecords;
+
+    private final BitSet created;
+    private int pendingCount;
+    private int pendingRectangles;
+    private int pendingPolygons;
+
+    private MappedDocument(ByteBuffer mapping, Color[] palette, int size) {
+        this.mapping = mapping;
+        this.palette = palette;
+        this.size = size;
+        this.offsets = new int[size];
+        this.boundsX = new int[size];
+        this.boundsY = new int[size];
+        this.boundsWidth = new int[size];
+        this.boundsHeight = new int[size];
+        this.kinds = new byte[size];
+        this.created = new BitSet(size);
+        this.pendingCount = size;
+    }
+
+    /**
+     * Tells whether a file can be opened lazily: a binary document of version
+     * 2 or later without delta segments, small enough to be mapped as a single
+     * buffer, whose record index is found at the end. Other documents, e.g. one
+     * with bytes left after it by an interrupted save, are read in full.
+     */
+    public static boolean isMappable(Path file) throws IOException {
+        if (!DocumentFormat.isBinaryDocument(file)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return false;
+            }
+            ByteBuffer header = ByteBuffer.allocate(DocumentFormat.DELTA_OFFSET_POSITION + 8);
+            channel.read(header, 0);
+            header.flip();
+            if (header.getInt(0) != DocumentFormat.MAGIC) {
+                return false; // Compressed
+            }
+            int version = header.get(4);
+            if (version >= DocumentFormat.FIRST_DELTA_VERSION
+                    && header.getLong(DocumentFormat.DELTA_OFFSET_POSITION) != 0) {
+                return false; // Delta segments are only applied when reading in full
+            }
+            if (version < DocumentFormat.FIRST_INDEXED_VERSION || channel.size() < DocumentFormat.TRAILER_SIZE) {
+                return false;
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(DocumentFormat.TRAILER_SIZE);
+            channel.read(trailer, channel.size() - DocumentFormat.TRAILER_SIZE);
+            return trailer.getInt(8) == DocumentFormat.MAGIC;
+        }
+    }
+
+    /**
+     * Maps a document and reads its index.
+     *
+     * @param file A file for which {@link #isMappable(Path)} is true.
+     * @return The document, with every shape pending.
+     */
+    public static MappedDocument open(Path file) throws IOException {
+        MappedByteBuffer mapping;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Document too large to map: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        DocumentReader header = new DocumentReader(new BinaryInput(mapping.duplicate()));
+        header.readHeader();
+        if (header.getDeltaOffset() != 0) {
+            throw new IOException("Document has delta segments: " + file);
+        }
+
+        int trailer = mapping.limit() - DocumentFormat.TRAILER_SIZE;
+        if (trailer < 0 || mapping.getInt(trailer + 8) != DocumentFormat.MAGIC) {
+            throw new StreamCorruptedException("Document has no record index");
+        }
+        long indexOffset = mapping.getLong(trailer);
+        if (indexOffset < 0 || indexOffset > trailer) {
+            throw new StreamCorruptedException("Invalid index offset " + indexOffset);
+        }
+        ByteBuffer indexView = mapping.duplicate();
+        indexView.position((int) indexOffset);
+        BinaryInput index = new BinaryInput(indexView);
+
+        MappedDocument document = new MappedDocument(mapping, header.getPalette(), index.readVarInt());
+        document.readIndex(index);
+        document.buildGrid();
+        return document;
+    }
+
+    private void readIndex(BinaryInput index) throws IOException {
+        long offset = 0;
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < size; i++) {
+            offset += index.readVarLong();
+            offsets[i] = (int) offset;
+            kinds[i] = (byte) index.readByte();
+            switch (kinds[i]) {
+                case DocumentFormat.KIND_RECTANGLE:
+                    pendingRectangles++;
+                    break;
+                case DocumentFormat.KIND_POLYGON:
+                    pendingPolygons++;
+                    break;
+                case DocumentFormat.KIND_GROUP:
+                    int[] counts = { index.readVarInt(), index.readVarInt() };
+                    groupCounts.put(i, counts);
+                    pendingRectangles += counts[0];
+                    pendingPolygons += counts[1];
+                    break;
+                default:
+                    throw new StreamCorruptedException("Unknown index kind " + kinds[i]);
+            }
+            x += index.readSignedVarInt();
+            y += index.readSignedVarInt();
+            boundsX[i] = x;
+            boundsY[i] = y;
+            boundsWidth[i] = index.readVarInt();
+            boundsHeight[i] = index.readVarInt();
+        }
+    }
+
+    private void buildGrid() {
+        if (size == 0) {
+            columns = rows = cellWidth = cellHeight = 1;
+            cellStart = new int[2];
+            cellRecords = largeRecords = new int[0];
+            return;
+        }
+        long minX = Long.MAX_VALUE, minY = Long.MAX_VALUE;
+        long maxX = Long.MIN_VALUE, maxY = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            minX = Math.min(minX, boundsX[i]);
+            minY = Math.min(minY, boundsY[i]);
+            maxX = Math.max(maxX, (long) boundsX[i] + boundsWidth[i]);
+            maxY = Math.max(maxY, (long) boundsY[i] + boundsHeight[i]);
+        }
+        int side = (int) Math.min(MAX_GRID_SIDE, Math.max(1, Math.sqrt((double) size / RECORDS_PER_CELL)));
+        gridX = (int) minX;
+        gridY = (int) minY;
+        cellWidth = (int) Math.max(1, (maxX - minX) / side + 1);
+        cellHeight = (int) Math.max(1, (maxY - minY) / side + 1);
+        columns = side;
+        rows = side;
+
+        // Two passes over the records: count per cell, then fill
+        cellStart = new int[columns * rows + 1];
+        int largeCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (isLarge(i)) {
+                largeCount++;
+                continue;
+            }
+            for (int row = row(boundsY[i]); row <= row(boundsY[i] + boundsHeight[i]); row++) {
+                for (int column = column(boundsX[i]); column <= column(boundsX[i] + boundsWidth[i]); column++) {
+                    cellStart[row * columns + column + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < columns * rows; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        cellRecords = new int[cellStart[columns * rows]];
+        largeRecords = new int[largeCount];
+        int[] fill = new int[columns * rows];
+        largeCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (isLarge(i)) {
+                largeRecords[largeCount++] = i;
+                continue;
+            }
+            for (int row = row(boundsY[i]); row <= row(boundsY[i] + boundsHeight[i]); row++) {
+                for (int column = column(boundsX[i]); column <= column(boundsX[i] + boundsWidth[i]); column++) {
+                    int cell = row * columns + column;
+                    cellRecords[cellStart[cell] + fill[cell]++] = i;
+                }
+            }
+        }
+    }
+
+    private boolean isLarge(int record) {
+        long cells = (long) (column(boundsX[record] + boundsWidth[record]) - column(boundsX[record]) + 1)
+                * (row(boundsY[record] + boundsHeight[record]) - row(boundsY[record]) + 1);
+        return cells > MAX_CELLS_PER_RECORD;
+    }
+
+    // Grid cell coordinates, clamped to the grid
+    private int column(long x) {
+        return (int) Math.max(0, Math.min(columns - 1, Math.floorDiv(x - gridX, (long) cellWidth)));
+    }
+
+    private int row(long y) {
+        return (int) Math.max(0, Math.min(rows - 1, Math.floorDiv(y - gridY, (long) cellHeight)));
+    }
+
+    /**
+     * Writes the mapped document, pending shapes included, to a file without
+     * creating any shape. The file is replaced atomically.
+     *
+     * @param file The destination file.
+     */
+    public void copyTo(Path file) throws IOException {
+        DocumentWriter.replaceAtomically(file, channel -> {
+            ByteBuffer content = mapping.duplicate();
+            content.clear();
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            // Saves may have appended delta segments to the file since it was mapped
+            if (content.get(4) >= DocumentFormat.FIRST_DELTA_VERSION) {
+                channel.write(ByteBuffer.allocate(8), DocumentFormat.DELTA_OFFSET_POSITION);
+            }
+        });
+    }
+
+    /**
+     * @return Whether copies made by {@link #copyTo(Path)} accept delta
+     *         segments, see {@link DocumentWriter#appendDelta}.
+     */
+    public boolean acceptsDeltas() {
+        return mapping.get(4) == DocumentFormat.VERSION;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public java.awt.Rectangle getBounds() {
+        if (size == 0) {
+            return new java.awt.Rectangle();
+        }
+        // The grid spans every record
+        return new java.awt.Rectangle(gridX, gridY, columns * cellWidth, rows * cellHeight);
+    }
+
+    @Override
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    @Override
+    public int getPendingRectangleCount() {
+        return pendingRectangles;
+    }
+
+    @Override
+    public int getPendingPolygonCount() {
+        return pendingPolygons;
+    }
+
+    @Override
+    public void materialize(java.awt.Rectangle area, ObjIntConsumer<Shape> consumer) {
+        if (pendingCount == 0) {
+            return;
+        }
+        long areaMaxX = (long) area.x + Math.max(0, area.width);
+        long areaMaxY = (long) area.y + Math.max(0, area.height);
+        for (int record : largeRecords) {
+            materializeIfIntersecting(record, area, areaMaxX, areaMaxY, consumer);
+        }
+        if (areaMaxX < gridX || areaMaxY < gridY) {
+            return; // Clamping would otherwise scan the first column or row
+        }
+        for (int row = row(area.y); row <= row(areaMaxY); row++) {
+            for (int column = column(area.x); column <= column(areaMaxX); column++) {
+                int cell = row * columns + column;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    materializeIfIntersecting(cellRecords[i], area, areaMaxX, areaMaxY, consumer);
+                }
+            }
+        }
+    }
+
+    private void materializeIfIntersecting(int record, java.awt.Rectangle area, long areaMaxX, long areaMaxY,
+            ObjIntConsumer<Shape> consumer) {
+        if (created.get(record)) {
+            return;
+        }
+        if (boundsX[record] <= areaMaxX && area.x <= (long) boundsX[record] + boundsWidth[record]
+                && boundsY[record] <= areaMaxY && area.y <= (long) boundsY[record] + boundsHeight[record]) {
+            consumer.accept(create(record), record);
+        }
+    }
+
+    @Override
+    public void materializeAll(ObjIntConsumer<Shape> consumer) {
+        for (int record = created.nextClearBit(0); record < size; record = created.nextClearBit(record + 1)) {
+            consumer.accept(create(record), record);
+        }
+    }
+
+    private Shape create(int record) {
+        Shape shape;
+        try {
+            ByteBuffer view = mapping.duplicate();
+            view.position(offsets[record]);
+            shape = new DocumentReader(new BinaryInput(view), palette).readTopLevelShape();
+        } catch (IOException | RuntimeException e) {
+            throw new UncheckedIOException(new StreamCorruptedException(
+                    "Cannot decode record " + record + ": " + e.getMessage()));
+        }
+        created.set(record);
+        pendingCount--;
+        switch (kinds[record]) {
+            case DocumentFormat.KIND_RECTANGLE:
+                pendingRectangles--;
+                break;
+            case DocumentFormat.KIND_POLYGON:
+                pendingPolygons--;
+                break;
+            default:
+                int[] counts = groupCounts.remove(record);
+                pendingRectangles -= counts[0];
+                pendingPolygons -= counts[1];
+                break;
+        }
+        return shape;
+    }
+}
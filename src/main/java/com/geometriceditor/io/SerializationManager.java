@@ -4,29 +4,35 @@ import com.geometriceditor.model.Shape;
 import com.geometriceditor.ui.WhiteboardPanel;
 
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 
 public class SerializationManager {
     public static void saveWhiteboard(WhiteboardPanel whiteboard, String filePath) throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filePath))) {
-            // Save the list of shapes
-            List<Shape> shapes = whiteboard.getShapes();
-            oos.writeObject(shapes);
-        }
+        // Save the list of shapes
+        DocumentWriter.write(whiteboard.getShapes(), Paths.get(filePath));
     }
 
-    @SuppressWarnings("unchecked")
     public static void loadWhiteboard(WhiteboardPanel whiteboard, String filePath)
             throws IOException, ClassNotFoundException {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filePath))) {
-            // Clear existing shapes
-            whiteboard.clearShapes();
+        List<Shape> loadedShapes = readShapes(Paths.get(filePath));
+
+        // Replace the existing shapes in one pass; a loaded document starts a new history
+        whiteboard.loadShapes(loadedShapes, false);
+    }
 
-            // Load and add shapes
-            List<Shape> loadedShapes = (List<Shape>) ois.readObject();
-            for (Shape shape : loadedShapes) {
-                whiteboard.addShape(shape);
-            }
+    /**
+     * Reads a document in the binary format, or a list of shapes written with
+     * Java serialization by earlier versions.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Shape> readShapes(Path file) throws IOException, ClassNotFoundException {
+        if (DocumentFormat.isBinaryDocument(file)) {
+            return DocumentReader.read(file);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file.toFile())))) {
+            return (List<Shape>) ois.readObject();
         }
     }
 }
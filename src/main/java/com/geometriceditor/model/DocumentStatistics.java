@@ -0,0 +1,182 @@
+package com.geometriceditor.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Running statistics of a document's shapes: counts per type, how deep groups
+ * are nested, the total area and the estimated memory per type. They are
+ * updated by what changed, see {@link #apply(ShapeChangeEvent)}, and only
+ * recounted when the whole document is replaced.
+ * <p>
+ * Shapes of a lazily loaded document that were not created yet are included
+ * in the rectangle and polygon counts only. Use from the event dispatch thread
+ * only.
+ */
+public final class DocumentStatistics {
+    private int rectangles = 0;
+    private int polygons = 0;
+    private int groups = 0;
+    private double area = 0;
+    private long rectangleBytes = 0;
+    private long polygonBytes = 0;
+    private long groupBytes = 0;
+    private int[] depthCounts = new int[4]; // Top-level shapes by depth, see ShapeStatistics.getDepth
+    private LazyShapeSource pendingShapes; // Null if every shape exists
+
+    /**
+     * Recounts a whole document.
+     *
+     * @param shapes  The top-level shapes created so far.
+     * @param pending The shapes of a lazily loaded document not created yet, or
+     *                null.
+     */
+    public void reset(Collection<Shape> shapes, LazyShapeSource pending) {
+        rectangles = 0;
+        polygons = 0;
+        groups = 0;
+        area = 0;
+        rectangleBytes = 0;
+        polygonBytes = 0;
+        groupBytes = 0;
+        Arrays.fill(depthCounts, 0);
+        pendingShapes = pending;
+        shapes.forEach(this::add);
+    }
+
+    /**
+     * Counts the changes of an event; a replaced document needs
+     * {@link #reset}.
+     */
+    public void apply(ShapeChangeEvent event) {
+        if (event.isReplaced()) {
+            throw new IllegalArgumentException("A replaced document must be recounted");
+        }
+        event.getRemoved().forEach(this::remove);
+        event.getAdded().forEach(this::add);
+        event.getModified().forEach(this::update);
+    }
+
+    /**
+     * Counts a top-level shape, e.g. one just created for a lazily loaded
+     * document.
+     */
+    public void add(Shape shape) {
+        ShapeStatistics statistics = shape.getStatistics();
+        count(statistics, 1);
+        shape.setCountedStatistics(statistics);
+    }
+
+    /**
+     * Stops counting a top-level shape, as it was when counted.
+     */
+    public void remove(Shape shape) {
+        count(shape.getCountedStatistics(), -1);
+    }
+
+    /**
+     * Recounts a top-level shape that changed, or whose nested shapes did.
+     */
+    public void update(Shape shape) {
+        ShapeStatistics counted = shape.getCountedStatistics();
+        ShapeStatistics statistics = shape.getStatistics();
+        if (statistics != counted) {
+            count(counted, -1);
+            count(statistics, 1);
+            shape.setCountedStatistics(statistics);
+        }
+    }
+
+    private void count(ShapeStatistics statistics, int sign) {
+        rectangles += sign * statistics.getRectangleCount();
+        polygons += sign * statistics.getPolygonCount();
+        groups += sign * statistics.getGroupCount();
+        area += sign * statistics.getArea();
+        rectangleBytes += sign * statistics.getRectangleBytes();
+        polygonBytes += sign * statistics.getPolygonBytes();
+        groupBytes += sign * statistics.getGroupBytes();
+        int depth = statistics.getDepth();
+        if (depth >= depthCounts.length) {
+            depthCounts = Arrays.copyOf(depthCounts, depth * 2);
+        }
+        depthCounts[depth] += sign;
+    }
+
+    /**
+     * @return The number of rectangles, including those nested in groups and
+     *         those not created yet.
+     */
+    public int getRectangleCount() {
+        return rectangles + (pendingShapes != null ? pendingShapes.getPendingRectangleCount() : 0);
+    }
+
+    /**
+     * @return The number of polygons, including those nested in groups and
+     *         those not created yet.
+     */
+    public int getPolygonCount() {
+        return polygons + (pendingShapes != null ? pendingShapes.getPendingPolygonCount() : 0);
+    }
+
+    /**
+     * @return The number of rectangles and polygons.
+     */
+    public int getShapeCount() {
+        return getRectangleCount() + getPolygonCount();
+    }
+
+    public int getGroupCount() {
+        return groups;
+    }
+
+    /**
+     * @return How deep groups are nested: 0 without groups, 1 if no group
+     *         holds another.
+     */
+    public int getMaxGroupDepth() {
+        for (int depth = depthCounts.length - 1; depth > 0; depth--) {
+            if (depthCounts[depth] > 0) {
+                return depth;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return The sum of the areas of the rectangles and polygons, overlaps
+     *         counted twice.
+     */
+    public double getTotalArea() {
+        return area;
+    }
+
+    public long getRectangleBytes() {
+        return rectangleBytes;
+    }
+
+    public long getPolygonBytes() {
+        return polygonBytes;
+    }
+
+    /**
+     * @return The estimated size of the groups, without their children.
+     */
+    public long getGroupBytes() {
+        return groupBytes;
+    }
+
+    /**
+     * @return The estimated size of the created shapes, see
+     *         {@link Shape#estimateBytes()}.
+     */
+    public long getEstimatedBytes() {
+        return rectangleBytes + polygonBytes + groupBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentStatistics{rectangles=" + getRectangleCount() + ", polygons=" + getPolygonCount()
+                + ", groups=" + groups + ", maxGroupDepth=" + getMaxGroupDepth() + ", totalArea=" + area
+                + ", estimatedBytes=" + getEstimatedBytes() + "}";
+    }
+}
@@ -0,0 +1,57 @@
+package com.geometriceditor.model;
+
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The top-level shapes of a document that are created only when first needed,
+ * e.g. read on demand from a memory-mapped file. Each shape is created once;
+ * the source knows the bounds of the pending ones without creating them.
+ */
+public interface LazyShapeSource {
+
+    /**
+     * @return The number of stacking positions the top-level shapes take: at
+     *         least their number, more if the document leaves positions unused.
+     */
+    int size();
+
+    /**
+     * @return An area covering every top-level shape, pending or not, as
+     *         stored in the document.
+     */
+    java.awt.Rectangle getBounds();
+
+    /**
+     * @return The number of top-level shapes not created yet.
+     */
+    int getPendingCount();
+
+    /**
+     * @return How many rectangles the pending shapes hold, including those
+     *         nested in groups.
+     */
+    int getPendingRectangleCount();
+
+    /**
+     * @return How many polygons the pending shapes hold, including those nested
+     *         in groups.
+     */
+    int getPendingPolygonCount();
+
+    /**
+     * Creates every pending shape whose bounds intersect the area (edges
+     * inclusive).
+     *
+     * @param area     The area in whiteboard coordinates.
+     * @param consumer Receives each new shape with its stacking position, from
+     *                 0 (bottom-most) to {@link #size()} - 1.
+     */
+    void materialize(java.awt.Rectangle area, ObjIntConsumer<Shape> consumer);
+
+    /**
+     * Creates every pending shape.
+     *
+     * @param consumer Receives each new shape with its stacking position.
+     */
+    void materializeAll(ObjIntConsumer<Shape> consumer);
+}
@@ -5,6 +5,8 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 
 public class Rectangle extends Shape {
+    private static final long serialVersionUID = 4833927060134483787L;
+
     private int width;
     private int height;
     private float cornerRadius;
@@ -55,12 +57,13 @@ public class Rectangle extends Shape {
 
     @Override
     public boolean contains(Point point) {
+        Point local = toUnrotated(point);
         Rectangle2D rect = new Rectangle2D.Double(
                 position.x,
                 position.y,
                 width,
                 height);
-        return rect.contains(point.x, point.y);
+        return rect.contains(local.x, local.y);
     }
 
     @Override
@@ -68,6 +71,19 @@ public class Rectangle extends Shape {
         return new Rectangle(this);
     }
 
+    @Override
+    public long estimateBytes() {
+        return super.estimateBytes() + 16;
+    }
+
+    /**
+     * @return The area, ignoring rounded corners.
+     */
+    @Override
+    public double getArea() {
+        return (double) width * height;
+    }
+
     // Getters and Setters
     public int getWidth() {
         return width;
@@ -75,6 +91,8 @@ public class Rectangle extends Shape {
 
     public void setWidth(int width) {
         this.width = width;
+        invalidateBounds();
+        invalidateStatistics();
     }
 
     public int getHeight() {
@@ -83,6 +101,8 @@ public class Rectangle extends Shape {
 
     public void setHeight(int height) {
         this.height = height;
+        invalidateBounds();
+        invalidateStatistics();
     }
 
     public float getCornerRadius() {
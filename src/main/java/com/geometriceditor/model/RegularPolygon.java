@@ -3,12 +3,25 @@ package com.geometriceditor.model;
 import java.awt.Graphics2D;
 import java.awt.Polygon;
 import java.awt.geom.AffineTransform;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class RegularPolygon extends Shape {
+    private static final long serialVersionUID = 7341116898122112640L;
+
+    // Unit-circle vertices per side count, shared by all polygons: {cos0, sin0, cos1, sin1, ...}
+    private static final Map<Integer, double[]> UNIT_VERTICES = new ConcurrentHashMap<>();
+
     private int numberOfSides;
     private int sideLength;
     private int radius;
 
+    // Vertex cache, rebuilt when the position, radius or side count changes; null means stale
+    private transient Polygon outline;
+    // Inverse rotation used by hit-testing, cached alongside the vertices
+    private transient double unrotateCos;
+    private transient double unrotateSin;
+
     // Constructors
     public RegularPolygon() {
         super();
@@ -59,17 +72,65 @@ public class RegularPolygon extends Shape {
 
     @Override
     public boolean contains(Point point) {
-        int[] xPoints = new int[numberOfSides];
-        int[] yPoints = new int[numberOfSides];
+        Polygon poly = getOutline();
+        if (rotation == 0) {
+            return poly.contains(point.x, point.y);
+        }
+        // Undo the rotation about the center, without allocating
+        double dx = point.x - getX();
+        double dy = point.y - getY();
+        double localX = getX() + dx * unrotateCos - dy * unrotateSin;
+        double localY = getY() + dx * unrotateSin + dy * unrotateCos;
+        return poly.contains(Math.round(localX), Math.round(localY));
+    }
 
-        for (int i = 0; i < numberOfSides; i++) {
-            double angle = 2 * Math.PI * i / numberOfSides;
-            xPoints[i] = (int) (getX() + radius * Math.cos(angle));
-            yPoints[i] = (int) (getY() + radius * Math.sin(angle));
+    private Polygon getOutline() {
+        if (outline == null) {
+            double[] unit = UNIT_VERTICES.computeIfAbsent(numberOfSides, RegularPolygon::computeUnitVertices);
+            int[] xPoints = new int[numberOfSides];
+            int[] yPoints = new int[numberOfSides];
+            for (int i = 0; i < numberOfSides; i++) {
+                xPoints[i] = (int) (getX() + radius * unit[2 * i]);
+                yPoints[i] = (int) (getY() + radius * unit[2 * i + 1]);
+            }
+            double radians = Math.toRadians(-rotation);
+            unrotateCos = Math.cos(radians);
+            unrotateSin = Math.sin(radians);
+            outline = new Polygon(xPoints, yPoints, numberOfSides);
         }
+        return outline;
+    }
+
+    private static double[] computeUnitVertices(int sides) {
+        double[] unit = new double[2 * sides];
+        for (int i = 0; i < sides; i++) {
+            double angle = 2 * Math.PI * i / sides;
+            unit[2 * i] = Math.cos(angle);
+            unit[2 * i + 1] = Math.sin(angle);
+        }
+        return unit;
+    }
+
+    /**
+     * Returns the cached x coordinates of the unrotated vertices. The array is
+     * shared with the polygon and must not be modified.
+     */
+    public int[] getVertexXs() {
+        return getOutline().xpoints;
+    }
 
-        Polygon poly = new Polygon(xPoints, yPoints, numberOfSides);
-        return poly.contains(point.x, point.y);
+    /**
+     * Returns the cached y coordinates of the unrotated vertices. The array is
+     * shared with the polygon and must not be modified.
+     */
+    public int[] getVertexYs() {
+        return getOutline().ypoints;
+    }
+
+    @Override
+    public void invalidateBounds() {
+        outline = null; // Vertices and cached trig follow every geometry change
+        super.invalidateBounds();
     }
 
     @Override
@@ -77,6 +138,16 @@ public class RegularPolygon extends Shape {
         return new RegularPolygon(this);
     }
 
+    @Override
+    public long estimateBytes() {
+        return super.estimateBytes() + 72 + 8L * numberOfSides; // Including the cached outline
+    }
+
+    @Override
+    public double getArea() {
+        return numberOfSides * (double) sideLength * sideLength / (4 * Math.tan(Math.PI / numberOfSides));
+    }
+
     // Getters and Setters
     public int getNumberOfSides() {
         return numberOfSides;
@@ -85,6 +156,8 @@ public class RegularPolygon extends Shape {
     public void setNumberOfSides(int numberOfSides) {
         this.numberOfSides = numberOfSides;
         calculateRadius();
+        invalidateBounds();
+        invalidateStatistics();
     }
 
     public int getSideLength() {
@@ -94,6 +167,8 @@ public class RegularPolygon extends Shape {
     public void setSideLength(int sideLength) {
         this.sideLength = sideLength;
         calculateRadius();
+        invalidateBounds();
+        invalidateStatistics();
     }
 
     public int getRadius() {
@@ -2,12 +2,20 @@ package com.geometriceditor.model;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 /**
  * Represents a base abstract shape with common properties and methods.
  */
 public abstract class Shape implements Cloneable, Serializable {
+    // Pinned to the value of the original class so existing saved files keep loading
+    private static final long serialVersionUID = -3061035741131583263L;
+
     // Basic shape properties
     protected Point position;
     protected Color fillColor;
@@ -15,12 +23,30 @@ public abstract class Shape implements Cloneable, Serializable {
     protected float rotation;
     protected Point rotationCenter;
 
-    // Unique identifier for each shape
-    protected String id;
+    // Unique identifier for each shape, see ShapeIds
+    protected long id;
 
     // Parent shape
     protected Shape parent;
 
+    // Cached world bounds, recomputed lazily; null means stale
+    private transient java.awt.Rectangle cachedBounds;
+
+    // What DocumentStatistics counted for this shape while top-level
+    private transient double countedArea;
+    private transient long countedBytes;
+
+    // The id is stored as a string, as in files written when ids were UUIDs
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("position", Point.class),
+            new ObjectStreamField("fillColor", Color.class),
+            new ObjectStreamField("borderColor", Color.class),
+            new ObjectStreamField("rotation", float.class),
+            new ObjectStreamField("rotationCenter", Point.class),
+            new ObjectStreamField("id", String.class),
+            new ObjectStreamField("parent", Shape.class)
+    };
+
     /**
      * Default constructor
      */
@@ -30,7 +56,7 @@ public abstract class Shape implements Cloneable, Serializable {
         this.borderColor = Color.BLACK;
         this.rotation = 0f;
         this.rotationCenter = this.position;
-        this.id = java.util.UUID.randomUUID().toString();
+        this.id = ShapeIds.next();
     }
 
     /**
@@ -44,7 +70,7 @@ public abstract class Shape implements Cloneable, Serializable {
         this.borderColor = other.borderColor;
         this.rotation = other.rotation;
         this.rotationCenter = new Point(other.rotationCenter);
-        this.id = java.util.UUID.randomUUID().toString();
+        this.id = ShapeIds.next();
     }
 
     /**
@@ -71,18 +97,78 @@ public abstract class Shape implements Cloneable, Serializable {
     @Override
     public abstract Shape clone();
 
+    /**
+     * Estimates the heap memory taken by the shape, including its children, to
+     * account for what is kept alive, e.g. by the undo history.
+     *
+     * @return An estimate in bytes, assuming compressed references.
+     */
+    public long estimateBytes() {
+        return 104; // The object, its position and its cached bounds
+    }
+
+    /**
+     * @return The area of the shape's outline, the sum of its children's for a
+     *         group.
+     */
+    public abstract double getArea();
+
+    /**
+     * Returns the counts, area and estimated size of the shape and the shapes
+     * nested in it. Groups cache theirs until {@link #invalidateStatistics()}
+     * is called.
+     */
+    public ShapeStatistics getStatistics() {
+        return ShapeStatistics.ofPrimitive(this, getArea(), estimateBytes());
+    }
+
+    /**
+     * Marks the cached statistics of this shape and all of its ancestors as
+     * stale. Every setter that changes the shape's area or size estimate must
+     * call this.
+     */
+    public void invalidateStatistics() {
+        for (Shape shape = this; shape != null; shape = shape.parent) {
+            if (shape instanceof ShapeGroup) {
+                ((ShapeGroup) shape).cachedStatistics = null;
+            }
+        }
+    }
+
+    ShapeStatistics getCountedStatistics() {
+        return ShapeStatistics.ofPrimitive(this, countedArea, countedBytes);
+    }
+
+    void setCountedStatistics(ShapeStatistics statistics) {
+        countedArea = statistics.getArea();
+        countedBytes = statistics.getEstimatedBytes();
+    }
+
     // Getters and Setters
+
+    /**
+     * @return The position, relative to the pending translation of the groups
+     *         holding the shape, see {@link ShapeGroup#getOffsetX()}.
+     */
     public Point getPosition() {
         return position;
     }
 
+    /**
+     * @param position The position in world coordinates; the pending
+     *                 translation of the groups holding the shape is applied
+     *                 first.
+     */
     public void setPosition(Point position) {
+        foldParentOffsets();
         this.position = position;
+        invalidateBounds();
     }
 
     public void move(int dx, int dy) {
         this.position.x += dx;
         this.position.y += dy;
+        invalidateBounds();
     }
 
     public int getX() {
@@ -115,13 +201,37 @@ public abstract class Shape implements Cloneable, Serializable {
 
     public void setRotation(float rotation) {
         this.rotation = rotation;
+        invalidateBounds();
     }
 
+    /**
+     * @return The rotation center, relative to the pending translation of the
+     *         groups holding the shape, like {@link #getPosition()}.
+     */
     public Point getRotationCenter() {
-        return rotationCenter;
+        if (rotationCenter == position) {
+            return rotationCenter; // The default center moves with the position
+        }
+        // Set centers are world points, which moving the shape leaves in place
+        int offsetX = 0;
+        int offsetY = 0;
+        for (Shape ancestor = parent; ancestor instanceof ShapeGroup; ancestor = ancestor.parent) {
+            offsetX += ((ShapeGroup) ancestor).getOffsetX();
+            offsetY += ((ShapeGroup) ancestor).getOffsetY();
+        }
+        if (offsetX == 0 && offsetY == 0) {
+            return rotationCenter;
+        }
+        return new Point(rotationCenter.x - offsetX, rotationCenter.y - offsetY);
     }
 
+    /**
+     * @param rotationCenter The rotation center in world coordinates; the
+     *                       pending translation of the groups holding the
+     *                       shape is applied first.
+     */
     public void setRotationCenter(Point rotationCenter) {
+        foldParentOffsets();
         this.rotationCenter = rotationCenter;
     }
 
@@ -129,10 +239,92 @@ public abstract class Shape implements Cloneable, Serializable {
         return new Point(position.x, position.y); // Default to position
     }
 
-    public String getId() {
+    /**
+     * Maps a point into the shape's unrotated frame. Shapes are drawn rotated
+     * about their geometric center, so hit-testing has to undo that rotation
+     * before comparing against the shape's outline.
+     *
+     * @param point Point in whiteboard coordinates
+     * @return The point as seen by the unrotated shape
+     */
+    protected Point toUnrotated(Point point) {
+        if (rotation == 0) {
+            return point;
+        }
+        Point center = getGeometricCenter();
+        double radians = Math.toRadians(-rotation);
+        double cos = Math.cos(radians);
+        double sin = Math.sin(radians);
+        double dx = point.x - center.x;
+        double dy = point.y - center.y;
+        return new Point(
+                (int) Math.round(center.x + dx * cos - dy * sin),
+                (int) Math.round(center.y + dx * sin + dy * cos));
+    }
+
+    /**
+     * Returns the shape's world bounds, as computed by the
+     * {@link com.geometriceditor.visitor.BoundingBoxVisitor}. The result is cached
+     * until {@link #invalidateBounds()} is called, so repeated reads are O(1).
+     *
+     * @return A copy of the cached bounds
+     */
+    public java.awt.Rectangle getBounds() {
+        if (cachedBounds == null) {
+            cachedBounds = accept(new com.geometriceditor.visitor.BoundingBoxVisitor());
+        }
+        return new java.awt.Rectangle(cachedBounds);
+    }
+
+    /**
+     * Moves the cached bounds of this shape along with a translation of the
+     * whole shape, and marks those of its ancestors as stale.
+     */
+    protected void translateBounds(int dx, int dy) {
+        if (cachedBounds != null) {
+            cachedBounds.translate(dx, dy);
+        }
+        if (parent != null) {
+            parent.invalidateBounds();
+        }
+    }
+
+    /**
+     * Applies the pending translation of the groups holding this shape, so
+     * that its coordinates are world coordinates.
+     */
+    void foldParentOffsets() {
+        if (parent instanceof ShapeGroup) {
+            ((ShapeGroup) parent).foldOffsets();
+        }
+    }
+
+    /**
+     * Marks the cached bounds of this shape and all of its ancestors as stale.
+     * Every setter that changes the shape's geometry must call this.
+     */
+    public void invalidateBounds() {
+        for (Shape shape = this; shape != null; shape = shape.parent) {
+            shape.cachedBounds = null;
+        }
+    }
+
+    public long getId() {
         return id;
     }
 
+    /**
+     * Restores an id read from a document and reserves it in {@link ShapeIds}.
+     * Only for readers building new shapes: changing the id of a shape already
+     * on a whiteboard would break the whiteboard's id index.
+     *
+     * @param id The stored id.
+     */
+    public void setId(long id) {
+        ShapeIds.reserve(id);
+        this.id = id;
+    }
+
     public Shape getParent() {
         return parent;
     }
@@ -150,6 +342,34 @@ public abstract class Shape implements Cloneable, Serializable {
      */
     public abstract <R> R accept(com.geometriceditor.visitor.ShapeVisitor<R> visitor);
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("position", position);
+        fields.put("fillColor", fillColor);
+        fields.put("borderColor", borderColor);
+        fields.put("rotation", rotation);
+        fields.put("rotationCenter", rotationCenter);
+        fields.put("id", Long.toString(getId()));
+        fields.put("parent", parent);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        position = (Point) fields.get("position", null);
+        fillColor = (Color) fields.get("fillColor", null);
+        borderColor = (Color) fields.get("borderColor", null);
+        rotation = fields.get("rotation", 0f);
+        rotationCenter = (Point) fields.get("rotationCenter", null);
+        parent = (Shape) fields.get("parent", null);
+        String storedId = (String) fields.get("id", null);
+        try {
+            id = storedId != null ? ShapeIds.parse(storedId) : ShapeIds.next();
+        } catch (IllegalArgumentException e) {
+            throw new InvalidObjectException("Invalid shape id: " + storedId);
+        }
+    }
+
     /**
      * Represents a 2D point
      */
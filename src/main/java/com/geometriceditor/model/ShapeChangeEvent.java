@@ -0,0 +1,163 @@
+package com.geometriceditor.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The changes to a document's top-level shapes since the previous event, e.g.
+ * those of one command or transaction, so that listeners can update in
+ * proportion to what changed.
+ * <p>
+ * A shape is reported once as added, removed or modified, except a shape
+ * removed and added back, which left its place in the stacking order: it is
+ * reported as both removed and added. Removed shapes are reported as they
+ * were when removed, groups with their children. When the whole document was
+ * replaced, only {@link #isReplaced()} matters.
+ */
+public final class ShapeChangeEvent {
+    private final List<Shape> added;
+    private final List<Shape> removed;
+    private final List<Shape> modified;
+    private final java.awt.Rectangle affectedArea;
+    private final boolean replaced;
+
+    private ShapeChangeEvent(Builder builder) {
+        this.added = Collections.unmodifiableList(new ArrayList<>(builder.added.values()));
+        this.removed = Collections.unmodifiableList(new ArrayList<>(builder.removed.values()));
+        this.modified = Collections.unmodifiableList(new ArrayList<>(builder.modified.values()));
+        this.affectedArea = builder.replaced ? null : builder.area;
+        this.replaced = builder.replaced;
+    }
+
+    /**
+     * @return The added shapes, bottom-most first, on top of the shapes that
+     *         were already there.
+     */
+    public List<Shape> getAdded() {
+        return added;
+    }
+
+    public List<Shape> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return The top-level shapes that changed, or whose nested shapes did.
+     */
+    public List<Shape> getModified() {
+        return modified;
+    }
+
+    /**
+     * @return The union of the changed shapes' bounds before and after the
+     *         changes, or null if the whole document may have changed.
+     */
+    public java.awt.Rectangle getAffectedArea() {
+        return affectedArea != null ? new java.awt.Rectangle(affectedArea) : null;
+    }
+
+    public boolean isReplaced() {
+        return replaced;
+    }
+
+    /**
+     * Accumulates changes into the next event. Changes to the same shape fold
+     * together: a shape added then removed is not reported, a shape removed
+     * then added back is reported as removed and added.
+     */
+    public static final class Builder {
+        private final Map<Long, Shape> added = new LinkedHashMap<>();
+        private final Map<Long, Shape> removed = new LinkedHashMap<>();
+        private final Map<Long, Shape> modified = new LinkedHashMap<>();
+        private java.awt.Rectangle area;
+        private boolean replaced = false;
+
+        public void recordAdded(Shape shape) {
+            if (replaced) {
+                return;
+            }
+            long id = shape.getId();
+            modified.remove(id);
+            added.put(id, shape);
+        }
+
+        public void recordRemoved(Shape shape) {
+            if (replaced) {
+                return;
+            }
+            long id = shape.getId();
+            if (added.get(id) == shape) {
+                added.remove(id);
+            } else {
+                modified.remove(id);
+                removed.put(id, shape);
+            }
+        }
+
+        /**
+         * Records a change to a top-level shape, or to a shape nested in it.
+         */
+        public void recordModified(Shape shape) {
+            if (replaced) {
+                return;
+            }
+            Shape topLevel = shape;
+            while (topLevel.getParent() != null) {
+                topLevel = topLevel.getParent();
+            }
+            long id = topLevel.getId();
+            if (!added.containsKey(id) && !removed.containsKey(id)) {
+                modified.put(id, topLevel);
+            }
+        }
+
+        /**
+         * Records that every shape was replaced, superseding the other changes.
+         */
+        public void recordReplaced() {
+            clear();
+            replaced = true;
+        }
+
+        /**
+         * Adds to the affected area.
+         *
+         * @param changedArea Where shapes changed, or null for nowhere.
+         */
+        public void recordArea(java.awt.Rectangle changedArea) {
+            if (changedArea == null) {
+                return;
+            }
+            if (area == null) {
+                area = new java.awt.Rectangle(changedArea);
+            } else {
+                area.add(changedArea);
+            }
+        }
+
+        public boolean isEmpty() {
+            return !replaced && added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+        }
+
+        /**
+         * @return The event of the changes recorded so far, which are then
+         *         cleared.
+         */
+        public ShapeChangeEvent build() {
+            ShapeChangeEvent event = new ShapeChangeEvent(this);
+            clear();
+            return event;
+        }
+
+        private void clear() {
+            added.clear();
+            removed.clear();
+            modified.clear();
+            area = null;
+            replaced = false;
+        }
+    }
+}
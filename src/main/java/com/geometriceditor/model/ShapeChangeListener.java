@@ -0,0 +1,13 @@
+package com.geometriceditor.model;
+
+/**
+ * Interface for listeners that want to know which shapes of a document
+ * changed, e.g. after a command was executed, undone or redone.
+ */
+@FunctionalInterface
+public interface ShapeChangeListener {
+    /**
+     * Called once per batch of changes.
+     */
+    void shapesChanged(ShapeChangeEvent event);
+}
@@ -0,0 +1,116 @@
+package com.geometriceditor.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Accumulates changes to a document's top-level shapes by id, so a consumer
+ * can later act on what changed instead of on the whole document. Changes to
+ * the same shape fold together: a shape is reported once, as added, modified
+ * or removed.
+ * <p>
+ * Added shapes keep the order they were added in, which is their stacking
+ * order on top of the shapes already there; a shape removed and added again
+ * is reported as added. When the whole document was replaced, only
+ * {@link #isReplaced()} matters until the changes are cleared.
+ */
+public final class ShapeChanges {
+    private final Map<Long, Shape> added = new LinkedHashMap<>();
+    private final Map<Long, Shape> modified = new LinkedHashMap<>();
+    private final Set<Long> removed = new LinkedHashSet<>();
+    private boolean replaced = false;
+
+    public void recordAdded(Shape shape) {
+        if (replaced) {
+            return;
+        }
+        long id = shape.getId();
+        modified.remove(id);
+        removed.remove(id);
+        added.remove(id); // Re-added shapes move to the end
+        added.put(id, shape);
+    }
+
+    public void recordRemoved(Shape shape) {
+        if (replaced) {
+            return;
+        }
+        long id = shape.getId();
+        added.remove(id);
+        modified.remove(id);
+        removed.add(id);
+    }
+
+    /**
+     * Records a change to a top-level shape, or to a shape nested in it.
+     */
+    public void recordModified(Shape shape) {
+        if (replaced) {
+            return;
+        }
+        Shape topLevel = shape;
+        while (topLevel.getParent() != null) {
+            topLevel = topLevel.getParent();
+        }
+        long id = topLevel.getId();
+        if (!added.containsKey(id) && !removed.contains(id)) {
+            modified.put(id, topLevel);
+        }
+    }
+
+    /**
+     * Records the changes published by an event.
+     */
+    public void record(ShapeChangeEvent event) {
+        if (event.isReplaced()) {
+            recordReplaced();
+            return;
+        }
+        event.getRemoved().forEach(this::recordRemoved);
+        event.getAdded().forEach(this::recordAdded);
+        event.getModified().forEach(this::recordModified);
+    }
+
+    /**
+     * Records that every shape was replaced, superseding the other changes.
+     */
+    public void recordReplaced() {
+        clear();
+        replaced = true;
+    }
+
+    public boolean isReplaced() {
+        return replaced;
+    }
+
+    public boolean isEmpty() {
+        return !replaced && added.isEmpty() && modified.isEmpty() && removed.isEmpty();
+    }
+
+    /**
+     * @return The added shapes, in the order they were added.
+     */
+    public List<Shape> getAdded() {
+        return new ArrayList<>(added.values());
+    }
+
+    public List<Shape> getModified() {
+        return new ArrayList<>(modified.values());
+    }
+
+    public Collection<Long> getRemovedIds() {
+        return new ArrayList<>(removed);
+    }
+
+    public void clear() {
+        added.clear();
+        modified.clear();
+        removed.clear();
+        replaced = false;
+    }
+}
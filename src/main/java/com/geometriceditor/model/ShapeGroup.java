@@ -6,29 +6,115 @@ import java.util.Collections; // Added
 import java.util.Iterator; // Added
 import java.util.List;
 
-// Implement Iterable<Shape>
+/**
+ * A shape made of other shapes. Moving a group only records a translation that
+ * is applied when its children are drawn, hit-tested, bounded and saved; it is
+ * folded into the children only when the group is ungrouped or cloned, or when
+ * one of them is positioned directly.
+ */
 public class ShapeGroup extends Shape implements Iterable<Shape> {
+    private static final long serialVersionUID = -8067376567114939386L;
+
     private List<Shape> shapes = new ArrayList<>();
 
+    // Translation not yet applied to the children, see move
+    private int offsetX = 0;
+    private int offsetY = 0;
+
+    // Statistics of the children, recomputed lazily; null means stale
+    transient ShapeStatistics cachedStatistics;
+    // What DocumentStatistics counted for this group while top-level
+    private transient ShapeStatistics countedStatistics;
+
     public ShapeGroup() {
         super();
     }
 
     public void addShape(Shape shape) {
+        foldOffsets();
         shape.setParent(this);
         shapes.add(shape);
         recalculateBounds();
+        invalidateBounds();
+        invalidateStatistics();
+    }
+
+    /**
+     * Adds several shapes at once, updating the group's position only once.
+     *
+     * @param shapesToAdd The shapes to add, in stacking order.
+     */
+    public void addShapes(List<Shape> shapesToAdd) {
+        foldOffsets();
+        for (Shape shape : shapesToAdd) {
+            shape.setParent(this);
+        }
+        shapes.addAll(shapesToAdd);
+        recalculateBounds();
+        invalidateBounds();
+        invalidateStatistics();
     }
 
     public void removeShape(Shape shape) {
+        foldOffsets();
         shapes.remove(shape);
         recalculateBounds();
+        invalidateBounds();
+        invalidateStatistics();
     }
 
+    /**
+     * Returns a copy of the children, positioned relative to the group's
+     * pending translation, see {@link #getLocalShapes()}.
+     */
     public List<Shape> getShapes() {
         return new ArrayList<>(shapes);
     }
 
+    /**
+     * Returns the children without applying the group's pending translation:
+     * they are positioned relative to {@link #getOffsetX()} and
+     * {@link #getOffsetY()}, which readers add to the children's coordinates.
+     * Call {@link #foldOffsets()} first to get world coordinates.
+     *
+     * @return An unmodifiable view.
+     */
+    public List<Shape> getLocalShapes() {
+        return Collections.unmodifiableList(shapes);
+    }
+
+    /**
+     * @return How far the group moved horizontally since its translation was
+     *         last applied to its children.
+     */
+    public int getOffsetX() {
+        return offsetX;
+    }
+
+    /**
+     * @return How far the group moved vertically since its translation was
+     *         last applied to its children.
+     */
+    public int getOffsetY() {
+        return offsetY;
+    }
+
+    /**
+     * Applies the pending translation of the enclosing groups, then that of
+     * this group, to the children. Takes time proportional to the number of
+     * nested shapes.
+     */
+    public void foldOffsets() {
+        foldParentOffsets();
+        if (offsetX != 0 || offsetY != 0) {
+            int dx = offsetX;
+            int dy = offsetY;
+            offsetX = 0;
+            offsetY = 0;
+            shapes.forEach(shape -> shape.move(dx, dy));
+        }
+    }
+
     private void recalculateBounds() {
         if (shapes.isEmpty())
             return;
@@ -54,20 +140,24 @@ public class ShapeGroup extends Shape implements Iterable<Shape> {
         // Optionally call the renderer for the group itself (e.g., draw bounding box)
         renderer.drawShapeGroup(g2d, this);
 
-        // Draw all shapes in the group using the iterator implicitly
-        for (Shape shape : this) { // 'this' is iterable
+        // Children are positioned relative to the pending translation
+        g2d.translate(offsetX, offsetY);
+        for (Shape shape : shapes) {
             shape.draw(g2d, renderer);
         }
+        g2d.translate(-offsetX, -offsetY);
     }
 
     @Override
     public boolean contains(Point point) {
         // Check if point is contained in any shape in the group
-        return shapes.stream().anyMatch(shape -> shape.contains(point));
+        Point localPoint = new Point(point.x - offsetX, point.y - offsetY);
+        return shapes.stream().anyMatch(shape -> shape.contains(localPoint));
     }
 
     @Override
     public Shape clone() {
+        foldOffsets(); // Copies take rotation centers in world coordinates
         ShapeGroup clonedGroup = new ShapeGroup();
         for (Shape shape : shapes) {
             clonedGroup.addShape(shape.clone());
@@ -75,12 +165,48 @@ public class ShapeGroup extends Shape implements Iterable<Shape> {
         return clonedGroup;
     }
 
-    // Override move to move all shapes in the group
+    @Override
+    public long estimateBytes() {
+        return getStatistics().getEstimatedBytes();
+    }
+
+    @Override
+    public double getArea() {
+        return getStatistics().getArea();
+    }
+
+    @Override
+    public ShapeStatistics getStatistics() {
+        if (cachedStatistics == null) {
+            List<ShapeStatistics> children = new ArrayList<>(shapes.size());
+            shapes.forEach(shape -> children.add(shape.getStatistics()));
+            // The group itself and its child list
+            cachedStatistics = ShapeStatistics.ofGroup(super.estimateBytes() + 40 + 4L * shapes.size(), children);
+        }
+        return cachedStatistics;
+    }
+
+    @Override
+    ShapeStatistics getCountedStatistics() {
+        return countedStatistics != null ? countedStatistics : ShapeStatistics.EMPTY;
+    }
+
+    @Override
+    void setCountedStatistics(ShapeStatistics statistics) {
+        countedStatistics = statistics;
+    }
+
+    /**
+     * Moves the group in constant time: the children keep their coordinates
+     * until the translation is folded into them.
+     */
     @Override
     public void move(int dx, int dy) {
-        shapes.forEach(shape -> shape.move(dx, dy));
-        super.move(dx, dy);
-        recalculateBounds();
+        offsetX += dx;
+        offsetY += dy;
+        position.x += dx;
+        position.y += dy;
+        translateBounds(dx, dy);
     }
 
     @Override
@@ -99,7 +225,8 @@ public class ShapeGroup extends Shape implements Iterable<Shape> {
      * Returns an iterator over the shapes in this group.
      * Provides an unmodifiable view to prevent external modification via iterator.
      *
-     * @return an Iterator.
+     * @return an Iterator over the children, positioned relative to the
+     *         group's pending translation, like {@link #getLocalShapes()}.
      */
     @Override
     public Iterator<Shape> iterator() {
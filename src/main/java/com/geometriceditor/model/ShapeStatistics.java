@@ -0,0 +1,124 @@
+package com.geometriceditor.model;
+
+/**
+ * Counts, area and estimated memory of a shape and the shapes nested in it,
+ * see {@link Shape#getStatistics()}. Instances are immutable.
+ */
+public final class ShapeStatistics {
+    public static final ShapeStatistics EMPTY = new ShapeStatistics(0, 0, 0, 0, 0, 0, 0, 0);
+
+    private final int rectangles;
+    private final int polygons;
+    private final int groups;
+    private final int depth;
+    private final double area;
+    private final long rectangleBytes;
+    private final long polygonBytes;
+    private final long groupBytes;
+
+    private ShapeStatistics(int rectangles, int polygons, int groups, int depth, double area,
+            long rectangleBytes, long polygonBytes, long groupBytes) {
+        this.rectangles = rectangles;
+        this.polygons = polygons;
+        this.groups = groups;
+        this.depth = depth;
+        this.area = area;
+        this.rectangleBytes = rectangleBytes;
+        this.polygonBytes = polygonBytes;
+        this.groupBytes = groupBytes;
+    }
+
+    /**
+     * @param shape A shape other than a group.
+     * @param area  Its area.
+     * @param bytes Its estimated size.
+     */
+    static ShapeStatistics ofPrimitive(Shape shape, double area, long bytes) {
+        if (shape instanceof Rectangle) {
+            return new ShapeStatistics(1, 0, 0, 0, area, bytes, 0, 0);
+        }
+        if (shape instanceof RegularPolygon) {
+            return new ShapeStatistics(0, 1, 0, 0, area, 0, bytes, 0);
+        }
+        return EMPTY; // Ignore other potential shape types for now
+    }
+
+    /**
+     * @param ownBytes The estimated size of the group without its children.
+     * @param children The statistics of its children.
+     */
+    static ShapeStatistics ofGroup(long ownBytes, Iterable<ShapeStatistics> children) {
+        int rectangles = 0;
+        int polygons = 0;
+        int groups = 1;
+        int depth = 0;
+        double area = 0;
+        long rectangleBytes = 0;
+        long polygonBytes = 0;
+        long groupBytes = ownBytes;
+        for (ShapeStatistics child : children) {
+            rectangles += child.rectangles;
+            polygons += child.polygons;
+            groups += child.groups;
+            depth = Math.max(depth, child.depth);
+            area += child.area;
+            rectangleBytes += child.rectangleBytes;
+            polygonBytes += child.polygonBytes;
+            groupBytes += child.groupBytes;
+        }
+        return new ShapeStatistics(rectangles, polygons, groups, depth + 1, area,
+                rectangleBytes, polygonBytes, groupBytes);
+    }
+
+    public int getRectangleCount() {
+        return rectangles;
+    }
+
+    public int getPolygonCount() {
+        return polygons;
+    }
+
+    /**
+     * @return The number of groups, including the shape itself if it is one.
+     */
+    public int getGroupCount() {
+        return groups;
+    }
+
+    /**
+     * @return How deep groups are nested: 0 for a shape other than a group, 1
+     *         for a group of such shapes.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The sum of the areas of the shapes other than groups.
+     */
+    public double getArea() {
+        return area;
+    }
+
+    public long getRectangleBytes() {
+        return rectangleBytes;
+    }
+
+    public long getPolygonBytes() {
+        return polygonBytes;
+    }
+
+    /**
+     * @return The estimated size of the groups, without their children.
+     */
+    public long getGroupBytes() {
+        return groupBytes;
+    }
+
+    /**
+     * @return The estimated size of the shape, see {@link Shape#estimateBytes()}.
+     */
+    public long getEstimatedBytes() {
+        return rectangleBytes + polygonBytes + groupBytes;
+    }
+}
@@ -0,0 +1,451 @@
+package com.geometriceditor.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * An R-tree over shape bounds, used for hit-testing and rectangle queries.
+ * <p>
+ * Every entry remembers the order in which it was inserted, so query results
+ * come back in stacking (paint) order: the last element of a result is the
+ * shape drawn on top. Updating an entry keeps its stacking position.
+ */
+public class SpatialIndex {
+    private static final int MAX_ENTRIES = 16;
+    private static final int MIN_ENTRIES = MAX_ENTRIES * 2 / 5;
+
+    private static final Comparator<Entry> STACKING_ORDER = Comparator.comparingLong(e -> e.sequence);
+
+    private final Map<Shape, Entry> entries = new HashMap<>();
+    private Node root = new Node(true);
+    private long nextSequence = 0;
+
+    /**
+     * Adds a shape on top of the stacking order.
+     *
+     * @param shape  The shape to index.
+     * @param bounds The shape's bounds.
+     */
+    public void insert(Shape shape, java.awt.Rectangle bounds) {
+        remove(shape);
+        Entry entry = new Entry(shape, nextSequence++);
+        entry.setBounds(bounds);
+        entries.put(shape, entry);
+        insertEntry(entry);
+    }
+
+    /**
+     * Adds a shape at a stacking position set aside earlier with
+     * {@link #reserveStackingPositions(int)}, e.g. for shapes created lazily.
+     *
+     * @param shape            The shape to index.
+     * @param bounds           The shape's bounds.
+     * @param stackingPosition The position, below every later insert().
+     */
+    public void insertAt(Shape shape, java.awt.Rectangle bounds, long stackingPosition) {
+        remove(shape);
+        Entry entry = new Entry(shape, stackingPosition);
+        entry.setBounds(bounds);
+        entries.put(shape, entry);
+        insertEntry(entry);
+    }
+
+    /**
+     * Sets aside a range of stacking positions; shapes inserted afterwards stack
+     * above the whole range.
+     *
+     * @param count The number of positions.
+     * @return The first reserved position.
+     */
+    public long reserveStackingPositions(int count) {
+        long first = nextSequence;
+        nextSequence += count;
+        return first;
+    }
+
+    /**
+     * @return The shape's stacking position (higher is drawn later), or -1 if it
+     *         is not indexed.
+     */
+    public long getStackingPosition(Shape shape) {
+        Entry entry = entries.get(shape);
+        return entry != null ? entry.sequence : -1;
+    }
+
+    /**
+     * Adds many shapes on top of the stacking order, in list order. When the
+     * batch is at least as large as the index, the tree is rebuilt in one pass
+     * (sort-tile-recursive packing) rather than growing entry by entry.
+     *
+     * @param shapes   The shapes to index, bottom-most first.
+     * @param boundsOf Supplies each shape's bounds.
+     */
+    public void insertAll(List<Shape> shapes, Function<Shape, java.awt.Rectangle> boundsOf) {
+        if (shapes.size() < entries.size()) {
+            for (Shape shape : shapes) {
+                insert(shape, boundsOf.apply(shape));
+            }
+            return;
+        }
+        for (Shape shape : shapes) {
+            Entry entry = new Entry(shape, nextSequence++);
+            entry.setBounds(boundsOf.apply(shape));
+            entries.put(shape, entry); // A shape already indexed moves on top
+        }
+        root = pack(new ArrayList<Box>(entries.values()));
+    }
+
+    /**
+     * Replaces the bounds of an indexed shape, keeping its stacking position.
+     * Shapes that are not indexed are ignored.
+     *
+     * @param shape  The shape whose bounds changed.
+     * @param bounds The new bounds.
+     */
+    public void update(Shape shape, java.awt.Rectangle bounds) {
+        Entry entry = entries.get(shape);
+        if (entry == null) {
+            return;
+        }
+        if (entry.matches(bounds)) {
+            return;
+        }
+        removeEntry(entry);
+        entry.setBounds(bounds);
+        insertEntry(entry);
+    }
+
+    /**
+     * Removes a shape from the index.
+     *
+     * @param shape The shape to remove.
+     * @return true if the shape was indexed.
+     */
+    public boolean remove(Shape shape) {
+        Entry entry = entries.remove(shape);
+        if (entry == null) {
+            return false;
+        }
+        removeEntry(entry);
+        return true;
+    }
+
+    public boolean contains(Shape shape) {
+        return entries.containsKey(shape);
+    }
+
+    /**
+     * @return The bounds the shape was indexed with, or null if it is not indexed.
+     */
+    public java.awt.Rectangle getBounds(Shape shape) {
+        Entry entry = entries.get(shape);
+        if (entry == null) {
+            return null;
+        }
+        return new java.awt.Rectangle(entry.minX, entry.minY, entry.maxX - entry.minX, entry.maxY - entry.minY);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+        root = new Node(true);
+    }
+
+    /**
+     * Finds the shapes whose bounds intersect the given area (edges inclusive).
+     *
+     * @param area The area to query.
+     * @return The matching shapes in stacking order, bottom-most first.
+     */
+    public List<Shape> search(java.awt.Rectangle area) {
+        return search(area.x, area.y, area.x + area.width, area.y + area.height);
+    }
+
+    /**
+     * Finds the shapes whose bounds contain the given point (edges inclusive).
+     *
+     * @return The matching shapes in stacking order, bottom-most first.
+     */
+    public List<Shape> searchPoint(int x, int y) {
+        return search(x, y, x, y);
+    }
+
+    private List<Shape> search(int minX, int minY, int maxX, int maxY) {
+        List<Entry> found = new ArrayList<>();
+        if (entries.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            for (Box child : node.children) {
+                if (!child.intersects(minX, minY, maxX, maxY)) {
+                    continue;
+                }
+                if (node.leaf) {
+                    found.add((Entry) child);
+                } else {
+                    pending.push((Node) child);
+                }
+            }
+        }
+
+        found.sort(STACKING_ORDER);
+        List<Shape> result = new ArrayList<>(found.size());
+        for (Entry entry : found) {
+            result.add(entry.shape);
+        }
+        return result;
+    }
+
+    // ==================== TREE MAINTENANCE ====================
+
+    private void insertEntry(Entry entry) {
+        Node leaf = chooseLeaf(entry);
+        leaf.add(entry);
+        for (Node node = leaf; node != null; node = node.parent) {
+            node.include(entry);
+        }
+        if (leaf.children.size() > MAX_ENTRIES) {
+            split(leaf);
+        }
+    }
+
+    private Node chooseLeaf(Box box) {
+        Node node = root;
+        while (!node.leaf) {
+            Node best = null;
+            long bestEnlargement = Long.MAX_VALUE;
+            long bestArea = Long.MAX_VALUE;
+            for (Box child : node.children) {
+                long area = child.area();
+                long enlargement = child.enlargedArea(box) - area;
+                if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+                    best = (Node) child;
+                    bestEnlargement = enlargement;
+                    bestArea = area;
+                }
+            }
+            node = best;
+        }
+        return node;
+    }
+
+    /**
+     * Splits an overflowing node along the axis where its children are most
+     * spread out, then propagates the split upwards.
+     */
+    private void split(Node node) {
+        while (node != null && node.children.size() > MAX_ENTRIES) {
+            List<Box> children = new ArrayList<>(node.children);
+            Node.recompute(node);
+            long spreadX = (long) node.maxX - node.minX;
+            long spreadY = (long) node.maxY - node.minY;
+            if (spreadX >= spreadY) {
+                children.sort(Comparator.comparingLong(b -> (long) b.minX + b.maxX));
+            } else {
+                children.sort(Comparator.comparingLong(b -> (long) b.minY + b.maxY));
+            }
+
+            int half = children.size() / 2;
+            Node sibling = new Node(node.leaf);
+            node.children.clear();
+            for (int i = 0; i < children.size(); i++) {
+                (i < half ? node : sibling).add(children.get(i));
+            }
+            Node.recompute(node);
+            Node.recompute(sibling);
+
+            Node parent = node.parent;
+            if (parent == null) {
+                root = new Node(false);
+                root.add(node);
+                root.add(sibling);
+                Node.recompute(root);
+                return;
+            }
+            parent.add(sibling);
+            node = parent;
+        }
+    }
+
+    private void removeEntry(Entry entry) {
+        Node leaf = entry.parent;
+        leaf.children.remove(entry);
+        entry.parent = null;
+
+        List<Entry> orphans = new ArrayList<>();
+        Node node = leaf;
+        while (node != root) {
+            Node parent = node.parent;
+            if (node.children.size() < MIN_ENTRIES) {
+                parent.children.remove(node);
+                collectEntries(node, orphans);
+            } else {
+                Node.recompute(node);
+            }
+            node = parent;
+        }
+        Node.recompute(root);
+
+        while (!root.leaf && root.children.size() == 1) {
+            root = (Node) root.children.get(0);
+            root.parent = null;
+        }
+        if (!root.leaf && root.children.isEmpty()) {
+            root = new Node(true);
+        }
+
+        for (Entry orphan : orphans) {
+            insertEntry(orphan);
+        }
+    }
+
+    /**
+     * Builds a tree bottom-up: boxes are sorted into vertical slices by x, each
+     * slice is sorted by y and cut into full nodes, and the nodes are packed
+     * the same way until a single root remains.
+     */
+    private static Node pack(List<Box> boxes) {
+        if (boxes.isEmpty()) {
+            return new Node(true);
+        }
+        boolean leaf = true;
+        do {
+            boxes = packLevel(boxes, leaf);
+            leaf = false;
+        } while (boxes.size() > 1);
+        Node root = (Node) boxes.get(0);
+        root.parent = null;
+        return root;
+    }
+
+    private static List<Box> packLevel(List<Box> boxes, boolean leaf) {
+        int nodeCount = (boxes.size() + MAX_ENTRIES - 1) / MAX_ENTRIES;
+        int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+        int sliceSize = sliceCount * MAX_ENTRIES;
+
+        boxes.sort(Comparator.comparingLong(b -> (long) b.minX + b.maxX));
+        List<Box> nodes = new ArrayList<>(nodeCount);
+        for (int sliceStart = 0; sliceStart < boxes.size(); sliceStart += sliceSize) {
+            List<Box> slice = boxes.subList(sliceStart, Math.min(sliceStart + sliceSize, boxes.size()));
+            slice.sort(Comparator.comparingLong(b -> (long) b.minY + b.maxY));
+            for (int start = 0; start < slice.size(); start += MAX_ENTRIES) {
+                Node node = new Node(leaf);
+                for (Box box : slice.subList(start, Math.min(start + MAX_ENTRIES, slice.size()))) {
+                    node.add(box);
+                }
+                Node.recompute(node);
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    private static void collectEntries(Node node, List<Entry> out) {
+        for (Box child : node.children) {
+            if (node.leaf) {
+                out.add((Entry) child);
+            } else {
+                collectEntries((Node) child, out);
+            }
+        }
+    }
+
+    // ==================== TREE ELEMENTS ====================
+
+    /**
+     * An axis-aligned box with inclusive edges.
+     */
+    private abstract static class Box {
+        int minX;
+        int minY;
+        int maxX;
+        int maxY;
+        Node parent;
+
+        boolean intersects(int x1, int y1, int x2, int y2) {
+            return minX <= x2 && x1 <= maxX && minY <= y2 && y1 <= maxY;
+        }
+
+        long area() {
+            return ((long) maxX - minX) * ((long) maxY - minY);
+        }
+
+        long enlargedArea(Box other) {
+            long width = (long) Math.max(maxX, other.maxX) - Math.min(minX, other.minX);
+            long height = (long) Math.max(maxY, other.maxY) - Math.min(minY, other.minY);
+            return width * height;
+        }
+    }
+
+    private static final class Entry extends Box {
+        final Shape shape;
+        final long sequence;
+
+        Entry(Shape shape, long sequence) {
+            this.shape = shape;
+            this.sequence = sequence;
+        }
+
+        void setBounds(java.awt.Rectangle bounds) {
+            minX = bounds.x;
+            minY = bounds.y;
+            maxX = bounds.x + Math.max(0, bounds.width);
+            maxY = bounds.y + Math.max(0, bounds.height);
+        }
+
+        boolean matches(java.awt.Rectangle bounds) {
+            return minX == bounds.x && minY == bounds.y
+                    && maxX == bounds.x + Math.max(0, bounds.width)
+                    && maxY == bounds.y + Math.max(0, bounds.height);
+        }
+    }
+
+    private static final class Node extends Box {
+        final boolean leaf;
+        final List<Box> children = new ArrayList<>(MAX_ENTRIES + 1);
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+            reset();
+        }
+
+        void add(Box child) {
+            child.parent = this;
+            children.add(child);
+        }
+
+        void include(Box box) {
+            minX = Math.min(minX, box.minX);
+            minY = Math.min(minY, box.minY);
+            maxX = Math.max(maxX, box.maxX);
+            maxY = Math.max(maxY, box.maxY);
+        }
+
+        private void reset() {
+            minX = Integer.MAX_VALUE;
+            minY = Integer.MAX_VALUE;
+            maxX = Integer.MIN_VALUE;
+            maxY = Integer.MIN_VALUE;
+        }
+
+        static void recompute(Node node) {
+            node.reset();
+            for (Box child : node.children) {
+                node.include(child);
+            }
+        }
+    }
+}
@@ -1,11 +1,9 @@
 package com.geometriceditor.rendering;
 
 import java.awt.Graphics2D;
-import java.awt.Polygon;
 
 import com.geometriceditor.model.Rectangle;
 import com.geometriceditor.model.RegularPolygon;
-import com.geometriceditor.model.Shape;
 import com.geometriceditor.model.ShapeGroup;
 
 /**
@@ -23,21 +21,15 @@ public class AWTRenderer implements ShapeRenderer {
 
     @Override
     public void drawRegularPolygon(Graphics2D g, RegularPolygon regularPolygon) {
-        g.setColor(regularPolygon.getFillColor()); // Use getFillColor
+        // The polygon caches its vertices, so drawing does no trig
         int sides = regularPolygon.getNumberOfSides(); // Use getNumberOfSides
-        int[] xPoints = new int[sides];
-        int[] yPoints = new int[sides];
-        double angleStep = 2 * Math.PI / sides;
-
-        for (int i = 0; i < sides; i++) {
-            xPoints[i] = (int) (regularPolygon.getX() + regularPolygon.getRadius() * Math.cos(i * angleStep));
-            yPoints[i] = (int) (regularPolygon.getY() + regularPolygon.getRadius() * Math.sin(i * angleStep));
-        }
+        int[] xPoints = regularPolygon.getVertexXs();
+        int[] yPoints = regularPolygon.getVertexYs();
 
-        Polygon awtPolygon = new Polygon(xPoints, yPoints, sides);
-        g.fillPolygon(awtPolygon);
+        g.setColor(regularPolygon.getFillColor()); // Use getFillColor
+        g.fillPolygon(xPoints, yPoints, sides);
         g.setColor(regularPolygon.getBorderColor()); // Use getBorderColor
-        g.drawPolygon(awtPolygon);
+        g.drawPolygon(xPoints, yPoints, sides);
     }
 
     @Override
@@ -46,13 +38,8 @@ public class AWTRenderer implements ShapeRenderer {
         // The drawing logic for children is handled within the ShapeGroup's draw method
         // which will iterate and call draw on each child, passing this renderer.
         // So, this method might remain empty or draw a bounding box if needed.
-        // For now, let's keep it simple.
-        for (Shape shape : group.getShapes()) {
-            // The Shape's draw method will use the renderer passed to it.
-            // We assume Shape.draw(Graphics2D g, ShapeRenderer renderer) exists or will be
-            // added.
-            // shape.draw(g, this); // This call will happen inside ShapeGroup.draw
-        }
+        // For now, let's keep it simple. Not iterating getShapes() here: it would
+        // apply a moved group's pending translation on every paint.
         // Optionally draw a bounding box for the group for debugging/selection
         // g.setColor(java.awt.Color.GRAY);
         // g.drawRect(group.getX(), group.getY(), group.getWidth(), group.getHeight());
@@ -0,0 +1,163 @@
+package com.geometriceditor.rendering;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An offscreen raster cache for a static scene, split into fixed-size tiles.
+ * <p>
+ * Tiles are rasterized on demand the first time they are painted and simply
+ * blitted afterwards. Callers invalidate the areas whose content changed; only
+ * the tiles overlapping those areas are rendered again. Memory use is capped,
+ * evicting the least recently painted tiles first.
+ */
+public class TileCache {
+    public static final int TILE_SIZE = 256;
+    private static final long BYTES_PER_TILE = (long) TILE_SIZE * TILE_SIZE * 4; // ARGB
+
+    /**
+     * Renders scene content into a tile.
+     */
+    @FunctionalInterface
+    public interface TilePainter {
+        /**
+         * @param g    Graphics already translated and clipped to the tile area
+         * @param area The tile area in scene coordinates
+         */
+        void paintTile(Graphics2D g, java.awt.Rectangle area);
+    }
+
+    // Access-ordered, so iteration starts at the least recently used tile
+    private final LinkedHashMap<Long, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private long maxBytes;
+    private int renderedTileCount = 0;
+
+    /**
+     * @param maxBytes Memory cap for the cached tiles, in bytes.
+     */
+    public TileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Paints the tiles covering the clip area, rasterizing missing ones.
+     *
+     * @param g       The destination graphics, in scene coordinates
+     * @param clip    The area to paint
+     * @param painter Renders a tile that is not cached
+     */
+    public void paint(Graphics2D g, java.awt.Rectangle clip, TilePainter painter) {
+        int firstColumn = Math.floorDiv(clip.x, TILE_SIZE);
+        int firstRow = Math.floorDiv(clip.y, TILE_SIZE);
+        int lastColumn = Math.floorDiv(clip.x + clip.width - 1, TILE_SIZE);
+        int lastRow = Math.floorDiv(clip.y + clip.height - 1, TILE_SIZE);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                long key = key(column, row);
+                BufferedImage tile = tiles.get(key);
+                if (tile == null) {
+                    tile = renderTile(column, row, painter);
+                    tiles.put(key, tile);
+                    evictOverflow();
+                }
+                g.drawImage(tile, column * TILE_SIZE, row * TILE_SIZE, null);
+            }
+        }
+    }
+
+    private BufferedImage renderTile(int column, int row, TilePainter painter) {
+        java.awt.Rectangle area = new java.awt.Rectangle(column * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+        BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = tile.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.translate(-area.x, -area.y);
+            g.setClip(area);
+            painter.paintTile(g, area);
+        } finally {
+            g.dispose();
+        }
+        renderedTileCount++;
+        return tile;
+    }
+
+    private void evictOverflow() {
+        // Always keep the tile just rendered, even if the cap is smaller than one tile
+        Iterator<Map.Entry<Long, BufferedImage>> eldest = tiles.entrySet().iterator();
+        while (getUsedBytes() > maxBytes && tiles.size() > 1) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops every tile overlapping the area so it is rendered again on its next
+     * paint.
+     *
+     * @param area The changed area in scene coordinates
+     */
+    public void invalidate(java.awt.Rectangle area) {
+        if (area == null || tiles.isEmpty()) {
+            return;
+        }
+        int firstColumn = Math.floorDiv(area.x, TILE_SIZE);
+        int firstRow = Math.floorDiv(area.y, TILE_SIZE);
+        int lastColumn = Math.floorDiv(area.x + Math.max(area.width, 1) - 1, TILE_SIZE);
+        int lastRow = Math.floorDiv(area.y + Math.max(area.height, 1) - 1, TILE_SIZE);
+
+        long tileSpan = ((long) lastColumn - firstColumn + 1) * ((long) lastRow - firstRow + 1);
+        if (tileSpan > tiles.size()) {
+            // Cheaper to scan the cached tiles than every tile in the area
+            tiles.keySet().removeIf(key -> {
+                int column = (int) (key >> 32);
+                int row = (int) (long) key;
+                return column >= firstColumn && column <= lastColumn && row >= firstRow && row <= lastRow;
+            });
+            return;
+        }
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                tiles.remove(key(column, row));
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        tiles.clear();
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        if (!tiles.isEmpty()) {
+            evictOverflow();
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getUsedBytes() {
+        return tiles.size() * BYTES_PER_TILE;
+    }
+
+    public int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * @return How many tiles were rasterized since the cache was created.
+     */
+    public int getRenderedTileCount() {
+        return renderedTileCount;
+    }
+
+    private static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xFFFFFFFFL);
+    }
+}
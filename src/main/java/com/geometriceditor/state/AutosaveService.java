@@ -0,0 +1,242 @@
+package com.geometriceditor.state;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import com.geometriceditor.io.BucketedDocument;
+import com.geometriceditor.io.DocumentSnapshot;
+import com.geometriceditor.io.DocumentWriter;
+import com.geometriceditor.io.MappedDocument;
+import com.geometriceditor.model.LazyShapeSource;
+import com.geometriceditor.model.ShapeChangeEvent;
+import com.geometriceditor.model.ShapeChangeListener;
+import com.geometriceditor.model.ShapeChanges;
+import com.geometriceditor.ui.WhiteboardPanel;
+
+/**
+ * Saves the whiteboard to a file in the background after it changes.
+ * <p>
+ * A save takes a {@link DocumentSnapshot} on the event dispatch thread, which
+ * copies primitives only, then encodes and writes it on a dedicated thread
+ * through {@link DocumentWriter#writeAtomically}, so editing never waits for
+ * the disk and the file never holds a partial document. A save starts at most
+ * one delay after the first unsaved change; changes made while a save is
+ * being written are coalesced into the next one.
+ * <p>
+ * While shapes of a lazily loaded document are pending, they are not created
+ * for a snapshot: the document is copied as opened on the dedicated thread,
+ * then the changes since it was opened are appended to the copy on the event
+ * dispatch thread, like a save to a tracked file does, see
+ * {@link StateManager#saveToFile}.
+ * <p>
+ * Changes are noticed through the whiteboard's shape change events. Use from
+ * the event dispatch thread only.
+ */
+public class AutosaveService implements ShapeChangeListener, AutoCloseable {
+    private static final int DEFAULT_DELAY_MILLIS = 2000;
+
+    private final WhiteboardPanel whiteboard;
+    private final File file;
+    private final ExecutorService writer;
+    private final Timer timer;
+    private int documentsOpened = 0; // Tells whether the whiteboard's changes still apply to a copy
+
+    private boolean dirty = false; // Changed since the last snapshot
+    private boolean writing = false; // A snapshot is being written
+    private volatile Runnable pendingAppend; // Completes a copy of a lazy document, null if none
+    private volatile IOException lastFailure;
+
+    public AutosaveService(WhiteboardPanel whiteboard, File file) {
+        this.whiteboard = whiteboard;
+        this.file = file;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer = new Timer(DEFAULT_DELAY_MILLIS, e -> saveIfDirty());
+        timer.setRepeats(false);
+        whiteboard.addShapeChangeListener(this);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Sets how long after the first unsaved change a save starts.
+     */
+    public void setDelay(int millis) {
+        timer.setInitialDelay(millis);
+    }
+
+    /**
+     * @return Why the most recent save failed, or null if it succeeded.
+     */
+    public IOException getLastFailure() {
+        return lastFailure;
+    }
+
+    @Override
+    public void shapesChanged(ShapeChangeEvent event) {
+        if (event.isReplaced()) {
+            documentsOpened++; // The new document is the one to copy
+        }
+        requestSave();
+    }
+
+    /**
+     * Marks the whiteboard as changed, scheduling a save if none is pending.
+     */
+    public void requestSave() {
+        dirty = true;
+        // Not restarted on every change, so steady editing cannot postpone saves forever
+        if (!writing && !timer.isRunning()) {
+            timer.start();
+        }
+    }
+
+    private void saveIfDirty() {
+        if (!dirty || writing) {
+            return; // A save in progress reschedules itself when done
+        }
+        whiteboard.fireShapeChanges(); // Direct edits not published yet
+        LazyShapeSource source = whiteboard.getLazyShapeSource();
+        int document = documentsOpened;
+        dirty = false;
+        writing = true;
+        if (isCopyable(source)) {
+            writer.execute(() -> {
+                IOException failure = copy(source, document);
+                if (failure == null) {
+                    SwingUtilities.invokeLater(this::runPendingAppend);
+                } else {
+                    SwingUtilities.invokeLater(() -> saveFinished(failure));
+                }
+            });
+            return;
+        }
+        DocumentSnapshot snapshot = DocumentSnapshot.capture(whiteboard.getShapes());
+        writer.execute(() -> {
+            IOException failure = write(snapshot);
+            SwingUtilities.invokeLater(() -> saveFinished(failure));
+        });
+    }
+
+    // Copies keep the document's format, so they must take the changes as deltas
+    private static boolean isCopyable(LazyShapeSource source) {
+        return source instanceof BucketedDocument
+                || source instanceof MappedDocument && ((MappedDocument) source).acceptsDeltas();
+    }
+
+    /**
+     * Copies a lazily loaded document as opened, on the writer thread. The
+     * changes are appended by {@link #runPendingAppend()} on the event dispatch
+     * thread.
+     */
+    private IOException copy(LazyShapeSource source, int document) {
+        try {
+            if (source instanceof MappedDocument) {
+                ((MappedDocument) source).copyTo(file.toPath());
+            } else {
+                ((BucketedDocument) source).copyTo(file.toPath());
+            }
+            pendingAppend = () -> appendChanges(source instanceof BucketedDocument, document);
+            return null;
+        } catch (IOException e) {
+            return e;
+        }
+    }
+
+    private void runPendingAppend() {
+        Runnable append = pendingAppend;
+        if (append != null) {
+            pendingAppend = null;
+            append.run();
+        }
+    }
+
+    // Proportional to the changes since the document was opened
+    private void appendChanges(boolean bucketed, int document) {
+        if (document != documentsOpened) {
+            saveFinished(null);
+            requestSave(); // The copy is of a document replaced since
+            return;
+        }
+        IOException failure = null;
+        ShapeChanges sinceOpened = whiteboard.getChangesSinceLoaded();
+        if (!sinceOpened.isEmpty()) {
+            Path path = file.toPath();
+            try {
+                if (bucketed) {
+                    try (BucketedDocument copy = BucketedDocument.open(path)) {
+                        copy.save(sinceOpened);
+                    }
+                } else {
+                    DocumentWriter.appendDelta(sinceOpened, path);
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        saveFinished(failure);
+    }
+
+    private IOException write(DocumentSnapshot snapshot) {
+        try {
+            DocumentWriter.writeAtomically(snapshot, file.toPath());
+            return null;
+        } catch (IOException e) {
+            return e;
+        }
+    }
+
+    private void saveFinished(IOException failure) {
+        writing = false;
+        lastFailure = failure;
+        if (failure != null) {
+            System.err.println("Autosave failed: " + failure.getMessage());
+            dirty = true; // Retried with the next change
+        } else if (dirty) {
+            timer.start(); // Changes made while writing
+        }
+    }
+
+    /**
+     * Stops listening for changes, saves pending changes and waits for the
+     * last save to be written.
+     */
+    @Override
+    public void close() {
+        whiteboard.fireShapeChanges(); // Direct edits not published yet
+        whiteboard.removeShapeChangeListener(this);
+        timer.stop();
+        boolean saveAgain = dirty;
+        dirty = false;
+        LazyShapeSource source = whiteboard.getLazyShapeSource();
+        int document = documentsOpened;
+        if (saveAgain && isCopyable(source)) {
+            // Written after the save in progress, if any, then completed below
+            writer.execute(() -> lastFailure = copy(source, document));
+        } else if (saveAgain) {
+            DocumentSnapshot snapshot = DocumentSnapshot.capture(whiteboard.getShapes());
+            writer.execute(() -> lastFailure = write(snapshot));
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        runPendingAppend(); // A copy whose changes were not appended yet
+        dirty = false; // Nothing is saved after closing
+        timer.stop();
+    }
+}
@@ -0,0 +1,250 @@
+package com.geometriceditor.state;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.geometriceditor.io.BucketedDocument;
+import com.geometriceditor.io.DocumentSnapshot;
+import com.geometriceditor.io.DocumentWriter;
+import com.geometriceditor.io.JournalReader;
+import com.geometriceditor.io.JournalWriter;
+import com.geometriceditor.io.MappedDocument;
+import com.geometriceditor.model.LazyShapeSource;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeChangeEvent;
+import com.geometriceditor.model.ShapeChangeListener;
+import com.geometriceditor.model.ShapeChanges;
+import com.geometriceditor.ui.WhiteboardPanel;
+
+/**
+ * Write-ahead journal of the whiteboard for crash recovery. For every shape
+ * change event, i.e. after every executed, undone or redone command and every
+ * batch of direct edits, the top-level shapes added, modified or removed are
+ * encoded on the event dispatch thread as one small batch, so the cost of a
+ * command does not depend on the document size.
+ * <p>
+ * Batches are written and forced to disk on a dedicated thread, once per sync
+ * interval for all batches queued meanwhile (group commit): a crash loses at
+ * most the last interval. When the journal outgrows a threshold, or the whole
+ * document was replaced, it is folded into a new checkpoint document and
+ * started over. Use {@link #recover(Path, Path)} to rebuild the document.
+ * <p>
+ * While shapes of a lazily loaded document are pending, a checkpoint does not
+ * create them: the document is copied as opened on the dedicated thread, and
+ * the changes since it was opened become the first batch of the new journal,
+ * like {@link AutosaveService} appends them to its copy.
+ * <p>
+ * Use from the event dispatch thread only.
+ */
+public class CommandJournal implements ShapeChangeListener, AutoCloseable {
+    private static final int DEFAULT_SYNC_INTERVAL_MILLIS = 50;
+    private static final long DEFAULT_CHECKPOINT_BYTES = 8L * 1024 * 1024;
+
+    private final WhiteboardPanel whiteboard;
+    private final Path checkpointFile;
+    private final ShapeChanges changes = new ShapeChanges();
+    private final ScheduledExecutorService io;
+    private final JournalWriter writer;
+    private int syncIntervalMillis = DEFAULT_SYNC_INTERVAL_MILLIS;
+    private long checkpointBytes = DEFAULT_CHECKPOINT_BYTES;
+    private long journalBytes = 0; // Queued since the last checkpoint
+
+    // Owned by the I/O thread
+    private final ByteArrayOutputStream unsynced = new ByteArrayOutputStream();
+    private boolean syncScheduled = false;
+    private volatile IOException lastFailure;
+
+    /**
+     * Starts journaling a whiteboard, beginning with a checkpoint of its
+     * current document. Previous content of both files is replaced.
+     *
+     * @param checkpointFile Receives the checkpoint documents.
+     * @param journalFile    Receives the batches since the last checkpoint.
+     */
+    public CommandJournal(WhiteboardPanel whiteboard, Path checkpointFile, Path journalFile) throws IOException {
+        this.whiteboard = whiteboard;
+        this.checkpointFile = checkpointFile;
+        this.writer = new JournalWriter(journalFile);
+        this.io = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        whiteboard.fireShapeChanges(); // Part of the checkpoint
+        whiteboard.addShapeChangeListener(this);
+        checkpoint();
+    }
+
+    /**
+     * Rebuilds the document a journal was keeping, e.g. after a crash.
+     *
+     * @return The top-level shapes, bottom-most first; empty if nothing was
+     *         journaled.
+     */
+    public static List<Shape> recover(Path checkpointFile, Path journalFile) throws IOException {
+        return JournalReader.recover(checkpointFile, journalFile);
+    }
+
+    /**
+     * Sets how long batches may wait before being forced to disk together.
+     */
+    public void setSyncInterval(int millis) {
+        this.syncIntervalMillis = millis;
+    }
+
+    /**
+     * Sets the journal size from which the next batch becomes a checkpoint.
+     */
+    public void setCheckpointThreshold(long bytes) {
+        this.checkpointBytes = bytes;
+    }
+
+    /**
+     * @return Why the most recent write failed, or null.
+     */
+    public IOException getLastFailure() {
+        return lastFailure;
+    }
+
+    @Override
+    public void shapesChanged(ShapeChangeEvent event) {
+        changes.record(event);
+        journalChanges();
+    }
+
+    /**
+     * Journals the changes made since the last batch, including direct edits
+     * not published yet.
+     */
+    public void flushChanges() {
+        whiteboard.fireShapeChanges(); // Received by shapesChanged
+        journalChanges();
+    }
+
+    private void journalChanges() {
+        if (changes.isEmpty()) {
+            return;
+        }
+        if (changes.isReplaced() || journalBytes >= checkpointBytes) {
+            checkpoint();
+            return;
+        }
+        byte[] batch = JournalWriter.encodeBatch(changes);
+        changes.clear();
+        journalBytes += batch.length;
+        io.execute(() -> append(batch));
+    }
+
+    /**
+     * Folds the journal into a new checkpoint of the current document.
+     */
+    public void checkpoint() {
+        changes.clear();
+        journalBytes = 0; // The changes since the document was opened are not counted
+        LazyShapeSource source = whiteboard.getLazyShapeSource();
+        if (source instanceof MappedDocument || source instanceof BucketedDocument) {
+            // Proportional to the changes since the document was opened
+            ShapeChanges sinceOpened = whiteboard.getChangesSinceLoaded();
+            byte[] firstBatch = sinceOpened.isEmpty() ? null : JournalWriter.encodeBatch(sinceOpened);
+            if (source instanceof MappedDocument) {
+                MappedDocument document = (MappedDocument) source;
+                io.execute(() -> writeCheckpoint(() -> document.copyTo(checkpointFile), firstBatch));
+            } else {
+                BucketedDocument document = (BucketedDocument) source;
+                io.execute(() -> writeCheckpoint(() -> document.copyTo(checkpointFile), firstBatch));
+            }
+        } else {
+            DocumentSnapshot snapshot = DocumentSnapshot.capture(whiteboard.getShapes());
+            io.execute(() -> writeCheckpoint(() -> DocumentWriter.writeAtomically(snapshot, checkpointFile), null));
+        }
+    }
+
+    private interface CheckpointWrite {
+        void run() throws IOException;
+    }
+
+    /**
+     * Writes a checkpoint and starts the journal over, on the I/O thread.
+     *
+     * @param firstBatch Changes the checkpoint lacks, journaled with it, or null.
+     */
+    private void writeCheckpoint(CheckpointWrite write, byte[] firstBatch) {
+        unsynced.reset(); // Already part of the checkpoint
+        try {
+            write.run();
+            writer.reset(checkpointFile);
+            if (firstBatch != null) {
+                writer.append(ByteBuffer.wrap(firstBatch));
+                writer.sync();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    // On the I/O thread
+    private void append(byte[] batch) {
+        unsynced.write(batch, 0, batch.length);
+        if (!syncScheduled) {
+            syncScheduled = true;
+            io.schedule(this::sync, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // On the I/O thread
+    private void sync() {
+        syncScheduled = false;
+        if (unsynced.size() == 0) {
+            return;
+        }
+        try {
+            writer.append(ByteBuffer.wrap(unsynced.toByteArray()));
+            writer.sync();
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            unsynced.reset();
+        }
+    }
+
+    private void fail(IOException e) {
+        lastFailure = e;
+        System.err.println("Journal write failed: " + e.getMessage());
+    }
+
+    /**
+     * Stops journaling, journals pending changes and waits for them to reach
+     * the disk. The files stay for {@link #recover(Path, Path)}.
+     */
+    @Override
+    public void close() {
+        flushChanges();
+        whiteboard.removeShapeChangeListener(this);
+        io.execute(this::sync);
+        io.shutdown(); // Runs the delayed sync too
+        try {
+            io.awaitTermination(30, TimeUnit.SECONDS);
+            writer.close();
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Deletes the files of a closed journal that is no longer needed, e.g. when
+     * the session ends normally.
+     */
+    public static void delete(Path checkpointFile, Path journalFile) throws IOException {
+        Files.deleteIfExists(checkpointFile);
+        Files.deleteIfExists(journalFile);
+    }
+}
@@ -0,0 +1,156 @@
+package com.geometriceditor.state;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.SwingWorker;
+
+import com.geometriceditor.io.DocumentFormat;
+import com.geometriceditor.io.DocumentReader;
+import com.geometriceditor.model.LazyShapeSource;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.ui.WhiteboardPanel;
+
+/**
+ * Loads a document on a worker thread and hands its shapes to the whiteboard
+ * in chunks, so the window stays responsive and shows the document as it
+ * arrives. Progress goes from 0 to 100 through the {@code progress} bound
+ * property.
+ * <p>
+ * The current document stays until the first chunk arrives. Cancelling, or a
+ * failure, afterwards brings it back. Commands executed while the load runs
+ * cannot be undone once it completes.
+ */
+public class DocumentLoader extends SwingWorker<LazyShapeSource, List<Shape>> {
+    private static final int CHUNK_SIZE = 5000;
+
+    private final StateManager stateManager;
+    private final WhiteboardPanel whiteboard;
+    private final File file;
+    private WhiteboardPanel.DocumentState previousDocument; // Replaced document, null until the first chunk arrives
+    private StateManager.SavedState previousSavedState; // What the replaced document was saved as
+    private Exception failure;
+
+    DocumentLoader(StateManager stateManager, WhiteboardPanel whiteboard, File file) {
+        this.stateManager = stateManager;
+        this.whiteboard = whiteboard;
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return Why the load failed, or null if it did not fail (yet).
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    @Override
+    protected LazyShapeSource doInBackground() throws Exception {
+        Path path = file.toPath();
+        // Only the index is read; shapes are created on demand afterwards
+        LazyShapeSource document = stateManager.openLazily(path);
+        if (document != null) {
+            return document;
+        }
+        if (DocumentFormat.isBinaryDocument(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                DocumentReader.read(channel, CHUNK_SIZE, (chunk, read, total) -> {
+                    publish(chunk);
+                    setProgress((int) (100L * read / total));
+                    return !isCancelled();
+                });
+            }
+        } else {
+            // Serialized mementos cannot be read in parts
+            List<Shape> shapes = stateManager.readLegacyFile(file);
+            if (!isCancelled()) {
+                publish(shapes);
+            }
+        }
+        setProgress(100);
+        return null;
+    }
+
+    @Override
+    protected void process(List<List<Shape>> chunks) {
+        // Chunks published before a cancellation may still be delivered
+        if (isCancelled()) {
+            return;
+        }
+        for (List<Shape> chunk : chunks) {
+            if (previousDocument == null) {
+                // Keeps pending shapes of a lazily loaded document pending
+                previousSavedState = stateManager.setAsideSavedState(whiteboard);
+                previousDocument = whiteboard.captureDocument();
+                whiteboard.loadShapes(chunk, false);
+                trackLoadedDocument(null); // Edits made while the rest arrives are saved as changes
+            } else {
+                stateManager.appendLoadedShapes(whiteboard, chunk);
+            }
+        }
+    }
+
+    @Override
+    protected void done() {
+        try {
+            LazyShapeSource document = get();
+            if (document != null) {
+                whiteboard.loadLazily(document);
+                trackLoadedDocument(document);
+            } else if (previousDocument == null) {
+                whiteboard.loadShapes(Collections.emptyList(), false); // Empty document
+                trackLoadedDocument(null);
+            } else {
+                whiteboard.clearHistory(); // Drops commands executed during the load
+                discardPreviousDocument();
+            }
+        } catch (CancellationException e) {
+            restorePreviousDocument();
+        } catch (ExecutionException e) {
+            failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            restorePreviousDocument();
+        } catch (InterruptedException e) {
+            // Not reached: get() does not block once the worker is done
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void trackLoadedDocument(LazyShapeSource document) {
+        try {
+            stateManager.trackLoadedDocument(whiteboard, file.toPath(), document);
+        } catch (IOException e) {
+            // The next save writes the whole document
+            System.err.println("Could not track changes to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void restorePreviousDocument() {
+        if (previousDocument != null) {
+            whiteboard.restoreDocument(previousDocument);
+            try {
+                stateManager.restoreSavedState(whiteboard, previousSavedState);
+            } catch (IOException e) {
+                System.err.println("Could not close the document being loaded: " + e.getMessage());
+            }
+        }
+    }
+
+    private void discardPreviousDocument() {
+        try {
+            stateManager.discardSavedState(previousSavedState);
+        } catch (IOException e) {
+            System.err.println("Could not close the replaced document: " + e.getMessage());
+        }
+    }
+}
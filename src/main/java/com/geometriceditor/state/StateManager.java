@@ -1,37 +1,357 @@
 package com.geometriceditor.state;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
 
+import com.geometriceditor.io.BucketedDocument;
+import com.geometriceditor.io.DocumentFormat;
+import com.geometriceditor.io.DocumentReader;
+import com.geometriceditor.io.DocumentSnapshot;
+import com.geometriceditor.io.DocumentWriter;
+import com.geometriceditor.io.MappedDocument;
+import com.geometriceditor.model.LazyShapeSource;
 import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeChangeListener;
+import com.geometriceditor.model.ShapeChanges;
 import com.geometriceditor.ui.WhiteboardPanel;
 
+/**
+ * Saves and loads whiteboard documents. Saving again to the file last saved
+ * to or loaded from appends only the shapes changed since, see
+ * {@link DocumentWriter#appendDelta}; once the appended changes outgrow a
+ * threshold, the file is compacted on a background thread. Documents in the
+ * bucketed layout, see {@link BucketedDocument}, are opened lazily whatever
+ * their size and keep that layout when saved again.
+ * <p>
+ * Use from the event dispatch thread only.
+ */
 public class StateManager {
+    // Documents at least this large are mapped and their shapes created on demand
+    private long lazyLoadThreshold = 16L * 1024 * 1024;
+    private long compactionThreshold = 1024L * 1024;
+    private int compressionLevel = Deflater.NO_COMPRESSION;
+    private boolean spatialLayout = false;
+
+    // Changes to the tracked whiteboard since it matched the saved file
+    private ShapeChanges unsavedChanges = new ShapeChanges();
+    private final ShapeChangeListener unsavedChangeListener = event -> unsavedChanges.record(event);
+    private WhiteboardPanel trackedWhiteboard;
+    private Path savedFile; // Null when the next save must write the whole document
+    private BasicFileAttributes savedAttributes; // Tells whether someone else wrote the file since
+    private BucketedDocument savedDocument; // Open while the saved file is bucketed
+    private ExecutorService compactor; // Created on first use
+    private Future<BasicFileAttributes> compaction; // Most recent, null once waited for
+
+    /**
+     * Sets the file size from which binary documents are loaded lazily, see
+     * {@link WhiteboardPanel#loadLazily}. Use {@code Long.MAX_VALUE} to always
+     * load eagerly.
+     */
+    public void setLazyLoadThreshold(long bytes) {
+        this.lazyLoadThreshold = bytes;
+    }
+
+    /**
+     * Sets the length of appended changes from which a saved file is rewritten
+     * without them.
+     */
+    public void setCompactionThreshold(long bytes) {
+        this.compactionThreshold = bytes;
+    }
+
+    /**
+     * Sets how saved documents are compressed, from
+     * {@link Deflater#NO_COMPRESSION}, the default, to
+     * {@link Deflater#BEST_COMPRESSION}. Compressed documents are compressed
+     * and decompressed on all cores, but are always saved and loaded in full.
+     */
+    public void setCompressionLevel(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.compressionLevel = level;
+    }
+
+    /**
+     * Sets whether documents are saved in the bucketed layout, which lets a
+     * region of a huge board be opened without reading the rest. Takes
+     * precedence over compression.
+     */
+    public void setSpatialLayout(boolean spatialLayout) {
+        this.spatialLayout = spatialLayout;
+    }
+
     public ApplicationMemento save(WhiteboardPanel whiteboard) {
         return new ApplicationMemento(whiteboard.getShapes());
     }
 
+    /**
+     * Restores a snapshot as one undoable operation.
+     */
     public void restore(WhiteboardPanel whiteboard, ApplicationMemento memento) {
-        whiteboard.clearShapes();
-        for (Shape shape : memento.getShapes()) {
-            whiteboard.addShape(shape);
-        }
+        whiteboard.loadShapes(memento.getShapes(), true);
     }
 
+    /**
+     * Saves the whiteboard's document. If the file holds the document as last
+     * saved or loaded, and documents are not compressed, only the changes since
+     * are written: bucketed files get new buckets for the changed shapes, others
+     * get them appended.
+     */
     public void saveToFile(WhiteboardPanel whiteboard, File file) throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-            oos.writeObject(save(whiteboard));
+        Path path = file.toPath();
+        awaitCompaction();
+        whiteboard.fireShapeChanges(); // Direct edits not published yet
+        if (savedDocument != null && isSavedIn(whiteboard, path)) {
+            if (!unsavedChanges.isEmpty()) {
+                savedDocument.save(unsavedChanges);
+            }
+            track(whiteboard, path, savedDocument);
+            return;
         }
+        if (spatialLayout) {
+            track(whiteboard, path, BucketedDocument.create(path, whiteboard.getShapes()));
+            return;
+        }
+        if (compressionLevel == Deflater.NO_COMPRESSION && isSavedIn(whiteboard, path)) {
+            if (!unsavedChanges.isEmpty()) {
+                long deltaLength = DocumentWriter.appendDelta(unsavedChanges, path);
+                if (deltaLength >= compactionThreshold) {
+                    compactInBackground(path);
+                }
+            }
+        } else {
+            // A snapshot copies primitives only, no memento clone is needed
+            DocumentSnapshot snapshot = DocumentSnapshot.capture(whiteboard.getShapes());
+            DocumentWriter.writeAtomically(snapshot, path, compressionLevel);
+        }
+        track(whiteboard, compressionLevel == Deflater.NO_COMPRESSION ? path : null, null);
     }
 
     public void loadFromFile(WhiteboardPanel whiteboard, File file) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+        Path path = file.toPath();
+        LazyShapeSource document = openLazily(path);
+        if (document != null) {
+            whiteboard.loadLazily(document);
+        } else if (DocumentFormat.isBinaryDocument(path)) {
+            // A loaded document starts a new history
+            whiteboard.loadShapes(DocumentReader.read(path), false);
+        } else {
+            whiteboard.loadShapes(readLegacyFile(file), false);
+        }
+        trackLoadedDocument(whiteboard, path, document);
+    }
+
+    /**
+     * Loads a document like {@link #loadFromFile} without blocking the calling
+     * thread: the shapes are decoded on a worker thread and shown as they
+     * arrive. The returned loader has not been started yet.
+     *
+     * @param whiteboard The whiteboard receiving the document, used on the event
+     *                   dispatch thread only.
+     * @param file       The document file.
+     * @return The loader; call {@code execute()} from the event dispatch thread.
+     */
+    public DocumentLoader loadFromFileInBackground(WhiteboardPanel whiteboard, File file) {
+        return new DocumentLoader(this, whiteboard, file);
+    }
+
+    /**
+     * Starts tracking the changes to a whiteboard that just received the
+     * document of a file.
+     *
+     * @param document The document if it was opened lazily, else null.
+     */
+    void trackLoadedDocument(WhiteboardPanel whiteboard, Path file, LazyShapeSource document) throws IOException {
+        awaitCompaction();
+        if (document instanceof BucketedDocument) {
+            track(whiteboard, file, (BucketedDocument) document);
+        } else {
+            track(whiteboard, DocumentFormat.acceptsDeltas(file) ? file : null, null);
+        }
+    }
+
+    /**
+     * What a whiteboard was last saved as, set aside while another document
+     * is loaded so that cancelling the load can go back to it.
+     */
+    static final class SavedState {
+        private final Path file;
+        private final BasicFileAttributes attributes;
+        private final BucketedDocument document;
+        private final ShapeChanges unsavedChanges;
+
+        private SavedState(Path file, BasicFileAttributes attributes, BucketedDocument document,
+                ShapeChanges unsavedChanges) {
+            this.file = file;
+            this.attributes = attributes;
+            this.document = document;
+            this.unsavedChanges = unsavedChanges;
+        }
+    }
+
+    /**
+     * Stops tracking the saved file of a whiteboard whose document is about to
+     * be replaced by a loaded one, keeping a bucketed file open until
+     * {@link #restoreSavedState} or {@link #discardSavedState}.
+     */
+    SavedState setAsideSavedState(WhiteboardPanel whiteboard) {
+        awaitCompaction();
+        if (whiteboard != trackedWhiteboard) {
+            return new SavedState(null, null, null, new ShapeChanges());
+        }
+        whiteboard.fireShapeChanges(); // Direct edits not published yet
+        SavedState state = new SavedState(savedFile, savedAttributes, savedDocument, unsavedChanges);
+        savedFile = null;
+        savedDocument = null; // Not closed by the next track()
+        unsavedChanges = new ShapeChanges();
+        return state;
+    }
+
+    /**
+     * Tracks a whiteboard as saved again, after its document was brought back,
+     * see {@link WhiteboardPanel#restoreDocument}.
+     */
+    void restoreSavedState(WhiteboardPanel whiteboard, SavedState state) throws IOException {
+        awaitCompaction();
+        if (savedDocument != null && savedDocument != state.document) {
+            savedDocument.close();
+        }
+        listenTo(whiteboard);
+        savedFile = state.file;
+        savedAttributes = state.attributes;
+        savedDocument = state.document;
+        unsavedChanges = state.unsavedChanges;
+    }
+
+    /**
+     * Closes what a saved state kept open, once the document that replaced it
+     * was loaded.
+     */
+    void discardSavedState(SavedState state) throws IOException {
+        if (state.document != null && state.document != savedDocument) {
+            state.document.close();
+        }
+    }
+
+    /**
+     * Appends shapes of a document being loaded to a tracked whiteboard without
+     * counting them as changes to the document. Other shape change listeners
+     * are notified as usual.
+     */
+    void appendLoadedShapes(WhiteboardPanel whiteboard, List<Shape> shapes) {
+        whiteboard.fireShapeChanges(); // Edits made meanwhile are changes
+        whiteboard.directAppendShapes(shapes);
+        whiteboard.removeShapeChangeListener(unsavedChangeListener);
+        try {
+            whiteboard.fireShapeChanges();
+        } finally {
+            whiteboard.addShapeChangeListener(unsavedChangeListener);
+        }
+    }
+
+    private void track(WhiteboardPanel whiteboard, Path file, BucketedDocument document) throws IOException {
+        BasicFileAttributes attributes = file != null ? Files.readAttributes(file, BasicFileAttributes.class) : null;
+        if (savedDocument != null && savedDocument != document) {
+            savedDocument.close();
+        }
+        savedDocument = document;
+        listenTo(whiteboard);
+        unsavedChanges.clear();
+        savedFile = file;
+        savedAttributes = attributes;
+    }
+
+    private void listenTo(WhiteboardPanel whiteboard) {
+        if (trackedWhiteboard != whiteboard) {
+            if (trackedWhiteboard != null) {
+                trackedWhiteboard.removeShapeChangeListener(unsavedChangeListener);
+            }
+            whiteboard.addShapeChangeListener(unsavedChangeListener);
+            trackedWhiteboard = whiteboard;
+        }
+    }
+
+    private boolean isSavedIn(WhiteboardPanel whiteboard, Path file) throws IOException {
+        if (whiteboard != trackedWhiteboard || savedFile == null || !savedFile.equals(file)
+                || unsavedChanges.isReplaced() || !Files.exists(file)) {
+            return false;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return attributes.size() == savedAttributes.size()
+                && attributes.lastModifiedTime().equals(savedAttributes.lastModifiedTime())
+                && Objects.equals(attributes.fileKey(), savedAttributes.fileKey());
+    }
+
+    private void compactInBackground(Path file) {
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        compaction = compactor.submit(() -> {
+            DocumentWriter.compact(file);
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        });
+    }
+
+    /**
+     * Waits for the file being compacted, if any, so it is not written twice at
+     * once.
+     */
+    private void awaitCompaction() {
+        if (compaction == null) {
+            return;
+        }
+        try {
+            savedAttributes = compaction.get(); // The compacted file holds the same document
+        } catch (ExecutionException e) {
+            // The file keeps its delta segments
+            System.err.println("Compaction failed: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            compaction = null;
+        }
+    }
+
+    /**
+     * Opens a document whose shapes are to be created on demand.
+     *
+     * @return The document, or null if the file is to be read in full.
+     */
+    LazyShapeSource openLazily(Path path) throws IOException {
+        if (BucketedDocument.isBucketed(path)) {
+            return BucketedDocument.open(path); // Reads the bucket directory only
+        }
+        if (Files.size(path) >= lazyLoadThreshold && MappedDocument.isMappable(path)) {
+            return MappedDocument.open(path);
+        }
+        return null;
+    }
+
+    /**
+     * Reads a file saved by earlier versions, which holds a serialized memento.
+     */
+    List<Shape> readLegacyFile(File file) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
             ApplicationMemento memento = (ApplicationMemento) ois.readObject();
-            restore(whiteboard, memento);
+            return memento.getShapes();
         }
     }
 }
@@ -3,7 +3,14 @@ package com.geometriceditor.ui;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.event.ActionEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
@@ -20,20 +27,41 @@ import javax.swing.JScrollPane;
 import javax.swing.KeyStroke;
 import javax.swing.ScrollPaneConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 import com.geometriceditor.command.CommandManager;
+import com.geometriceditor.command.HistorySpill;
 import com.geometriceditor.factory.ShapeFactory;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.state.AutosaveService;
+import com.geometriceditor.state.CommandJournal;
+import com.geometriceditor.state.DocumentLoader;
 import com.geometriceditor.state.StateManager;
 
 public class MainWindow extends JFrame {
     private static final int WIDTH = 800;
     private static final int HEIGHT = 600;
+    // Crash recovery files, kept only while a session runs
+    private static final Path RECOVERY_CHECKPOINT = Paths.get(System.getProperty("user.home"),
+            ".geometric-editor-recovery.bin");
+    private static final Path RECOVERY_JOURNAL = Paths.get(System.getProperty("user.home"),
+            ".geometric-editor-recovery.journal");
+    // Full copy of the document saved in the background, kept after the session
+    private static final File AUTOSAVE_FILE = new File(System.getProperty("user.home"),
+            ".geometric-editor-autosave.bin");
+    // Undo history kept in memory; older commands go to a temporary file
+    private static final int HISTORY_COMMANDS = 1000;
+    private static final long HISTORY_BYTES = 64L * 1024 * 1024;
 
     private WhiteboardPanel whiteboard;
     private ToolbarPanel toolbarPanel;
     private StatusBarPanel statusBarPanel; // Added status bar
     private ShapeFactory shapeFactory;
     private CommandManager commandManager;
+    private final StateManager stateManager = new StateManager(); // Remembers what was saved where
+    private DocumentLoader documentLoader; // Most recent background load
+    private CommandJournal commandJournal; // Null if crash recovery is unavailable
+    private AutosaveService autosaveService;
 
     public MainWindow() {
         // Basic window setup
@@ -52,6 +80,17 @@ public class MainWindow extends JFrame {
         initializeStatusBar(); // Needs whiteboard & command manager
         initializeMenuBar();
 
+        limitHistory();
+        startJournal();
+        // Saves a full copy in the background after edits
+        autosaveService = new AutosaveService(whiteboard, AUTOSAVE_FILE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                endSession();
+            }
+        });
+
         // Center the window
         setLocationRelativeTo(null);
 
@@ -75,7 +114,7 @@ public class MainWindow extends JFrame {
     }
 
     private void initializeStatusBar() {
-        statusBarPanel = new StatusBarPanel(whiteboard, commandManager);
+        statusBarPanel = new StatusBarPanel(whiteboard);
         add(statusBarPanel, BorderLayout.SOUTH); // Add status bar to the bottom
     }
 
@@ -108,6 +147,7 @@ public class MainWindow extends JFrame {
             int confirm = JOptionPane.showConfirmDialog(this, "Are you sure you want to exit?", "Exit",
                     JOptionPane.YES_NO_OPTION);
             if (confirm == JOptionPane.YES_OPTION) {
+                endSession();
                 System.exit(0);
             }
         });
@@ -131,7 +171,10 @@ public class MainWindow extends JFrame {
         JMenuItem propertiesItem = new JMenuItem("Properties");
         propertiesItem.addActionListener(e -> {
             if (whiteboard.getSelectedShapes().size() == 1) {
-                PropertyEditDialog.editShapeProperties(this, whiteboard.getSelectedShapes().get(0));
+                Shape shape = whiteboard.getSelectedShapes().get(0);
+                if (PropertyEditDialog.editShapeProperties(this, shape)) {
+                    whiteboard.shapeEdited(shape);
+                }
             }
         });
 
@@ -190,11 +233,57 @@ public class MainWindow extends JFrame {
         });
     }
 
+    private void limitHistory() {
+        commandManager.setHistoryLimit(HISTORY_COMMANDS, HISTORY_BYTES);
+        try {
+            Path file = Files.createTempFile("geometric-editor-history", ".bin");
+            file.toFile().deleteOnExit();
+            commandManager.setHistorySpill(new HistorySpill(whiteboard, file));
+        } catch (IOException ex) {
+            System.err.println("Old undo history will be forgotten: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Offers to restore the shapes of a session that did not end normally, then
+     * journals every change for the next recovery.
+     */
+    private void startJournal() {
+        try {
+            if (Files.exists(RECOVERY_CHECKPOINT)) {
+                List<Shape> recovered = CommandJournal.recover(RECOVERY_CHECKPOINT, RECOVERY_JOURNAL);
+                if (!recovered.isEmpty() && JOptionPane.showConfirmDialog(this,
+                        "The previous session did not end normally. Restore its " + recovered.size() + " shapes?",
+                        "Recover", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+                    whiteboard.loadShapes(recovered, false);
+                }
+            }
+            commandJournal = new CommandJournal(whiteboard, RECOVERY_CHECKPOINT, RECOVERY_JOURNAL);
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Crash recovery is unavailable: " + ex.getMessage());
+        }
+    }
+
+    private void endSession() {
+        if (autosaveService != null) {
+            autosaveService.close(); // Saves pending changes
+            autosaveService = null;
+        }
+        if (commandJournal != null) {
+            commandJournal.close();
+            commandJournal = null;
+            try {
+                CommandJournal.delete(RECOVERY_CHECKPOINT, RECOVERY_JOURNAL);
+            } catch (IOException ex) {
+                System.err.println("Could not delete recovery files: " + ex.getMessage());
+            }
+        }
+    }
+
     private void saveToFile() {
         JFileChooser fileChooser = new JFileChooser();
         if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
             try {
-                StateManager stateManager = new StateManager();
                 stateManager.saveToFile(whiteboard, fileChooser.getSelectedFile());
             } catch (IOException ex) {
                 JOptionPane.showMessageDialog(this, "Error saving file: " + ex.getMessage());
@@ -203,14 +292,22 @@ public class MainWindow extends JFrame {
     }
 
     private void loadFromFile() {
+        if (documentLoader != null && !documentLoader.isDone()) {
+            JOptionPane.showMessageDialog(this, "A document is still loading.");
+            return;
+        }
         JFileChooser fileChooser = new JFileChooser();
         if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try {
-                StateManager stateManager = new StateManager();
-                stateManager.loadFromFile(whiteboard, fileChooser.getSelectedFile());
-            } catch (IOException | ClassNotFoundException ex) {
-                JOptionPane.showMessageDialog(this, "Error loading file: " + ex.getMessage());
-            }
+            // Decoded off the event dispatch thread; shapes appear as they arrive
+            DocumentLoader loader = stateManager.loadFromFileInBackground(whiteboard, fileChooser.getSelectedFile());
+            loader.addPropertyChangeListener(event -> {
+                if (event.getNewValue() == SwingWorker.StateValue.DONE && loader.getFailure() != null) {
+                    JOptionPane.showMessageDialog(this, "Error loading file: " + loader.getFailure().getMessage());
+                }
+            });
+            statusBarPanel.showProgress("Loading " + loader.getFile().getName(), loader);
+            documentLoader = loader;
+            loader.execute();
         }
     }
 
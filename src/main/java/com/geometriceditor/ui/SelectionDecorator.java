@@ -20,6 +20,8 @@ public class SelectionDecorator {
             1,
             new float[] { 5 },
             0);
+    // Half the stroke width, plus a pixel of antialiasing
+    private static final int STROKE_MARGIN = 2;
 
     public SelectionDecorator(Shape shape) {
         this.decoratedShape = shape;
@@ -89,6 +91,48 @@ public class SelectionDecorator {
         g2d.setStroke(originalStroke);
     }
 
+    /**
+     * Returns the area {@link #drawSelection} paints, so repaints can cover
+     * decorations reaching outside the shape's bounds, e.g. the circle around
+     * a polygon, which encloses its vertices in every orientation.
+     *
+     * @return The area in whiteboard coordinates, or null if nothing is drawn
+     */
+    public java.awt.Rectangle getPaintBounds() {
+        java.awt.Rectangle outline;
+        if (decoratedShape instanceof Rectangle) {
+            if (decoratedShape.getParent() != null) {
+                return null;
+            }
+            Rectangle rect = (Rectangle) decoratedShape;
+            outline = new java.awt.Rectangle(
+                    rect.getPosition().x - 3,
+                    rect.getPosition().y - 3,
+                    rect.getWidth() + 6,
+                    rect.getHeight() + 6);
+        } else if (decoratedShape instanceof RegularPolygon) {
+            RegularPolygon poly = (RegularPolygon) decoratedShape;
+            int radius = poly.getRadius();
+            // Encloses the small circle at the center too
+            outline = new java.awt.Rectangle(
+                    poly.getPosition().x - radius - 3,
+                    poly.getPosition().y - radius - 3,
+                    radius * 2 + 6,
+                    radius * 2 + 6);
+        } else {
+            return null;
+        }
+
+        float rotation = decoratedShape.getRotation();
+        if (rotation != 0) {
+            Point center = decoratedShape.getGeometricCenter();
+            outline = AffineTransform.getRotateInstance(Math.toRadians(rotation), center.x, center.y)
+                    .createTransformedShape(outline).getBounds();
+        }
+        outline.grow(STROKE_MARGIN, STROKE_MARGIN);
+        return outline;
+    }
+
     public Shape getDecoratedShape() {
         return decoratedShape;
     }
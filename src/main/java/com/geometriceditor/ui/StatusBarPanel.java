@@ -3,32 +3,37 @@ package com.geometriceditor.ui;
 import java.awt.FlowLayout;
 import java.util.Objects;
 
+import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JSeparator;
 import javax.swing.SwingConstants;
+import javax.swing.SwingWorker;
 
-import com.geometriceditor.command.CommandExecutionListener;
-import com.geometriceditor.command.CommandManager;
-import com.geometriceditor.model.Rectangle;
-import com.geometriceditor.model.RegularPolygon;
-import com.geometriceditor.model.Shape;
-import com.geometriceditor.model.ShapeGroup;
+import com.geometriceditor.model.DocumentStatistics;
+import com.geometriceditor.model.ShapeChangeEvent;
+import com.geometriceditor.model.ShapeChangeListener;
 
 /**
- * A status bar panel to display information like shape counts.
- * It listens to CommandManager to update counts after operations.
+ * A status bar panel to display information like shape counts and the
+ * progress of a background task.
+ * It shows the whiteboard's document statistics after every shape change.
  */
-public class StatusBarPanel extends JPanel implements CommandExecutionListener {
+public class StatusBarPanel extends JPanel implements ShapeChangeListener {
 
     private final WhiteboardPanel whiteboard;
     private final JLabel rectangleCountLabel;
     private final JLabel polygonCountLabel;
     private final JLabel totalCountLabel;
+    private final JLabel taskLabel;
+    private final JProgressBar taskProgressBar;
+    private final JButton taskCancelButton;
+    private SwingWorker<?, ?> task; // Task whose progress is shown, null if none
 
-    public StatusBarPanel(WhiteboardPanel whiteboard, CommandManager commandManager) {
+    public StatusBarPanel(WhiteboardPanel whiteboard) {
         this.whiteboard = Objects.requireNonNull(whiteboard, "Whiteboard cannot be null");
-        Objects.requireNonNull(commandManager, "CommandManager cannot be null").addListener(this);
+        whiteboard.addShapeChangeListener(this);
 
         setLayout(new FlowLayout(FlowLayout.LEFT));
 
@@ -42,70 +47,70 @@ public class StatusBarPanel extends JPanel implements CommandExecutionListener {
         add(new JSeparator(SwingConstants.VERTICAL));
         add(totalCountLabel);
 
+        // Background task progress, hidden when no task runs
+        taskLabel = new JLabel();
+        taskProgressBar = new JProgressBar(0, 100);
+        taskCancelButton = new JButton("Cancel");
+        taskCancelButton.addActionListener(e -> {
+            if (task != null) {
+                task.cancel(true);
+            }
+        });
+        add(taskLabel);
+        add(taskProgressBar);
+        add(taskCancelButton);
+        setTaskVisible(false);
+
         updateCounts(); // Initial count
     }
 
     /**
-     * Updates the counts displayed on the status bar by iterating
-     * through the shapes on the whiteboard. Handles ShapeGroups recursively.
+     * Shows the counts of the whiteboard's document statistics, which are
+     * maintained as shapes change.
      */
     public void updateCounts() {
-        int rectCount = 0;
-        int polyCount = 0;
-        int totalCount = 0;
-
-        // Use the whiteboard's iterator
-        for (Shape shape : whiteboard) {
-            ShapeCounter counter = countShapesRecursive(shape);
-            rectCount += counter.rectangles;
-            polyCount += counter.polygons;
-            totalCount += counter.total;
-        }
-
-        rectangleCountLabel.setText("Rectangles: " + rectCount);
-        polygonCountLabel.setText("Polygons: " + polyCount);
-        totalCountLabel.setText("Total: " + totalCount);
+        DocumentStatistics statistics = whiteboard.getStatistics();
+        rectangleCountLabel.setText("Rectangles: " + statistics.getRectangleCount());
+        polygonCountLabel.setText("Polygons: " + statistics.getPolygonCount());
+        totalCountLabel.setText("Total: " + statistics.getShapeCount());
     }
 
     /**
-     * Helper method to recursively count shapes within a shape (handling groups).
+     * Shows the progress of a background task, with a button cancelling it,
+     * until the task is done.
+     *
+     * @param label A short description of the task.
+     * @param task  The task, which reports progress from 0 to 100.
      */
-    private ShapeCounter countShapesRecursive(Shape shape) {
-        ShapeCounter counter = new ShapeCounter();
-        if (shape instanceof Rectangle) {
-            counter.rectangles = 1;
-            counter.total = 1;
-        } else if (shape instanceof RegularPolygon) {
-            counter.polygons = 1;
-            counter.total = 1;
-        } else if (shape instanceof ShapeGroup) {
-            // Recursively count shapes within the group
-            for (Shape child : (ShapeGroup) shape) { // Use ShapeGroup's iterator
-                ShapeCounter childCounter = countShapesRecursive(child);
-                counter.rectangles += childCounter.rectangles;
-                counter.polygons += childCounter.polygons;
-                counter.total += childCounter.total;
+    public void showProgress(String label, SwingWorker<?, ?> task) {
+        this.task = task;
+        taskLabel.setText(label);
+        taskProgressBar.setValue(task.getProgress());
+        setTaskVisible(true);
+        task.addPropertyChangeListener(event -> {
+            if (this.task != task) {
+                return; // Superseded by another task
+            }
+            if ("progress".equals(event.getPropertyName())) {
+                taskProgressBar.setValue((Integer) event.getNewValue());
+            } else if (task.isDone()) {
+                this.task = null;
+                setTaskVisible(false);
             }
-        }
-        // Ignore other potential shape types for now
-        return counter;
+        });
     }
 
-    /**
-     * Called by CommandManager after a command is executed, undone, or redone.
-     */
-    @Override
-    public void commandExecuted() {
-        // Update the counts when the model might have changed
-        updateCounts();
+    private void setTaskVisible(boolean visible) {
+        taskLabel.setVisible(visible);
+        taskProgressBar.setVisible(visible);
+        taskCancelButton.setVisible(visible);
     }
 
     /**
-     * Helper class to hold counts during recursion.
+     * Called by the whiteboard once its statistics include the changes.
      */
-    private static class ShapeCounter {
-        int rectangles = 0;
-        int polygons = 0;
-        int total = 0;
+    @Override
+    public void shapesChanged(ShapeChangeEvent event) {
+        updateCounts();
     }
 }
@@ -123,11 +123,8 @@ public class ToolbarPanel extends JToolBar {
         rotationSlider.setMinorTickSpacing(15);
         rotationSlider.setPaintTicks(true);
         rotationSlider.setPaintLabels(true);
-        rotationSlider.addChangeListener(e -> {
-            if (!rotationSlider.getValueIsAdjusting()) {
-                rotateSelectedShapesTo(rotationSlider.getValue());
-            }
-        });
+        // Rotates while dragging; the steps are merged into one history entry
+        rotationSlider.addChangeListener(e -> rotateSelectedShapesTo(rotationSlider.getValue()));
         add(rotationSlider);
 
     }
@@ -260,7 +257,7 @@ public class ToolbarPanel extends JToolBar {
                 (JFrame) SwingUtilities.getWindowAncestor(this), shape);
 
         if (confirmed) {
-            whiteboard.repaint();
+            whiteboard.shapeEdited(shape);
         }
     }
 
@@ -21,7 +21,7 @@ public class TransferableShapeList implements Transferable {
 
     private static final DataFlavor[] SUPPORTED_FLAVORS = { SHAPE_ID_LIST_FLAVOR, DRAG_START_POINT_FLAVOR };
 
-    private final List<String> shapeIds;
+    private final List<Long> shapeIds;
     private final Point startPoint; // Added start point
 
     /**
@@ -31,7 +31,7 @@ public class TransferableShapeList implements Transferable {
      *                   transferred.
      * @param startPoint The point where the drag started on the source component.
      */
-    public TransferableShapeList(List<String> shapeIds, Point startPoint) {
+    public TransferableShapeList(List<Long> shapeIds, Point startPoint) {
         this.shapeIds = new ArrayList<>(shapeIds); // Store copies
         this.startPoint = (Point) startPoint.clone(); // Store clone
     }
@@ -2,11 +2,14 @@ package com.geometriceditor.ui;
 
 import java.awt.BasicStroke;
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.awt.datatransfer.Transferable;
 import java.awt.datatransfer.UnsupportedFlavorException;
 import java.awt.event.ActionEvent;
@@ -17,10 +20,15 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections; // Added
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator; // Added
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import javax.swing.AbstractAction;
 import javax.swing.JFrame;
@@ -37,25 +45,50 @@ import com.geometriceditor.command.CommandManager;
 import com.geometriceditor.command.CompositeCommand;
 import com.geometriceditor.command.GroupCommand;
 import com.geometriceditor.command.MoveCommand;
+import com.geometriceditor.command.ReplaceShapesCommand;
 import com.geometriceditor.command.RotateCommand; // Import the new command
 import com.geometriceditor.command.UngroupCommand;
 import com.geometriceditor.factory.ShapeFactory;
+import com.geometriceditor.model.DocumentStatistics;
+import com.geometriceditor.model.LazyShapeSource;
 import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeChangeEvent;
+import com.geometriceditor.model.ShapeChangeListener;
+import com.geometriceditor.model.ShapeChanges;
 import com.geometriceditor.model.ShapeGroup;
+import com.geometriceditor.model.SpatialIndex;
 import com.geometriceditor.rendering.AWTRenderer;
 import com.geometriceditor.rendering.ShapeRenderer;
+import com.geometriceditor.rendering.TileCache;
+import com.geometriceditor.visitor.CullingDrawVisitor;
 
 // Implement the listener interface and Iterable
 public class WhiteboardPanel extends JPanel implements CommandExecutionListener, Iterable<Shape> {
     // Constants
     private static final Color SELECTION_COLOR = new Color(0, 120, 215);
     private static final Color SELECTION_FILL = new Color(0, 120, 215, 50);
+    // Strokes and antialiasing paint slightly outside a shape's bounds
+    private static final int PAINT_MARGIN = 2;
+    private static final int ROTATION_MARKER_RADIUS = 4;
+    private static final long DEFAULT_TILE_CACHE_BYTES = 64L * 1024 * 1024;
 
     // State fields
     private final List<Shape> shapes = new ArrayList<>();
     private final List<Shape> selectedShapes = new ArrayList<>();
+    private final SpatialIndex spatialIndex = new SpatialIndex(); // Bounds of top-level shapes
+    private final Map<Long, Shape> shapesById = new HashMap<>(); // Top-level shapes by id
+    private final List<ShapeChangeListener> shapeChangeListeners = new ArrayList<>();
+    private final ShapeChangeEvent.Builder pendingChanges = new ShapeChangeEvent.Builder(); // Since the last event
+    private final DocumentStatistics statistics = new DocumentStatistics(); // Updated once per event
+    // Shapes of a lazily loaded document not created yet, null when there are none
+    private LazyShapeSource lazyShapes;
+    private long lazyStackingBase; // Stacking position of the lazy document's first shape
+    private Dimension lazyExtent = new Dimension(); // Lower-right corner of the lazy document, to scroll to
+    private boolean loadedLazily = false; // The document came from a lazy source, pending or not
+    private ShapeChanges changesSinceLoaded = new ShapeChanges(); // Recorded while loadedLazily
     private final CommandManager commandManager; // Now passed in
     private final ShapeRenderer shapeRenderer = new AWTRenderer();
+    private final TileCache tileCache = new TileCache(DEFAULT_TILE_CACHE_BYTES); // Rasterized shapes
     private final ShapeFactory shapeFactory;
 
     // UI interaction fields
@@ -76,6 +109,17 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
     private Point rotationCenterDragStart;
     private boolean isDraggingRotationCenter = false;
 
+    // Layered drag: unselected shapes frozen into an image while the selection moves
+    private BufferedImage dragBackground;
+    private java.awt.Rectangle dragBackgroundArea;
+
+    // Where selection decorations were last painted, or null for nowhere
+    private java.awt.Rectangle paintedSelectionArea;
+
+    // Culling statistics of the last painted frame
+    private int lastFrameDrawnCount = 0;
+    private int lastFrameCulledCount = 0;
+
     // ==================== CONSTRUCTOR ====================
     // Accept CommandManager as well
     public WhiteboardPanel(ShapeFactory shapeFactory, CommandManager commandManager) {
@@ -117,14 +161,324 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
         }
     }
 
+    /**
+     * Replaces every shape with a loaded document in a single operation: the
+     * shapes are inserted in one pass, the indices are built once and listeners
+     * are notified once.
+     *
+     * @param newShapes The top-level shapes, bottom-most first.
+     * @param undoable  true to record the load as one undoable command, false to
+     *                  clear the undo history instead.
+     */
+    public void loadShapes(List<Shape> newShapes, boolean undoable) {
+        if (undoable) {
+            commandManager.executeCommand(new ReplaceShapesCommand(this, newShapes));
+        } else {
+            directReplaceShapes(newShapes);
+            commandManager.clearHistory(); // Notifies listeners
+        }
+    }
+
+    /**
+     * Replaces every shape with a document whose shapes are created on demand:
+     * only those in the painted area, under the pointer or inside a selection
+     * rectangle are created, until an operation needs the whole document (see
+     * {@link #getShapes()}). Scrolling to the rest of the document creates
+     * it as it comes into view. Clears the undo history.
+     *
+     * @param source The document's shapes.
+     */
+    public void loadLazily(LazyShapeSource source) {
+        directReplaceShapes(Collections.emptyList());
+        lazyStackingBase = spatialIndex.reserveStackingPositions(source.size());
+        lazyShapes = source.getPendingCount() > 0 ? source : null;
+        loadedLazily = true;
+        java.awt.Rectangle bounds = source.getBounds();
+        lazyExtent = new Dimension(Math.max(0, bounds.x + bounds.width), Math.max(0, bounds.y + bounds.height));
+        revalidate(); // Lets an enclosing scroll pane reach the whole document
+        commandManager.clearHistory(); // Notifies listeners
+    }
+
+    /**
+     * Large enough to scroll to every shape of a lazily loaded document,
+     * created or not.
+     */
+    @Override
+    public Dimension getPreferredSize() {
+        Dimension size = super.getPreferredSize();
+        if (isPreferredSizeSet()) {
+            return size;
+        }
+        return new Dimension(Math.max(size.width, lazyExtent.width), Math.max(size.height, lazyExtent.height));
+    }
+
+    /**
+     * @return The source of the shapes of a lazily loaded document not created
+     *         yet, or null if every shape exists.
+     */
+    public LazyShapeSource getLazyShapeSource() {
+        return lazyShapes;
+    }
+
+    /**
+     * Returns the changes to the top-level shapes since a lazily loaded
+     * document was loaded, as of the last shape change event, so that a copy
+     * of its {@link #getLazyShapeSource() source} can be brought up to date
+     * without creating the pending shapes. Empty unless the document was
+     * loaded lazily.
+     *
+     * @return The changes; must not be modified.
+     */
+    public ShapeChanges getChangesSinceLoaded() {
+        return changesSinceLoaded;
+    }
+
+    /**
+     * The document on a whiteboard, captured by {@link #captureDocument()} to
+     * be put back with {@link #restoreDocument}.
+     */
+    public static final class DocumentState {
+        private final List<Shape> shapes;
+        private final long[] stackingPositions;
+        private final LazyShapeSource lazyShapes;
+        private final long lazyStackingBase;
+        private final Dimension lazyExtent;
+        private final boolean loadedLazily;
+        private final ShapeChanges changesSinceLoaded;
+
+        private DocumentState(WhiteboardPanel whiteboard) {
+            shapes = new ArrayList<>(whiteboard.shapes);
+            stackingPositions = new long[shapes.size()];
+            for (int i = 0; i < shapes.size(); i++) {
+                stackingPositions[i] = whiteboard.spatialIndex.getStackingPosition(shapes.get(i));
+            }
+            lazyShapes = whiteboard.lazyShapes;
+            lazyStackingBase = whiteboard.lazyStackingBase;
+            lazyExtent = whiteboard.lazyExtent;
+            loadedLazily = whiteboard.loadedLazily;
+            changesSinceLoaded = whiteboard.changesSinceLoaded;
+        }
+    }
+
+    /**
+     * Captures the document, e.g. to bring it back if loading another one is
+     * cancelled, without creating the pending shapes of a lazily loaded
+     * document. Proportional to the number of created shapes. The document
+     * must be replaced right after, so that its shapes are not edited.
+     */
+    public DocumentState captureDocument() {
+        fireShapeChanges(); // Part of the changes since the document was loaded
+        return new DocumentState(this);
+    }
+
+    /**
+     * Replaces every shape with a document captured earlier, in the state it
+     * was captured in; pending shapes of a lazily loaded document stay
+     * pending. Clears the undo history.
+     */
+    public void restoreDocument(DocumentState document) {
+        directReplaceShapes(Collections.emptyList());
+        lazyShapes = document.lazyShapes;
+        lazyStackingBase = document.lazyStackingBase;
+        lazyExtent = document.lazyExtent;
+        loadedLazily = document.loadedLazily;
+        changesSinceLoaded = document.changesSinceLoaded;
+        for (int i = 0; i < document.shapes.size(); i++) {
+            Shape shape = document.shapes.get(i);
+            shapes.add(shape);
+            shapesById.put(shape.getId(), shape);
+            spatialIndex.insertAt(shape, getShapeBounds(shape), document.stackingPositions[i]);
+        }
+        revalidate();
+        commandManager.clearHistory(); // Notifies listeners
+    }
+
+    /**
+     * Starts notifying a listener of the changes to the top-level shapes, once
+     * per command or transaction, and once per batch of direct edits published
+     * with {@link #fireShapeChanges()}. Creating the pending shapes of a lazily
+     * loaded document is not a change.
+     */
+    public void addShapeChangeListener(ShapeChangeListener listener) {
+        if (listener != null && !shapeChangeListeners.contains(listener)) {
+            shapeChangeListeners.add(listener);
+        }
+    }
+
+    public void removeShapeChangeListener(ShapeChangeListener listener) {
+        shapeChangeListeners.remove(listener);
+    }
+
+    /**
+     * Returns the statistics of the document, up to date as of the last shape
+     * change event, e.g. for the status bar or for monitoring.
+     */
+    public DocumentStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Repaints where shapes changed since the last event, updates the
+     * statistics and notifies the shape change listeners. Called after every
+     * command; call after direct edits made outside commands.
+     *
+     * @return false if nothing changed.
+     */
+    public boolean fireShapeChanges() {
+        if (pendingChanges.isEmpty()) {
+            return false;
+        }
+        ShapeChangeEvent event = pendingChanges.build();
+        if (event.isReplaced()) {
+            statistics.reset(shapes, lazyShapes);
+        } else {
+            statistics.apply(event);
+            if (loadedLazily) {
+                changesSinceLoaded.record(event);
+            }
+        }
+        java.awt.Rectangle area = event.getAffectedArea();
+        if (area != null) {
+            repaintArea(area);
+            repaintSelection(); // Decorations of changed shapes reach outside the area
+        } else {
+            tileCache.invalidateAll();
+            repaint();
+        }
+        for (ShapeChangeListener listener : new ArrayList<>(shapeChangeListeners)) {
+            listener.shapesChanged(event);
+        }
+        return true;
+    }
+
+    /**
+     * Creates the pending shapes of a lazily loaded document that intersect an
+     * area.
+     */
+    private void materializeArea(java.awt.Rectangle area) {
+        if (lazyShapes != null) {
+            lazyShapes.materialize(area, this::addMaterializedShape);
+            if (lazyShapes.getPendingCount() == 0) {
+                lazyShapes = null;
+            }
+        }
+    }
+
+    /**
+     * Creates every pending shape, restoring the stacking order of the shape
+     * list.
+     */
+    private void materializeAll() {
+        if (lazyShapes != null) {
+            lazyShapes.materializeAll(this::addMaterializedShape);
+            lazyShapes = null;
+            // Created shapes were appended out of order; the index knows the stacking order
+            shapes.sort(java.util.Comparator.comparingLong(spatialIndex::getStackingPosition));
+        }
+    }
+
+    private void addMaterializedShape(Shape shape, int stackingPosition) {
+        shapes.add(shape);
+        shapesById.put(shape.getId(), shape);
+        statistics.add(shape); // No longer pending
+        spatialIndex.insertAt(shape, getShapeBounds(shape), lazyStackingBase + stackingPosition);
+    }
+
     public void directAddShape(Shape shape) {
         shapes.add(shape);
-        repaint();
+        shapesById.put(shape.getId(), shape);
+        pendingChanges.recordAdded(shape);
+        spatialIndex.insert(shape, getShapeBounds(shape));
+        invalidateScene(getShapeBounds(shape));
+        repaintArea(getShapeBounds(shape));
+    }
+
+    /**
+     * Adds shapes on top of the current ones and repaints where they landed,
+     * e.g. a chunk of a document arriving from a background load. Listeners
+     * are not notified, see {@link #fireShapeChanges()}.
+     *
+     * @param loaded Top-level shapes, bottom-most first.
+     */
+    public void directAppendShapes(List<Shape> loaded) {
+        java.awt.Rectangle area = null;
+        for (Shape shape : loaded) {
+            shapesById.put(shape.getId(), shape);
+            pendingChanges.recordAdded(shape);
+            area = union(area, getShapeBounds(shape));
+        }
+        shapes.addAll(loaded);
+        spatialIndex.insertAll(loaded, this::getShapeBounds);
+        invalidateScene(area);
+        repaintArea(area);
     }
 
     public void directRemoveShape(Shape shape) {
         shapes.remove(shape);
-        repaint();
+        shapesById.remove(shape.getId());
+        pendingChanges.recordRemoved(shape);
+        spatialIndex.remove(shape);
+        invalidateScene(getShapeBounds(shape));
+        repaintArea(getShapeBounds(shape));
+    }
+
+    /**
+     * Refreshes the spatial index after shapes changed geometry (moved, rotated,
+     * resized). Shapes nested in groups update the top-level shape containing them.
+     * No repaint.
+     *
+     * @param changedShapes The shapes whose bounds may have changed.
+     */
+    public void directUpdateShapes(Collection<Shape> changedShapes) {
+        invalidateScene(updateIndex(changedShapes));
+    }
+
+    /**
+     * Moves the index entries of changed shapes to their current bounds.
+     *
+     * @return The union of the old and new bounds, or null if nothing is indexed.
+     */
+    private java.awt.Rectangle updateIndex(Collection<Shape> changedShapes) {
+        java.awt.Rectangle changedArea = null;
+        for (Shape shape : changedShapes) {
+            Shape topLevel = shape;
+            while (topLevel != null && !spatialIndex.contains(topLevel)) {
+                topLevel = topLevel.getParent();
+            }
+            if (topLevel != null) {
+                pendingChanges.recordModified(topLevel);
+                java.awt.Rectangle oldBounds = spatialIndex.getBounds(topLevel);
+                java.awt.Rectangle newBounds = getShapeBounds(topLevel);
+                spatialIndex.update(topLevel, newBounds);
+                changedArea = union(changedArea, union(oldBounds, newBounds));
+            }
+        }
+        return changedArea;
+    }
+
+    /**
+     * Replaces every shape and clears the selection, rebuilding the indices in
+     * one pass. No repaint.
+     *
+     * @param newShapes The top-level shapes, bottom-most first.
+     */
+    public void directReplaceShapes(List<Shape> newShapes) {
+        pendingChanges.recordReplaced();
+        lazyShapes = null;
+        lazyExtent = new Dimension();
+        loadedLazily = false;
+        changesSinceLoaded = new ShapeChanges(); // Not cleared: a captured document may hold it
+        shapes.clear();
+        shapesById.clear();
+        selectedShapes.clear();
+        spatialIndex.clear();
+        tileCache.invalidateAll();
+
+        shapes.addAll(newShapes);
+        for (Shape shape : newShapes) {
+            shapesById.put(shape.getId(), shape);
+        }
+        spatialIndex.insertAll(newShapes, this::getShapeBounds);
     }
 
     public void directDeselectShape(Shape shape) {
@@ -153,6 +507,12 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
         shapesToGroup.forEach(group::addShape);
         shapes.removeAll(shapesToGroup);
         shapes.add(group);
+        shapesToGroup.forEach(shape -> shapesById.remove(shape.getId()));
+        shapesById.put(group.getId(), group);
+        recordRegrouped(shapesToGroup, group);
+        shapesToGroup.forEach(spatialIndex::remove);
+        spatialIndex.insert(group, getShapeBounds(group));
+        invalidateScene(getShapeBounds(group)); // Members now stack on top
         selectedShapes.removeAll(shapesToGroup); // Deselect originals
         // No repaint
         return group;
@@ -160,47 +520,135 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
 
     public List<Shape> directUngroupShape(ShapeGroup group) {
         List<Shape> children = group.getShapes();
+        children.forEach(child -> child.setParent(null)); // Children are top-level again
         shapes.addAll(children);
         shapes.remove(group);
+        shapesById.remove(group.getId());
+        children.forEach(child -> shapesById.put(child.getId(), child));
+        pendingChanges.recordRemoved(group);
+        children.forEach(pendingChanges::recordAdded);
+        spatialIndex.remove(group);
+        children.forEach(child -> spatialIndex.insert(child, getShapeBounds(child)));
+        invalidateScene(getShapeBounds(group));
         selectedShapes.remove(group); // Deselect group
         // No repaint
         return children;
     }
 
+    private void recordRegrouped(List<Shape> members, ShapeGroup group) {
+        members.forEach(pendingChanges::recordRemoved);
+        pendingChanges.recordAdded(group);
+    }
+
     public void directRegroupShapes(List<Shape> children, ShapeGroup originalGroup) {
         // Assumes children were added back by directUngroupShape's undo
+        children.forEach(child -> child.setParent(originalGroup));
+        originalGroup.invalidateBounds(); // Children may have changed while ungrouped
         shapes.removeAll(children);
         shapes.add(originalGroup);
+        children.forEach(child -> shapesById.remove(child.getId()));
+        shapesById.put(originalGroup.getId(), originalGroup);
+        recordRegrouped(children, originalGroup);
+        children.forEach(spatialIndex::remove);
+        spatialIndex.insert(originalGroup, getShapeBounds(originalGroup));
+        invalidateScene(getShapeBounds(originalGroup));
         selectedShapes.removeAll(children); // Deselect children
         // No repaint
     }
 
+    /**
+     * Call after a shape was edited outside the command system (e.g. through the
+     * property dialog) so the spatial index follows it, then repaints.
+     *
+     * @param shape The edited shape.
+     */
+    public void shapeEdited(Shape shape) {
+        directUpdateShapes(List.of(shape));
+        fireShapeChanges(); // Repaints
+    }
+
+    /**
+     * Returns every top-level shape, bottom-most first. Creates the pending
+     * shapes of a lazily loaded document.
+     */
     public List<Shape> getShapes() {
+        materializeAll();
         return new ArrayList<>(shapes);
     }
 
+    /**
+     * Returns the top-level shapes created so far, without creating the pending
+     * shapes of a lazily loaded document. While shapes are pending the order is
+     * unspecified.
+     *
+     * @return An unmodifiable view.
+     */
+    public List<Shape> getCreatedShapes() {
+        return Collections.unmodifiableList(shapes);
+    }
+
+    /**
+     * @return How many rectangles of a lazily loaded document were not created
+     *         yet, including those nested in groups.
+     */
+    public int getPendingRectangleCount() {
+        return lazyShapes != null ? lazyShapes.getPendingRectangleCount() : 0;
+    }
+
+    /**
+     * @return How many polygons of a lazily loaded document were not created
+     *         yet, including those nested in groups.
+     */
+    public int getPendingPolygonCount() {
+        return lazyShapes != null ? lazyShapes.getPendingPolygonCount() : 0;
+    }
+
+    /**
+     * Looks up a top-level shape by id in constant time. Shapes nested in
+     * groups are reached through their group.
+     *
+     * @param id The shape id.
+     * @return The shape, or null if no top-level shape has this id.
+     */
+    public Shape getShapeById(long id) {
+        return shapesById.get(id);
+    }
+
     public void clearShapes() {
+        pendingChanges.recordReplaced();
+        lazyShapes = null;
+        lazyExtent = new Dimension();
+        loadedLazily = false;
+        changesSinceLoaded = new ShapeChanges(); // Not cleared: a captured document may hold it
         shapes.clear();
+        shapesById.clear();
+        spatialIndex.clear();
+        tileCache.invalidateAll();
         selectedShapes.clear();
-        repaint();
+        fireShapeChanges(); // Repaints
     }
 
     // ==================== SELECTION MANAGEMENT ====================
     public void selectAll() {
+        materializeAll();
         selectedShapes.clear();
         selectedShapes.addAll(shapes);
         repaint();
     }
 
     public void deselectAll() {
+        repaintArea(getSelectionPaintArea());
         selectedShapes.clear();
-        repaint();
     }
 
     public void deleteSelected() {
+        invalidateScene(getSelectionArea());
         shapes.removeAll(selectedShapes);
+        selectedShapes.forEach(shape -> shapesById.remove(shape.getId()));
+        selectedShapes.forEach(pendingChanges::recordRemoved);
+        selectedShapes.forEach(spatialIndex::remove);
         selectedShapes.clear();
-        repaint();
+        fireShapeChanges(); // Repaints
     }
 
     public void groupSelected() {
@@ -233,7 +681,7 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
         if (!selectedShapes.isEmpty()) {
             // Explicitly pass a new list copy to the command constructor
             List<Shape> shapesToRotate = new ArrayList<>(selectedShapes);
-            RotateCommand rotateCmd = new RotateCommand(shapesToRotate, degrees);
+            RotateCommand rotateCmd = new RotateCommand(this, shapesToRotate, (float) degrees);
             commandManager.executeCommand(rotateCmd);
             // repaint(); // REMOVED: Handled by listener notification
         }
@@ -243,7 +691,7 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
         if (!selectedShapes.isEmpty()) {
             // Explicitly pass a new list copy to the command constructor
             List<Shape> shapesToRotate = new ArrayList<>(selectedShapes);
-            RotateCommand rotateCmd = new RotateCommand(shapesToRotate, degrees);
+            RotateCommand rotateCmd = new RotateCommand(this, shapesToRotate, degrees);
             commandManager.executeCommand(rotateCmd);
             // repaint(); // REMOVED: Handled by listener notification
         }
@@ -263,6 +711,14 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
         // repaint(); // REMOVED: Handled by listener notification
     }
 
+    /**
+     * Forgets every command that could be undone or redone, e.g. once a
+     * document loaded in the background is complete.
+     */
+    public void clearHistory() {
+        commandManager.clearHistory(); // Notifies listeners
+    }
+
     // ==================== RENDERING ====================
     @Override
     protected void paintComponent(Graphics g) {
@@ -276,11 +732,97 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
             drawGrid(g2d);
         }
 
-        renderShapes(g2d);
+        lastFrameDrawnCount = 0;
+        lastFrameCulledCount = 0;
+        if (dragBackground != null) {
+            paintDragLayers(g2d);
+        } else if (isTileCacheUsable(g2d)) {
+            // Shapes come from cached tiles; only selections are drawn live
+            java.awt.Rectangle clip = g2d.getClipBounds();
+            if (clip == null) {
+                clip = new java.awt.Rectangle(0, 0, getWidth(), getHeight());
+            }
+            tileCache.paint(g2d, clip, (tileGraphics, area) -> renderShapes(tileGraphics, null));
+        } else {
+            renderShapes(g2d, null);
+        }
         renderSelections(g2d);
         renderSelectionRectangle(g2d);
     }
 
+    /**
+     * Freezes every unselected shape in the visible area into a background image,
+     * so dragging only redraws the moving selection. The dragged shapes are drawn
+     * above all others until the drag ends.
+     */
+    private void beginLayeredDrag() {
+        dragBackgroundArea = getVisibleRect();
+        if (dragBackgroundArea.isEmpty()) {
+            dragBackground = null;
+            return;
+        }
+        dragBackground = new BufferedImage(dragBackgroundArea.width, dragBackgroundArea.height,
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = dragBackground.createGraphics();
+        try {
+            enableAntialiasing(g);
+            g.translate(-dragBackgroundArea.x, -dragBackgroundArea.y);
+            g.setClip(dragBackgroundArea);
+            renderShapes(g, new HashSet<>(selectedShapes));
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private void endLayeredDrag() {
+        if (dragBackground != null) {
+            dragBackground = null;
+            dragBackgroundArea = null;
+            // The selection goes back to its place in the stacking order
+            repaintArea(getSelectionPaintArea());
+        }
+    }
+
+    private void paintDragLayers(Graphics2D g2d) {
+        java.awt.Rectangle clip = g2d.getClipBounds();
+        if (clip != null && !dragBackgroundArea.contains(clip)) {
+            beginLayeredDrag(); // Scrolled while dragging
+            if (dragBackground == null) {
+                return;
+            }
+        }
+        g2d.drawImage(dragBackground, dragBackgroundArea.x, dragBackgroundArea.y, null);
+
+        java.awt.Rectangle cullArea = clip != null ? clip : new java.awt.Rectangle(dragBackgroundArea);
+        cullArea.grow(PAINT_MARGIN, PAINT_MARGIN);
+        CullingDrawVisitor visitor = new CullingDrawVisitor(g2d, shapeRenderer, cullArea);
+        for (Shape shape : selectedShapes) {
+            shape.accept(visitor);
+        }
+        lastFrameDrawnCount += visitor.getDrawnCount();
+    }
+
+    // Tiles are rasterized at 1:1, so they are only blitted under plain translations
+    private boolean isTileCacheUsable(Graphics2D g2d) {
+        return tileCache.getMaxBytes() > 0
+                && (g2d.getTransform().getType() & ~AffineTransform.TYPE_TRANSLATION) == 0;
+    }
+
+    /**
+     * Drops cached tiles whose content changed because shapes inside the area
+     * were added, removed or modified.
+     *
+     * @param area The changed area in whiteboard coordinates, or null for none.
+     */
+    private void invalidateScene(java.awt.Rectangle area) {
+        pendingChanges.recordArea(area);
+        if (area != null) {
+            java.awt.Rectangle grown = new java.awt.Rectangle(area);
+            grown.grow(PAINT_MARGIN, PAINT_MARGIN);
+            tileCache.invalidate(grown);
+        }
+    }
+
     private void drawGrid(Graphics2D g2d) {
         Color oldColor = g2d.getColor();
         Stroke oldStroke = g2d.getStroke();
@@ -310,11 +852,83 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
         g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
     }
 
-    private void renderShapes(Graphics2D g2d) {
-        // Use the iterator implicitly via enhanced for-loop
-        for (Shape shape : this) { // 'this' is iterable now
-            shape.draw(g2d, shapeRenderer);
+    private void renderShapes(Graphics2D g2d, Set<Shape> hiddenShapes) {
+        java.awt.Rectangle cullArea = g2d.getClipBounds();
+        if (cullArea == null) {
+            cullArea = new java.awt.Rectangle(0, 0, getWidth(), getHeight());
+        }
+        cullArea.grow(PAINT_MARGIN, PAINT_MARGIN);
+
+        // Only top-level shapes intersecting the clip are visited; the visitor
+        // skips group children outside it
+        materializeArea(cullArea);
+        List<Shape> visibleShapes = spatialIndex.search(cullArea);
+        CullingDrawVisitor visitor = new CullingDrawVisitor(g2d, shapeRenderer, cullArea);
+        visitor.addCulled(spatialIndex.size() - visibleShapes.size());
+        for (Shape shape : visibleShapes) {
+            if (hiddenShapes == null || !hiddenShapes.contains(shape)) {
+                shape.accept(visitor);
+            }
+        }
+
+        // Accumulated over every tile rendered in this frame
+        lastFrameDrawnCount += visitor.getDrawnCount();
+        lastFrameCulledCount += visitor.getCulledCount();
+    }
+
+    /**
+     * Repaints only part of the whiteboard, widened to cover strokes around it.
+     *
+     * @param area The damaged area in whiteboard coordinates, or null for none.
+     */
+    private void repaintArea(java.awt.Rectangle area) {
+        if (area != null) {
+            repaint(area.x - PAINT_MARGIN, area.y - PAINT_MARGIN,
+                    area.width + 2 * PAINT_MARGIN, area.height + 2 * PAINT_MARGIN);
+        }
+    }
+
+    /**
+     * Repaints where selection decorations were last painted and where they
+     * are now, after selected shapes may have changed outside a drag.
+     */
+    private void repaintSelection() {
+        repaintArea(union(paintedSelectionArea, getSelectionPaintArea()));
+    }
+
+    private static java.awt.Rectangle union(java.awt.Rectangle a, java.awt.Rectangle b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return a.union(b);
+    }
+
+    // Union of the selected shapes' bounds, or null when nothing is selected
+    private java.awt.Rectangle getSelectionArea() {
+        java.awt.Rectangle area = null;
+        for (Shape shape : selectedShapes) {
+            area = union(area, getShapeBounds(shape));
+        }
+        return area;
+    }
+
+    /**
+     * Returns the area the selected shapes and their decorations paint, as
+     * drawn by {@link #renderSelections}, or null when nothing is selected.
+     */
+    private java.awt.Rectangle getSelectionPaintArea() {
+        java.awt.Rectangle area = null;
+        for (Shape shape : selectedShapes) {
+            area = union(area, getShapeBounds(shape));
+            area = union(area, new SelectionDecorator(shape).getPaintBounds());
+            com.geometriceditor.model.Shape.Point center = shape.getGeometricCenter();
+            area = union(area, new java.awt.Rectangle(center.x - ROTATION_MARKER_RADIUS,
+                    center.y - ROTATION_MARKER_RADIUS, 2 * ROTATION_MARKER_RADIUS, 2 * ROTATION_MARKER_RADIUS));
         }
+        return area;
     }
 
     private void renderSelections(Graphics2D g2d) {
@@ -324,8 +938,10 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
             // Draw rotation center marker at geometric center
             com.geometriceditor.model.Shape.Point center = shape.getGeometricCenter();
             g2d.setColor(Color.RED);
-            g2d.fillOval(center.x - 4, center.y - 4, 8, 8);
+            g2d.fillOval(center.x - ROTATION_MARKER_RADIUS, center.y - ROTATION_MARKER_RADIUS,
+                    2 * ROTATION_MARKER_RADIUS, 2 * ROTATION_MARKER_RADIUS);
         }
+        paintedSelectionArea = getSelectionPaintArea();
     }
 
     private void renderSelectionRectangle(Graphics2D g2d) {
@@ -374,6 +990,7 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
 
     // ==================== EVENT HANDLING ====================
     private void handleMousePress(Point point, boolean ctrlDown, MouseEvent e) {
+        java.awt.Rectangle previousSelectionArea = getSelectionPaintArea();
         isCtrlPressed = ctrlDown;
         selectionStartPoint = point;
         Shape clickedShape = findShapeAtPoint(point);
@@ -402,7 +1019,8 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
             for (Shape shape : selectedShapes) {
                 shape.setRotationCenter(new com.geometriceditor.model.Shape.Point(point.x, point.y));
             }
-            repaint();
+            recordRotationCentersChanged();
+            fireShapeChanges(); // Repaints
             return;
         } else {
             handleShapeSelection(clickedShape, point); // This sets dragStartPoint
@@ -413,7 +1031,7 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
             }
         }
 
-        repaint();
+        repaintArea(union(previousSelectionArea, getSelectionPaintArea()));
     }
 
     private boolean isPointNear(Point p1, com.geometriceditor.model.Shape.Point center, int radius) {
@@ -432,11 +1050,17 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
                         currentCenter.x + dx,
                         currentCenter.y + dy));
             }
+            recordRotationCentersChanged(); // Published when the drag ends
             rotationCenterDragStart = point;
-            repaint();
+            if (dragBackground == null) {
+                beginLayeredDrag();
+            }
+            repaintArea(getSelectionPaintArea());
             return; // Don't process shape drag if dragging rotation center
         }
 
+        java.awt.Rectangle damagedArea;
+
         if (dragStartPoint != null) {
             // Calculate delta for this drag segment
             int dx = point.x - dragStartPoint.x;
@@ -446,16 +1070,27 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
             dragTotalDx += dx;
             dragTotalDy += dy;
 
-            // Visually move shapes during drag (temporary)
+            // Visually move shapes during drag (temporary). Only the selection layer
+            // is redrawn; cached tiles are invalidated by the MoveCommand at the end.
+            if (dragBackground == null) {
+                beginLayeredDrag();
+            }
+            damagedArea = getSelectionPaintArea();
             for (Shape shape : selectedShapes) {
                 shape.move(dx, dy);
             }
+            updateIndex(selectedShapes); // Keep culling and picking in sync
             dragStartPoint = point; // Update start for the *next* drag segment
+            damagedArea = union(damagedArea, getSelectionPaintArea());
 
         } else if (selectionStartPoint != null) {
+            damagedArea = selectionRectangle;
             updateSelectionRectangle(point); // Handle rectangle selection drag
+            damagedArea = union(damagedArea, selectionRectangle);
+        } else {
+            return;
         }
-        repaint();
+        repaintArea(damagedArea);
     }
 
     // Renamed and modified from finalizeSelection
@@ -463,6 +1098,7 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
         // Finalize rectangle selection
         if (selectionRectangle != null) {
             selectShapesInRectangle(selectionRectangle);
+            repaintArea(union(selectionRectangle, getSelectionPaintArea()));
             selectionRectangle = null;
             selectionStartPoint = null; // Reset selection start
         }
@@ -477,10 +1113,17 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
 
             // Create and execute the command
             // Pass a *copy* of selectedShapes to the command
-            MoveCommand moveCmd = new MoveCommand(new ArrayList<>(selectedShapes), dragTotalDx, dragTotalDy);
+            MoveCommand moveCmd = new MoveCommand(this, new ArrayList<>(selectedShapes), dragTotalDx,
+                    dragTotalDy);
             commandManager.executeCommand(moveCmd);
         }
 
+        // Merge the drag layers back into the regular (tiled) scene
+        endLayeredDrag();
+        if (isDraggingRotationCenter) {
+            fireShapeChanges();
+        }
+
         // Reset drag state regardless of whether a command was created
         dragStartPoint = null;
         dragOriginPoint = null;
@@ -535,31 +1178,49 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
                 Math.abs(point.y - selectionStartPoint.y));
     }
 
-    private Shape findShapeAtPoint(Point point) {
-        for (int i = shapes.size() - 1; i >= 0; i--) {
-            Shape shape = shapes.get(i);
-            if (shape.contains(new com.geometriceditor.model.Shape.Point(point.x, point.y))) {
+    /**
+     * Finds the top-most shape containing a point.
+     *
+     * @param point The point in whiteboard coordinates.
+     * @return The shape, or null if none contains the point.
+     */
+    public Shape findShapeAtPoint(Point point) {
+        // Only shapes whose bounds contain the point can be hit; candidates come
+        // back bottom-most first, so test from the top down
+        materializeArea(new java.awt.Rectangle(point.x, point.y, 0, 0));
+        List<Shape> candidates = spatialIndex.searchPoint(point.x, point.y);
+        Shape.Point modelPoint = new Shape.Point(point.x, point.y);
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            Shape shape = candidates.get(i);
+            if (shape.contains(modelPoint)) {
                 return shape;
             }
         }
         return null;
     }
 
-    private void selectShapesInRectangle(java.awt.Rectangle rect) {
-        shapes.stream()
-                .filter(shape -> rect.intersects(getShapeBounds(shape)))
-                .filter(shape -> !selectedShapes.contains(shape))
-                .forEach(selectedShapes::add);
+    /**
+     * Adds every top-level shape whose bounds intersect the rectangle to the
+     * selection. No repaint.
+     *
+     * @param rect The selection area in whiteboard coordinates.
+     */
+    public void selectShapesInRectangle(java.awt.Rectangle rect) {
+        materializeArea(rect);
+        HashSet<Shape> alreadySelected = new HashSet<>(selectedShapes);
+        for (Shape shape : spatialIndex.search(rect)) {
+            if (rect.intersects(spatialIndex.getBounds(shape)) && alreadySelected.add(shape)) {
+                selectedShapes.add(shape);
+            }
+        }
     }
 
-    // Use BoundingBoxVisitor to get shape bounds
+    // Shapes cache their BoundingBoxVisitor bounds until their geometry changes
     private java.awt.Rectangle getShapeBounds(Shape shape) {
         if (shape == null) {
             return new java.awt.Rectangle(); // Return empty for null shape
         }
-        // Need to import BoundingBoxVisitor
-        com.geometriceditor.visitor.BoundingBoxVisitor visitor = new com.geometriceditor.visitor.BoundingBoxVisitor();
-        return shape.accept(visitor);
+        return shape.getBounds();
     }
 
     // ==================== CONTEXT MENU ====================
@@ -568,23 +1229,18 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
 
         // Reset rotation center option
         JMenuItem resetCenterItem = new JMenuItem("Reset Rotation Center");
-        resetCenterItem.addActionListener(e -> {
-            if (!selectedShapes.isEmpty()) {
-                for (Shape shape : selectedShapes) {
-                    shape.setRotationCenter(new Shape.Point(shape.getPosition()));
-                }
-                repaint();
-            }
-        });
+        resetCenterItem.addActionListener(e -> resetSelectedRotationCenters());
         contextMenu.add(resetCenterItem);
 
         // Add more context menu items as needed
         JMenuItem propertiesItem = new JMenuItem("Properties");
         propertiesItem.addActionListener(e -> {
             if (selectedShapes.size() == 1) {
-                PropertyEditDialog.editShapeProperties(
-                        (JFrame) SwingUtilities.getWindowAncestor(this),
-                        selectedShapes.get(0));
+                Shape shape = selectedShapes.get(0);
+                if (PropertyEditDialog.editShapeProperties(
+                        (JFrame) SwingUtilities.getWindowAncestor(this), shape)) {
+                    shapeEdited(shape);
+                }
             }
         });
         contextMenu.add(propertiesItem);
@@ -614,14 +1270,42 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
         return new ArrayList<>(selectedShapes);
     }
 
+    /**
+     * Moves the rotation centers of the selected shapes back to their
+     * positions.
+     */
+    public void resetSelectedRotationCenters() {
+        if (!selectedShapes.isEmpty()) {
+            for (Shape shape : selectedShapes) {
+                shape.setRotationCenter(new Shape.Point(shape.getPosition()));
+            }
+            recordRotationCentersChanged();
+            fireShapeChanges(); // Repaints
+        }
+    }
+
     public void setSelectedFillColor(Color color) {
         selectedShapes.forEach(shape -> shape.setFillColor(color));
-        repaint();
+        recordModified(selectedShapes);
+        invalidateScene(getSelectionArea());
+        fireShapeChanges(); // Repaints
     }
 
     public void setSelectedBorderColor(Color color) {
         selectedShapes.forEach(shape -> shape.setBorderColor(color));
-        repaint();
+        recordModified(selectedShapes);
+        invalidateScene(getSelectionArea());
+        fireShapeChanges(); // Repaints
+    }
+
+    private void recordModified(Collection<Shape> changedShapes) {
+        changedShapes.forEach(pendingChanges::recordModified);
+    }
+
+    // Rotation centers are saved with the shapes but not drawn into cached tiles
+    private void recordRotationCentersChanged() {
+        recordModified(selectedShapes);
+        pendingChanges.recordArea(getSelectionArea());
     }
 
     public void setGridVisible(boolean visible) {
@@ -641,6 +1325,39 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
             repaint();
     }
 
+    /**
+     * Caps the memory used by the offscreen tile cache. Least recently painted
+     * tiles are evicted first; a limit of 0 disables the cache.
+     *
+     * @param maxBytes The cap in bytes.
+     */
+    public void setTileCacheLimit(long maxBytes) {
+        tileCache.setMaxBytes(Math.max(0, maxBytes));
+        if (maxBytes <= 0) {
+            tileCache.invalidateAll();
+        }
+    }
+
+    public long getTileCacheLimit() {
+        return tileCache.getMaxBytes();
+    }
+
+    /**
+     * @return The number of shapes drawn in the last painted frame. Shapes blitted
+     *         from cached tiles are not drawn again and do not count.
+     */
+    public int getLastFrameDrawnCount() {
+        return lastFrameDrawnCount;
+    }
+
+    /**
+     * @return The number of shapes (or whole groups) skipped by viewport culling
+     *         in the last painted frame.
+     */
+    public int getLastFrameCulledCount() {
+        return lastFrameCulledCount;
+    }
+
     public boolean isGridVisible() {
         return gridVisible;
     }
@@ -657,8 +1374,22 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
     // ====================
     @Override
     public void commandExecuted() {
-        // Central repaint trigger
-        repaint();
+        // Central repaint trigger, limited to where the command changed shapes.
+        // The command's own area also covers changes the index did not see, e.g.
+        // a drag that moved the shapes before the command did.
+        java.awt.Rectangle affectedArea = commandManager.getLastAffectedArea();
+        if (!pendingChanges.isEmpty()) {
+            invalidateScene(affectedArea);
+            fireShapeChanges();
+            return;
+        }
+        // Nothing recorded, e.g. a selection change
+        if (affectedArea != null) {
+            repaintArea(affectedArea);
+            repaintSelection();
+        } else {
+            repaint();
+        }
     }
 
     // ==================== DRAG AND DROP HANDLER ====================
@@ -730,6 +1461,7 @@ public class WhiteboardPanel extends JPanel implements CommandExecutionListener,
     @Override
     public Iterator<Shape> iterator() {
         // Return an iterator over an unmodifiable view of the shapes list
+        materializeAll();
         return Collections.unmodifiableList(shapes).iterator();
     }
 }
@@ -31,10 +31,11 @@ public class BoundingBoxVisitor implements ShapeVisitor<java.awt.Rectangle> {
                     rectangle.getPosition().y,
                     rectangle.getWidth(),
                     rectangle.getHeight());
+            // Shapes are drawn rotated about their geometric center
             AffineTransform tx = AffineTransform.getRotateInstance(
                     Math.toRadians(rectangle.getRotation()),
-                    rectangle.getRotationCenter().x,
-                    rectangle.getRotationCenter().y);
+                    rectangle.getGeometricCenter().x,
+                    rectangle.getGeometricCenter().y);
             // Use fully qualified name for java.awt.Shape
             java.awt.Shape transformedShape = tx.createTransformedShape(rect2D);
             return transformedShape.getBounds(); // Get bounds of the transformed shape
@@ -54,39 +55,46 @@ public class BoundingBoxVisitor implements ShapeVisitor<java.awt.Rectangle> {
                     radius * 2,
                     radius * 2);
         } else {
-            // Create the AWT Polygon
-            int[] xPoints = new int[polygon.getNumberOfSides()];
-            int[] yPoints = new int[polygon.getNumberOfSides()];
-            int radius = polygon.getRadius();
+            // Rotate the polygon's cached vertices about its center
+            int[] xPoints = polygon.getVertexXs();
+            int[] yPoints = polygon.getVertexYs();
+            double radians = Math.toRadians(polygon.getRotation());
+            double cos = Math.cos(radians);
+            double sin = Math.sin(radians);
+            int centerX = polygon.getGeometricCenter().x;
+            int centerY = polygon.getGeometricCenter().y;
+
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
             for (int i = 0; i < polygon.getNumberOfSides(); i++) {
-                double angle = 2 * Math.PI * i / polygon.getNumberOfSides();
-                xPoints[i] = (int) (polygon.getPosition().x + radius * Math.cos(angle));
-                yPoints[i] = (int) (polygon.getPosition().y + radius * Math.sin(angle));
+                double dx = xPoints[i] - centerX;
+                double dy = yPoints[i] - centerY;
+                double x = centerX + dx * cos - dy * sin;
+                double y = centerY + dx * sin + dy * cos;
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
             }
-            java.awt.Polygon awtPoly = new java.awt.Polygon(xPoints, yPoints, polygon.getNumberOfSides());
-
-            // Apply rotation
-            AffineTransform tx = AffineTransform.getRotateInstance(
-                    Math.toRadians(polygon.getRotation()),
-                    polygon.getRotationCenter().x,
-                    polygon.getRotationCenter().y);
-            // Use fully qualified name for java.awt.Shape
-            java.awt.Shape transformedShape = tx.createTransformedShape(awtPoly);
-            return transformedShape.getBounds();
+            int x1 = (int) Math.floor(minX);
+            int y1 = (int) Math.floor(minY);
+            return new java.awt.Rectangle(x1, y1, (int) Math.ceil(maxX) - x1, (int) Math.ceil(maxY) - y1);
         }
     }
 
     @Override
     public java.awt.Rectangle visit(ShapeGroup group) {
-        if (group.getShapes().isEmpty()) {
+        if (group.getLocalShapes().isEmpty()) {
             // Return an empty rectangle or based on group's position if needed
             return new java.awt.Rectangle(group.getPosition().x, group.getPosition().y, 0, 0);
         }
 
-        // Calculate the union of the bounding boxes of all children
+        // Calculate the union of the bounding boxes of all children.
+        // Children keep their own cached bounds, so only stale subtrees are revisited.
+        // They are positioned relative to the group's pending translation.
         java.awt.Rectangle totalBounds = null;
-        for (Shape child : group.getShapes()) {
-            java.awt.Rectangle childBounds = child.accept(this); // Recursively visit children
+        for (Shape child : group.getLocalShapes()) {
+            java.awt.Rectangle childBounds = child.getBounds();
             if (totalBounds == null) {
                 totalBounds = childBounds;
             } else {
@@ -94,7 +102,10 @@ public class BoundingBoxVisitor implements ShapeVisitor<java.awt.Rectangle> {
             }
         }
         // Should never be null if shapes list is not empty, but check for safety
-        return totalBounds != null ? totalBounds
-                : new java.awt.Rectangle(group.getPosition().x, group.getPosition().y, 0, 0);
+        if (totalBounds == null) {
+            return new java.awt.Rectangle(group.getPosition().x, group.getPosition().y, 0, 0);
+        }
+        totalBounds.translate(group.getOffsetX(), group.getOffsetY());
+        return totalBounds;
     }
 }
@@ -0,0 +1,92 @@
+package com.geometriceditor.visitor;
+
+import java.awt.Graphics2D;
+
+import com.geometriceditor.model.Rectangle;
+import com.geometriceditor.model.RegularPolygon;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeGroup;
+import com.geometriceditor.rendering.ShapeRenderer;
+
+/**
+ * A visitor that draws shapes, skipping every group child whose bounds fall
+ * outside a cull area (usually the clip bounds). Whole subtrees are skipped
+ * at once, so painting cost follows what is visible.
+ * <p>
+ * Counts drawn and culled shapes; a culled group counts once, however many
+ * shapes it holds.
+ */
+public class CullingDrawVisitor implements ShapeVisitor<Void> {
+    private final Graphics2D g2d;
+    private final ShapeRenderer renderer;
+    private final java.awt.Rectangle cullArea;
+    private int drawnCount = 0;
+    private int culledCount = 0;
+
+    /**
+     * @param g2d      Graphics2D context
+     * @param renderer The renderer implementation to use
+     * @param cullArea Shapes not intersecting this area are skipped
+     */
+    public CullingDrawVisitor(Graphics2D g2d, ShapeRenderer renderer, java.awt.Rectangle cullArea) {
+        this.g2d = g2d;
+        this.renderer = renderer;
+        this.cullArea = cullArea;
+    }
+
+    @Override
+    public Void visit(Rectangle rectangle) {
+        rectangle.draw(g2d, renderer);
+        drawnCount++;
+        return null;
+    }
+
+    @Override
+    public Void visit(RegularPolygon polygon) {
+        polygon.draw(g2d, renderer);
+        drawnCount++;
+        return null;
+    }
+
+    @Override
+    public Void visit(ShapeGroup group) {
+        renderer.drawShapeGroup(g2d, group);
+        // Children are positioned relative to the group's pending translation
+        int dx = group.getOffsetX();
+        int dy = group.getOffsetY();
+        g2d.translate(dx, dy);
+        cullArea.translate(-dx, -dy);
+        for (Shape child : group.getLocalShapes()) {
+            if (isVisible(child.getBounds())) {
+                child.accept(this);
+            } else {
+                culledCount++;
+            }
+        }
+        cullArea.translate(dx, dy);
+        g2d.translate(-dx, -dy);
+        return null;
+    }
+
+    // Edges are inclusive so zero-width shapes (lines) are not culled by mistake
+    private boolean isVisible(java.awt.Rectangle bounds) {
+        return bounds.x <= cullArea.x + cullArea.width && cullArea.x <= bounds.x + bounds.width
+                && bounds.y <= cullArea.y + cullArea.height && cullArea.y <= bounds.y + bounds.height;
+    }
+
+    /**
+     * Records shapes the caller skipped before visiting (e.g. after a spatial
+     * index query).
+     */
+    public void addCulled(int count) {
+        culledCount += count;
+    }
+
+    public int getDrawnCount() {
+        return drawnCount;
+    }
+
+    public int getCulledCount() {
+        return culledCount;
+    }
+}
@@ -0,0 +1,215 @@
+package com.geometriceditor.command;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.geometriceditor.factory.ShapeFactory;
+import com.geometriceditor.model.Rectangle;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeChangeEvent;
+import com.geometriceditor.ui.WhiteboardPanel;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the undo history of the command manager.
+ */
+public class CommandManagerTest extends TestCase {
+    private Path spillFile;
+    private CommandManager commandManager;
+    private WhiteboardPanel whiteboard;
+    private HistorySpill spill;
+
+    @Override
+    protected void setUp() throws Exception {
+        spillFile = Files.createTempFile("history", ".bin");
+        commandManager = new CommandManager();
+        whiteboard = new WhiteboardPanel(ShapeFactory.getInstance(), commandManager);
+        spill = new HistorySpill(whiteboard, spillFile);
+        commandManager.setHistorySpill(spill);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        spill.close();
+        Files.deleteIfExists(spillFile);
+    }
+
+    public void testSpilledCommandsAreUndoneOnTheShapesOnTheWhiteboard() throws Exception {
+        commandManager.setHistoryLimit(4, Long.MAX_VALUE);
+        commandManager.setMergeWindow(0);
+        Rectangle deleted = new Rectangle(0, 0, 10, 10);
+        Rectangle moved = new Rectangle(100, 0, 10, 10);
+        commandManager.executeCommand(new AddShapeCommand(whiteboard, deleted));
+        commandManager.executeCommand(new MoveCommand(whiteboard, List.of(deleted), 10, 0));
+        commandManager.executeCommand(new DeleteCommand(whiteboard, List.of(deleted)));
+        commandManager.executeCommand(new AddShapeCommand(whiteboard, moved));
+        for (int i = 0; i < 6; i++) {
+            commandManager.executeCommand(new MoveCommand(whiteboard, List.of(moved), 1, 0));
+        }
+        assertEquals(10, commandManager.getUndoCount());
+        assertTrue(spill.size() >= 6);
+        assertTrue(Files.size(spillFile) > 0);
+
+        for (int i = 0; i < 7; i++) {
+            commandManager.undo();
+        }
+        assertTrue(whiteboard.getShapes().isEmpty());
+
+        // The deleted shape comes back from the file, then moves back
+        commandManager.undo();
+        Shape restored = whiteboard.getShapeById(deleted.getId());
+        assertNotNull(restored);
+        assertEquals(10, restored.getX());
+        commandManager.undo();
+        assertEquals(0, restored.getX());
+        commandManager.undo();
+        assertTrue(whiteboard.getShapes().isEmpty());
+        assertEquals(0, commandManager.getUndoCount());
+        assertEquals(0, Files.size(spillFile));
+
+        commandManager.redo();
+        assertSame(restored, whiteboard.getShapeById(deleted.getId()));
+
+        // Redone commands are moved out of memory again
+        for (int i = 0; i < 9; i++) {
+            commandManager.redo();
+        }
+        assertEquals(10, commandManager.getUndoCount());
+        assertTrue(spill.size() >= 6);
+        assertEquals(106, whiteboard.getShapeById(moved.getId()).getX());
+    }
+
+    public void testByteBudgetCountsDeletedShapes() {
+        Rectangle shape = new Rectangle(0, 0, 10, 10);
+        commandManager.executeCommand(new AddShapeCommand(whiteboard, shape));
+        long withoutDeletion = commandManager.getHistoryBytes();
+        commandManager.executeCommand(new DeleteCommand(whiteboard, List.of(shape)));
+        assertTrue(commandManager.getHistoryBytes() - withoutDeletion >= shape.estimateBytes());
+
+        commandManager.setHistoryLimit(10, 1);
+        assertEquals(0, commandManager.getHistoryBytes());
+        assertEquals(2, commandManager.getUndoCount());
+    }
+
+    public void testSuccessiveMovesOfTheSameShapesAreUndoneAtOnce() {
+        Rectangle shape = new Rectangle(0, 0, 10, 10);
+        commandManager.executeCommand(new AddShapeCommand(whiteboard, shape));
+        commandManager.executeCommand(new MoveCommand(whiteboard, List.of(shape), 5, 0));
+        commandManager.executeCommand(new MoveCommand(whiteboard, List.of(shape), 0, 7));
+        commandManager.executeCommand(new RotateCommand(whiteboard, List.of(shape), 10f));
+        commandManager.executeCommand(new RotateCommand(whiteboard, List.of(shape), 20f));
+        assertEquals(3, commandManager.getUndoCount());
+        assertEquals(30f, shape.getRotation());
+
+        commandManager.undo();
+        assertEquals(0f, shape.getRotation());
+        commandManager.undo();
+        assertEquals(0, shape.getX());
+        assertEquals(0, shape.getY());
+
+        commandManager.setMergeWindow(0);
+        commandManager.redo();
+        commandManager.executeCommand(new MoveCommand(whiteboard, List.of(shape), 1, 0));
+        assertEquals(3, commandManager.getUndoCount());
+    }
+
+    public void testTransactionsAreUndoneAtOnceAndRolledBackOnFailure() {
+        int[] notifications = { 0 };
+        commandManager.addListener(() -> notifications[0]++);
+        Rectangle first = new Rectangle(0, 0, 10, 10);
+        Rectangle second = new Rectangle(20, 0, 10, 10);
+        commandManager.beginTransaction();
+        commandManager.executeCommand(new AddShapeCommand(whiteboard, first));
+        commandManager.beginTransaction();
+        commandManager.executeCommand(new AddShapeCommand(whiteboard, second));
+        commandManager.executeCommand(new MoveCommand(whiteboard, List.of(second), 5, 0));
+        commandManager.commit();
+        assertEquals(0, notifications[0]);
+        commandManager.commit();
+        assertEquals(1, notifications[0]);
+        assertEquals(1, commandManager.getUndoCount());
+        assertEquals(2, whiteboard.getShapes().size());
+
+        try {
+            commandManager.runInTransaction(() -> {
+                commandManager.executeCommand(new DeleteCommand(whiteboard, List.of(first)));
+                throw new IllegalArgumentException("Halfway");
+            });
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertFalse(commandManager.isInTransaction());
+        }
+        assertEquals(2, whiteboard.getShapes().size());
+        assertEquals(1, commandManager.getUndoCount());
+
+        commandManager.undo();
+        assertTrue(whiteboard.getShapes().isEmpty());
+    }
+
+    public void testCommandFailingHalfwayRollsBackTheTransaction() {
+        Rectangle shape = new Rectangle(0, 0, 10, 10);
+        commandManager.executeCommand(new AddShapeCommand(whiteboard, shape));
+        Command failing = new Command() {
+            @Override
+            public void execute() {
+                throw new IllegalStateException("Halfway");
+            }
+
+            @Override
+            public void undo() {
+            }
+
+            @Override
+            public void redo() {
+            }
+        };
+        try {
+            commandManager.runInTransaction(() -> {
+                commandManager.executeCommand(new MoveCommand(whiteboard, List.of(shape), 5, 0));
+                commandManager.executeCommand(failing);
+                commandManager.executeCommand(new DeleteCommand(whiteboard, List.of(shape)));
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertFalse(commandManager.isInTransaction());
+        }
+        assertSame(shape, whiteboard.getShapeById(shape.getId()));
+        assertEquals(0, shape.getX());
+        assertEquals(1, commandManager.getUndoCount());
+
+        commandManager.executeCommand(failing); // Reported, outside transactions
+        assertEquals(1, commandManager.getUndoCount());
+    }
+
+    public void testTransactionPublishesOneEventOfItsNetChanges() {
+        Rectangle kept = new Rectangle(0, 0, 10, 10);
+        Rectangle dropped = new Rectangle(50, 50, 10, 10);
+        List<ShapeChangeEvent> events = new ArrayList<>();
+        whiteboard.addShapeChangeListener(events::add);
+        commandManager.runInTransaction(() -> {
+            commandManager.executeCommand(new AddShapeCommand(whiteboard, kept));
+            commandManager.executeCommand(new AddShapeCommand(whiteboard, dropped));
+            commandManager.executeCommand(new DeleteCommand(whiteboard, List.of(dropped)));
+        });
+        assertEquals(1, events.size());
+        assertEquals(List.of(kept), events.get(0).getAdded());
+        assertTrue(events.get(0).getRemoved().isEmpty());
+        assertTrue(events.get(0).getAffectedArea().contains(0, 0, 10, 10));
+
+        commandManager.executeCommand(new MoveCommand(whiteboard, List.of(kept), 5, 0));
+        assertEquals(List.of(kept), events.get(1).getModified());
+        assertEquals(new java.awt.Rectangle(0, 0, 15, 10), events.get(1).getAffectedArea());
+
+        // Added back on top of the stacking order, counted once
+        commandManager.runInTransaction(() -> {
+            commandManager.executeCommand(new DeleteCommand(whiteboard, List.of(kept)));
+            commandManager.executeCommand(new AddShapeCommand(whiteboard, kept));
+        });
+        assertEquals(List.of(kept), events.get(2).getRemoved());
+        assertEquals(List.of(kept), events.get(2).getAdded());
+        assertEquals(1, whiteboard.getStatistics().getShapeCount());
+    }
+}
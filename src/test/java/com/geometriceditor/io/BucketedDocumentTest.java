@@ -0,0 +1,111 @@
+package com.geometriceditor.io;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.geometriceditor.model.Rectangle;
+import com.geometriceditor.model.RegularPolygon;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeChanges;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for documents in the spatially bucketed layout.
+ */
+public class BucketedDocumentTest extends TestCase {
+    private Path file;
+    private Path copy;
+    private List<Shape> shapes;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = Files.createTempFile("document", ".bin");
+        copy = Files.createTempFile("copy", ".bin");
+        shapes = new ArrayList<>();
+        // A 60x60 grid of shapes, 100 apart: enough for a 2x2 bucket grid
+        for (int row = 0; row < 60; row++) {
+            for (int column = 0; column < 60; column++) {
+                shapes.add(column % 2 == 0 ? new Rectangle(column * 100, row * 100, 10, 10)
+                        : new RegularPolygon(column * 100 + 5, row * 100 + 5, 4, 10));
+            }
+        }
+        BucketedDocument.create(file, shapes).close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(copy);
+    }
+
+    public void testOpeningAnAreaReadsOnlyItsBuckets() throws Exception {
+        assertTrue(BucketedDocument.isBucketed(file));
+        assertTrue(DocumentFormat.isBinaryDocument(file));
+        try (BucketedDocument document = BucketedDocument.open(file)) {
+            assertEquals(3600, document.size());
+            assertEquals(1800, document.getPendingRectangleCount());
+
+            Map<Integer, Shape> created = new TreeMap<>();
+            document.materialize(new java.awt.Rectangle(0, 0, 50, 50), (shape, key) -> created.put(key, shape));
+
+            // The top-left bucket: a quarter of the board
+            assertEquals(900, created.size());
+            assertEquals(2700, document.getPendingCount());
+            assertEquals(shapes.get(61).getId(), created.get(61).getId());
+            assertEquals(105, created.get(61).getX());
+
+            created.clear();
+            document.materialize(new java.awt.Rectangle(0, 0, 50, 50), (shape, key) -> created.put(key, shape));
+            assertTrue(created.isEmpty());
+        }
+    }
+
+    public void testSavedChangesRewriteOnlyTheirBuckets() throws Exception {
+        Map<Integer, Shape> created = new TreeMap<>();
+        try (BucketedDocument document = BucketedDocument.open(file)) {
+            document.materialize(new java.awt.Rectangle(0, 0, 50, 50), (shape, key) -> created.put(key, shape));
+            long length = Files.size(file);
+
+            // Into another bucket, which was not read, on top of everything
+            ShapeChanges changes = new ShapeChanges();
+            Shape moved = created.get(0);
+            moved.move(5900, 5900);
+            changes.recordModified(moved);
+            Rectangle added = new Rectangle(10, 10, 5, 5);
+            changes.recordAdded(added);
+            changes.recordRemoved(created.get(1));
+            document.save(changes);
+            assertTrue(Files.size(file) - length < length * 3 / 4);
+
+            // Not handed out twice, though saved to a bucket not read yet
+            List<Shape> rest = new ArrayList<>();
+            document.materializeAll((shape, key) -> rest.add(shape));
+            assertEquals(2700, rest.size());
+            assertFalse(rest.contains(moved));
+            document.copyTo(copy);
+        }
+
+        // The moved shape keeps its place in the stacking order
+        List<Long> expected = new ArrayList<>();
+        expected.add(shapes.get(0).getId());
+        for (Shape shape : shapes.subList(2, shapes.size())) {
+            expected.add(shape.getId());
+        }
+        List<Shape> loaded = DocumentReader.read(copy);
+        assertEquals(expected, ids(loaded.subList(0, loaded.size() - 1)));
+        assertEquals(5900, loaded.get(0).getX());
+        assertEquals(10, loaded.get(loaded.size() - 1).getX());
+        assertEquals(ids(loaded), ids(DocumentReader.read(file)));
+    }
+
+    private static List<Long> ids(List<Shape> shapes) {
+        List<Long> ids = new ArrayList<>();
+        shapes.forEach(shape -> ids.add(shape.getId()));
+        return ids;
+    }
+}
@@ -0,0 +1,221 @@
+package com.geometriceditor.io;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import com.geometriceditor.model.Rectangle;
+import com.geometriceditor.model.RegularPolygon;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeChanges;
+import com.geometriceditor.model.ShapeGroup;
+
+import junit.framework.TestCase;
+
+/**
+ * Round-trip tests for the binary document format.
+ */
+public class DocumentFormatTest extends TestCase {
+    private Path file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = Files.createTempFile("document", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    public void testRoundTripKeepsShapesAndNesting() throws Exception {
+        Rectangle rectangle = new Rectangle(-40, 25, 100, 50);
+        rectangle.setFillColor(new Color(10, 20, 30, 128));
+        rectangle.setRotation(33.5f);
+        rectangle.setCornerRadius(4);
+        RegularPolygon polygon = new RegularPolygon(300, 200, 5, 40);
+        polygon.setRotationCenter(new Shape.Point(7, 8));
+        ShapeGroup inner = new ShapeGroup();
+        inner.addShape(new Rectangle(1000, 1000, 5, 5));
+        ShapeGroup outer = new ShapeGroup();
+        outer.addShape(polygon);
+        outer.addShape(inner);
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(rectangle);
+        shapes.add(outer);
+
+        DocumentWriter.write(shapes, file);
+        assertTrue(DocumentFormat.isBinaryDocument(file));
+        List<Shape> loaded = DocumentReader.read(file);
+
+        assertEquals(2, loaded.size());
+        Rectangle loadedRectangle = (Rectangle) loaded.get(0);
+        assertEquals(rectangle.getId(), loadedRectangle.getId());
+        assertEquals(rectangle.getFillColor(), loadedRectangle.getFillColor());
+        assertEquals(33.5f, loadedRectangle.getRotation());
+        assertEquals(4f, loadedRectangle.getCornerRadius());
+        assertEquals(rectangle.getBounds(), loadedRectangle.getBounds());
+
+        ShapeGroup loadedOuter = (ShapeGroup) loaded.get(1);
+        assertEquals(outer.getId(), loadedOuter.getId());
+        assertEquals(outer.getBounds(), loadedOuter.getBounds());
+        RegularPolygon loadedPolygon = (RegularPolygon) loadedOuter.getShapes().get(0);
+        assertEquals(5, loadedPolygon.getNumberOfSides());
+        assertEquals(new Shape.Point(7, 8), loadedPolygon.getRotationCenter());
+        ShapeGroup loadedInner = (ShapeGroup) loadedOuter.getShapes().get(1);
+        assertSame(loadedOuter, loadedInner.getParent());
+        assertEquals(1, loadedInner.getShapes().size());
+    }
+
+    public void testSerializedFilesAreNotBinaryDocuments() throws Exception {
+        File serialized = file.toFile();
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(serialized))) {
+            out.writeObject(new ArrayList<>(List.of(new Rectangle())));
+        }
+        assertFalse(DocumentFormat.isBinaryDocument(file));
+    }
+
+    public void testChunkedReadDeliversShapesInOrderAndStops() throws Exception {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            shapes.add(new Rectangle(i * 10, 0, 5, 5));
+        }
+        DocumentWriter.write(shapes, file);
+
+        List<Shape> loaded = new ArrayList<>();
+        List<Integer> progress = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertTrue(DocumentReader.read(channel, 10, (chunk, read, total) -> {
+                loaded.addAll(chunk);
+                progress.add(read);
+                assertEquals(25, total);
+                return true;
+            }));
+        }
+        assertEquals(List.of(10, 20, 25), progress);
+        for (int i = 0; i < shapes.size(); i++) {
+            assertEquals(shapes.get(i).getId(), loaded.get(i).getId());
+        }
+
+        // The consumer can stop the read after any chunk
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertFalse(DocumentReader.read(channel, 10, (chunk, read, total) -> false));
+        }
+    }
+
+    public void testSnapshotIsNotAffectedByLaterEdits() throws Exception {
+        Rectangle rectangle = new Rectangle(10, 20, 30, 40);
+        ShapeGroup group = new ShapeGroup();
+        group.addShape(new RegularPolygon(100, 100, 6, 10));
+        DocumentSnapshot snapshot = DocumentSnapshot.capture(List.of(rectangle, group));
+        assertEquals(2, snapshot.size());
+        assertEquals(3, snapshot.getRecordCount());
+
+        rectangle.move(500, 500);
+        rectangle.setFillColor(Color.RED);
+        group.getShapes().get(0).setRotation(45);
+        DocumentWriter.writeAtomically(snapshot, file);
+
+        List<Shape> loaded = DocumentReader.read(file);
+        assertEquals(10, loaded.get(0).getX());
+        assertFalse(Color.RED.equals(loaded.get(0).getFillColor()));
+        assertEquals(0f, ((ShapeGroup) loaded.get(1)).getShapes().get(0).getRotation());
+    }
+
+    public void testGroupsAreSavedWithoutApplyingPendingMoves() throws Exception {
+        Rectangle child = new Rectangle(10, 20, 30, 40);
+        child.setRotationCenter(new Shape.Point(100, 200));
+        ShapeGroup inner = new ShapeGroup();
+        inner.addShape(child);
+        ShapeGroup outer = new ShapeGroup();
+        outer.addShape(inner);
+        inner.move(1, 2);
+        outer.move(10, 20);
+        DocumentWriter.write(List.of(outer), file);
+        assertEquals(10, child.getX()); // Still pending
+
+        ShapeGroup loadedInner = (ShapeGroup) ((ShapeGroup) DocumentReader.read(file).get(0)).getShapes().get(0);
+        Shape loadedChild = loadedInner.getShapes().get(0);
+        assertEquals(new Shape.Point(21, 42), loadedChild.getPosition());
+        assertEquals(new Shape.Point(100, 200), loadedChild.getRotationCenter());
+        assertEquals(inner.getX() + 10, loadedInner.getX());
+    }
+
+    public void testDeltaSegmentsAreAppliedAndCompacted() throws Exception {
+        Rectangle bottom = new Rectangle(0, 0, 10, 10);
+        Rectangle middle = new Rectangle(20, 0, 10, 10);
+        RegularPolygon top = new RegularPolygon(50, 50, 5, 10);
+        DocumentWriter.write(List.of(bottom, middle, top), file);
+        long baseLength = Files.size(file);
+
+        ShapeChanges changes = new ShapeChanges();
+        Rectangle added = new Rectangle(100, 100, 5, 5);
+        changes.recordAdded(added);
+        middle.move(7, 0);
+        changes.recordModified(middle);
+        DocumentWriter.appendDelta(changes, file);
+        changes.clear();
+        changes.recordRemoved(bottom);
+        long deltaLength = DocumentWriter.appendDelta(changes, file);
+        assertEquals(Files.size(file) - baseLength, deltaLength);
+
+        // An interrupted save leaves an incomplete segment behind
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 1, 0, 42 }));
+        }
+
+        List<Long> expected = List.of(middle.getId(), top.getId(), added.getId());
+        assertEquals(expected, ids(DocumentReader.read(file)));
+        assertEquals(27, DocumentReader.read(file).get(0).getX());
+        List<Shape> chunks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            DocumentReader.read(channel, 2, (chunk, read, total) -> chunks.addAll(chunk));
+        }
+        assertEquals(expected, ids(chunks));
+        assertFalse(MappedDocument.isMappable(file));
+
+        DocumentWriter.compact(file);
+        assertEquals(expected, ids(DocumentReader.read(file)));
+        assertTrue(MappedDocument.isMappable(file));
+    }
+
+    public void testCompressedDocumentSpansBlocksInOrder() throws Exception {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 2 * CompressedFormat.BLOCK_SIZE + 100; i++) {
+            shapes.add(i % 3 == 0 ? new RegularPolygon(i, -i, 3 + i % 5, 10) : new Rectangle(i, i % 100, 8, 4));
+        }
+        DocumentSnapshot snapshot = DocumentSnapshot.capture(shapes);
+        DocumentWriter.writeAtomically(snapshot, file, Deflater.BEST_SPEED);
+        assertTrue(DocumentFormat.isBinaryDocument(file));
+        assertFalse(DocumentFormat.acceptsDeltas(file));
+        assertFalse(MappedDocument.isMappable(file));
+
+        List<Shape> loaded = DocumentReader.read(file);
+        assertEquals(ids(shapes), ids(loaded));
+        assertEquals(-300, loaded.get(300).getY());
+
+        List<Integer> progress = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertFalse(DocumentReader.read(channel, 5000, (chunk, read, total) -> {
+                progress.add(read);
+                return read < 10000;
+            }));
+        }
+        assertEquals(List.of(5000, 8192, 13192), progress);
+    }
+
+    private static List<Long> ids(List<Shape> shapes) {
+        List<Long> ids = new ArrayList<>();
+        shapes.forEach(shape -> ids.add(shape.getId()));
+        return ids;
+    }
+}
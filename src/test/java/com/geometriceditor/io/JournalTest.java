@@ -0,0 +1,96 @@
+package com.geometriceditor.io;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import com.geometriceditor.model.Rectangle;
+import com.geometriceditor.model.RegularPolygon;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeChanges;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for replaying a change journal onto its checkpoint.
+ */
+public class JournalTest extends TestCase {
+    private Path checkpoint;
+    private Path journal;
+    private Rectangle bottom;
+    private Rectangle middle;
+    private RegularPolygon top;
+
+    @Override
+    protected void setUp() throws Exception {
+        checkpoint = Files.createTempFile("checkpoint", ".bin");
+        journal = Files.createTempFile("journal", ".bin");
+        bottom = new Rectangle(0, 0, 10, 10);
+        middle = new Rectangle(20, 0, 10, 10);
+        top = new RegularPolygon(50, 50, 5, 10);
+        DocumentWriter.write(List.of(bottom, middle, top), checkpoint);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(checkpoint);
+        Files.deleteIfExists(journal);
+    }
+
+    private static List<Long> ids(List<Shape> shapes) {
+        return Arrays.asList(shapes.stream().map(Shape::getId).toArray(Long[]::new));
+    }
+
+    public void testReplayAppliesBatchesInOrder() throws Exception {
+        ShapeChanges changes = new ShapeChanges();
+        Rectangle added = new Rectangle(100, 100, 5, 5);
+        changes.recordAdded(added);
+        middle.move(7, 0);
+        changes.recordModified(middle);
+        byte[] first = JournalWriter.encodeBatch(changes);
+
+        changes.clear();
+        changes.recordRemoved(top);
+        changes.recordRemoved(bottom);
+        changes.recordAdded(bottom); // Brought to the front
+        byte[] second = JournalWriter.encodeBatch(changes);
+
+        try (JournalWriter writer = new JournalWriter(journal)) {
+            writer.reset(checkpoint);
+            writer.append(ByteBuffer.wrap(first));
+            writer.append(ByteBuffer.wrap(second));
+            writer.sync();
+        }
+
+        List<Shape> recovered = JournalReader.recover(checkpoint, journal);
+        assertEquals(List.of(middle.getId(), added.getId(), bottom.getId()), ids(recovered));
+        assertEquals(27, recovered.get(0).getX());
+    }
+
+    public void testIncompleteBatchIsIgnored() throws Exception {
+        ShapeChanges changes = new ShapeChanges();
+        changes.recordRemoved(top);
+        byte[] batch = JournalWriter.encodeBatch(changes);
+        try (JournalWriter writer = new JournalWriter(journal)) {
+            writer.reset(checkpoint);
+            writer.append(ByteBuffer.wrap(batch));
+            writer.append(ByteBuffer.wrap(batch, 0, batch.length - 1)); // Torn by a crash
+        }
+        assertEquals(List.of(bottom.getId(), middle.getId()), ids(JournalReader.recover(checkpoint, journal)));
+    }
+
+    public void testJournalOfAnotherCheckpointIsIgnored() throws Exception {
+        ShapeChanges changes = new ShapeChanges();
+        changes.recordRemoved(top);
+        try (JournalWriter writer = new JournalWriter(journal)) {
+            writer.reset(checkpoint);
+            writer.append(ByteBuffer.wrap(JournalWriter.encodeBatch(changes)));
+        }
+        // A checkpoint folding in the batch, as if a crash hit before the journal was reset
+        DocumentWriter.write(List.of(bottom, middle), checkpoint);
+
+        assertEquals(List.of(bottom.getId(), middle.getId()), ids(JournalReader.recover(checkpoint, journal)));
+    }
+}
@@ -0,0 +1,91 @@
+package com.geometriceditor.io;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.geometriceditor.model.Rectangle;
+import com.geometriceditor.model.RegularPolygon;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeGroup;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for loading shapes on demand from a mapped document.
+ */
+public class MappedDocumentTest extends TestCase {
+    private Path file;
+    private List<Shape> shapes;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = Files.createTempFile("document", ".bin");
+        shapes = new ArrayList<>();
+        // A 20x20 grid of 10x10 rectangles, 100 apart, then a group spanning everything
+        for (int row = 0; row < 20; row++) {
+            for (int column = 0; column < 20; column++) {
+                shapes.add(new Rectangle(column * 100, row * 100, 10, 10));
+            }
+        }
+        ShapeGroup group = new ShapeGroup();
+        group.addShape(new Rectangle(-500, -500, 10, 10));
+        group.addShape(new RegularPolygon(2500, 2500, 6, 20));
+        shapes.add(group);
+        DocumentWriter.write(shapes, file);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    public void testMaterializesOnlyIntersectingRecords() throws Exception {
+        assertTrue(MappedDocument.isMappable(file));
+        MappedDocument document = MappedDocument.open(file);
+        assertEquals(401, document.size());
+        assertEquals(401, document.getPendingRectangleCount());
+        assertEquals(1, document.getPendingPolygonCount());
+
+        Map<Integer, Shape> created = new HashMap<>();
+        document.materialize(new java.awt.Rectangle(150, 150, 100, 100), (shape, record) -> created.put(record, shape));
+
+        // Rectangles at (200, 200) and the group, which covers the area
+        assertEquals(2, created.size());
+        Shape rectangle = created.get(2 * 20 + 2);
+        assertEquals(shapes.get(42).getId(), rectangle.getId());
+        assertEquals(200, rectangle.getX());
+        assertTrue(created.get(400) instanceof ShapeGroup);
+        assertEquals(399, document.getPendingCount());
+        assertEquals(399, document.getPendingRectangleCount());
+        assertEquals(0, document.getPendingPolygonCount());
+
+        // Already created records are not handed out again
+        created.clear();
+        document.materialize(new java.awt.Rectangle(150, 150, 100, 100), (shape, record) -> created.put(record, shape));
+        assertTrue(created.isEmpty());
+    }
+
+    public void testMaterializeAllCreatesEveryPendingRecord() throws Exception {
+        MappedDocument document = MappedDocument.open(file);
+        document.materialize(new java.awt.Rectangle(0, 0, 0, 0), (shape, record) -> {
+        });
+        Shape[] created = new Shape[document.size()];
+        document.materializeAll((shape, record) -> {
+            assertNull(created[record]);
+            created[record] = shape;
+        });
+
+        assertEquals(0, document.getPendingCount());
+        // Created by the first call: the rectangle at the origin and the group
+        assertNull(created[0]);
+        assertNull(created[400]);
+        for (int i = 1; i < 400; i++) {
+            assertEquals(shapes.get(i).getId(), created[i].getId());
+            assertEquals(shapes.get(i).getBounds(), created[i].getBounds());
+        }
+    }
+}
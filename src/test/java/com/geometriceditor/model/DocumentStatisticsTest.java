@@ -0,0 +1,53 @@
+package com.geometriceditor.model;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the incrementally maintained document statistics.
+ */
+public class DocumentStatisticsTest extends TestCase {
+
+    public void testGroupingAndEditsUpdateTheStatistics() {
+        Rectangle rectangle = new Rectangle(0, 0, 10, 20);
+        RegularPolygon square = new RegularPolygon(50, 50, 4, 10);
+        DocumentStatistics statistics = new DocumentStatistics();
+        statistics.reset(List.of(rectangle, square), null);
+        assertEquals(1, statistics.getRectangleCount());
+        assertEquals(1, statistics.getPolygonCount());
+        assertEquals(0, statistics.getMaxGroupDepth());
+        assertEquals(300.0, statistics.getTotalArea(), 1e-6);
+        assertEquals(rectangle.estimateBytes() + square.estimateBytes(), statistics.getEstimatedBytes());
+
+        // Grouped in a group of its own
+        ShapeGroup inner = new ShapeGroup();
+        inner.addShape(square);
+        ShapeGroup outer = new ShapeGroup();
+        outer.addShapes(List.of(rectangle, inner));
+        statistics.remove(rectangle);
+        statistics.remove(square);
+        statistics.add(outer);
+        assertEquals(2, statistics.getGroupCount());
+        assertEquals(2, statistics.getMaxGroupDepth());
+        assertEquals(outer.estimateBytes(), statistics.getEstimatedBytes());
+
+        // Nested edit, then a move that leaves the statistics as they were
+        square.setSideLength(20);
+        statistics.update(outer);
+        assertEquals(600.0, statistics.getTotalArea(), 1e-6);
+        assertEquals(outer.estimateBytes(), statistics.getEstimatedBytes());
+        outer.move(5, 5);
+        statistics.update(outer);
+        assertEquals(600.0, statistics.getTotalArea(), 1e-6);
+
+        statistics.remove(outer);
+        statistics.add(rectangle);
+        assertEquals(1, statistics.getRectangleCount());
+        assertEquals(0, statistics.getPolygonCount());
+        assertEquals(0, statistics.getGroupCount());
+        assertEquals(0, statistics.getMaxGroupDepth());
+        assertEquals(200.0, statistics.getTotalArea(), 1e-6);
+        assertEquals(0, statistics.getGroupBytes());
+    }
+}
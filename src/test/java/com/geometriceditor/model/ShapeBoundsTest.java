@@ -0,0 +1,112 @@
+package com.geometriceditor.model;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import com.geometriceditor.rendering.AWTRenderer;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the cached, invalidation-driven shape bounds.
+ */
+public class ShapeBoundsTest extends TestCase {
+
+    public void testSettersInvalidateCachedBounds() {
+        Rectangle rectangle = new Rectangle(10, 20, 100, 50);
+        assertEquals(new java.awt.Rectangle(10, 20, 100, 50), rectangle.getBounds());
+
+        rectangle.move(5, 5);
+        rectangle.setWidth(30);
+        assertEquals(new java.awt.Rectangle(15, 25, 30, 50), rectangle.getBounds());
+    }
+
+    public void testChildChangesInvalidateAncestors() {
+        Rectangle child = new Rectangle(0, 0, 10, 10);
+        ShapeGroup inner = new ShapeGroup();
+        inner.addShape(child);
+        ShapeGroup outer = new ShapeGroup();
+        outer.addShape(inner);
+        outer.addShape(new Rectangle(100, 100, 10, 10));
+        assertEquals(new java.awt.Rectangle(0, 0, 110, 110), outer.getBounds());
+
+        child.move(-10, -10);
+        assertEquals(new java.awt.Rectangle(-10, -10, 10, 10), inner.getBounds());
+        assertEquals(new java.awt.Rectangle(-10, -10, 120, 120), outer.getBounds());
+    }
+
+    public void testReturnedBoundsCannotCorruptCache() {
+        Rectangle rectangle = new Rectangle(0, 0, 10, 10);
+        rectangle.getBounds().translate(50, 50);
+        assertEquals(new java.awt.Rectangle(0, 0, 10, 10), rectangle.getBounds());
+    }
+
+    public void testMovedGroupTranslatesChildrenLazily() {
+        Rectangle child = new Rectangle(0, 0, 10, 10);
+        ShapeGroup inner = new ShapeGroup();
+        inner.addShape(child);
+        ShapeGroup outer = new ShapeGroup();
+        outer.addShapes(java.util.List.of(inner, new Rectangle(100, 100, 10, 10)));
+        assertEquals(new java.awt.Rectangle(0, 0, 110, 110), outer.getBounds());
+
+        outer.move(50, 0);
+        inner.move(0, 20);
+        assertEquals(0, child.getX());
+        assertEquals(new java.awt.Rectangle(50, 20, 110, 90), outer.getBounds());
+        assertTrue(outer.contains(new Shape.Point(55, 25)));
+        assertFalse(outer.contains(new Shape.Point(5, 5)));
+
+        // Reading the children leaves the translations pending
+        assertEquals(child, ((ShapeGroup) outer.getShapes().get(0)).getShapes().get(0));
+        assertEquals(0, child.getX());
+        inner.foldOffsets(); // Applies the enclosing group's translation too
+        assertEquals(50, child.getX());
+        assertEquals(20, child.getY());
+        assertEquals(new java.awt.Rectangle(50, 20, 110, 90), outer.getBounds());
+
+        // Positioned directly, in world coordinates
+        outer.move(-50, 0);
+        child.setPosition(new Shape.Point(0, 0));
+        assertEquals(new java.awt.Rectangle(0, 0, 10, 10), inner.getBounds());
+    }
+
+    private static int[] render(Shape shape) {
+        BufferedImage image = new BufferedImage(200, 200, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        try {
+            shape.draw(g2d, new AWTRenderer());
+        } finally {
+            g2d.dispose();
+        }
+        return image.getRGB(0, 0, 200, 200, null, 0, 200);
+    }
+
+    public void testRotatedChildOfMovedGroup() {
+        Rectangle child = new Rectangle(10, 20, 40, 20);
+        child.setRotation(30);
+        child.setRotationCenter(new Shape.Point(100, 100));
+        Rectangle sibling = new Rectangle(0, 0, 10, 10);
+        ShapeGroup group = new ShapeGroup();
+        group.addShapes(java.util.List.of(child, sibling));
+
+        group.move(50, 60);
+        // In the children's frame while the translation is pending
+        assertEquals(new Shape.Point(50, 40), child.getRotationCenter());
+        assertTrue(group.contains(new Shape.Point(80, 90))); // The rotated child's center
+        assertFalse(group.contains(new Shape.Point(30, 30)));
+        int[] pending = render(group);
+        ShapeGroup clone = (ShapeGroup) group.clone();
+
+        group.foldOffsets();
+        assertEquals(new Shape.Point(100, 100), child.getRotationCenter());
+        assertEquals(new Shape.Point(60, 80), child.getPosition());
+        assertTrue(group.contains(new Shape.Point(80, 90)));
+        assertFalse(group.contains(new Shape.Point(30, 30)));
+        assertTrue(Arrays.equals(pending, render(group)));
+
+        Shape clonedChild = clone.getShapes().get(0);
+        assertEquals(new Shape.Point(100, 100), clonedChild.getRotationCenter());
+        assertEquals(new Shape.Point(60, 80), clonedChild.getPosition());
+    }
+}
@@ -0,0 +1,54 @@
+package com.geometriceditor.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for numeric shape ids and their stored form.
+ */
+public class ShapeIdsTest extends TestCase {
+
+    public void testClonesGetNewIds() {
+        Rectangle rectangle = new Rectangle(0, 0, 10, 10);
+        assertTrue(rectangle.getId() > 0);
+        assertFalse(rectangle.getId() == rectangle.clone().getId());
+    }
+
+    public void testLegacyUuidsMapToStableNegativeIds() {
+        String uuid = "123e4567-e89b-12d3-a456-426614174000";
+        long id = ShapeIds.parse(uuid);
+        assertTrue(id < 0);
+        assertEquals(id, ShapeIds.parse(uuid));
+        assertEquals(id, ShapeIds.parse(Long.toString(id)));
+    }
+
+    public void testLoadedIdsAreReserved() {
+        long loaded = ShapeIds.next() + 1000;
+        assertEquals(loaded, ShapeIds.parse(Long.toString(loaded)));
+        assertTrue(ShapeIds.next() > loaded);
+    }
+
+    public void testSerializationKeepsIds() throws Exception {
+        ShapeGroup group = new ShapeGroup();
+        group.addShape(new Rectangle(0, 0, 10, 10));
+        group.addShape(new RegularPolygon(50, 50, 6, 20));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(group);
+        }
+        ShapeGroup copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (ShapeGroup) in.readObject();
+        }
+
+        assertEquals(group.getId(), copy.getId());
+        assertEquals(group.getShapes().get(1).getId(), copy.getShapes().get(1).getId());
+        assertSame(copy, copy.getShapes().get(0).getParent());
+        assertEquals(group.getBounds(), copy.getBounds());
+    }
+}
@@ -0,0 +1,79 @@
+package com.geometriceditor.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the R-tree backing whiteboard hit-testing.
+ */
+public class SpatialIndexTest extends TestCase {
+
+    public void testSearchReturnsShapesInStackingOrder() {
+        SpatialIndex index = new SpatialIndex();
+        Rectangle bottom = new Rectangle(0, 0, 100, 100);
+        Rectangle top = new Rectangle(50, 50, 100, 100);
+        index.insert(bottom, new java.awt.Rectangle(0, 0, 100, 100));
+        index.insert(top, new java.awt.Rectangle(50, 50, 100, 100));
+
+        assertEquals(List.of(bottom, top), index.searchPoint(75, 75));
+        assertEquals(List.of(bottom), index.searchPoint(10, 10));
+        assertTrue(index.searchPoint(500, 500).isEmpty());
+    }
+
+    public void testUpdateKeepsStackingPosition() {
+        SpatialIndex index = new SpatialIndex();
+        Rectangle first = new Rectangle(0, 0, 10, 10);
+        Rectangle second = new Rectangle(0, 0, 10, 10);
+        index.insert(first, new java.awt.Rectangle(0, 0, 10, 10));
+        index.insert(second, new java.awt.Rectangle(0, 0, 10, 10));
+
+        index.update(first, new java.awt.Rectangle(5, 5, 10, 10));
+
+        assertEquals(List.of(first, second), index.searchPoint(7, 7));
+        assertEquals(new java.awt.Rectangle(5, 5, 10, 10), index.getBounds(first));
+    }
+
+    public void testManyShapesSurviveSplitsAndRemoval() {
+        SpatialIndex index = new SpatialIndex();
+        Rectangle[] shapes = new Rectangle[1000];
+        for (int i = 0; i < shapes.length; i++) {
+            int x = (i % 40) * 20;
+            int y = (i / 40) * 20;
+            shapes[i] = new Rectangle(x, y, 10, 10);
+            index.insert(shapes[i], new java.awt.Rectangle(x, y, 10, 10));
+        }
+        assertEquals(1000, index.size());
+        assertEquals(List.of(shapes[41]), index.searchPoint(25, 25));
+
+        for (int i = 0; i < shapes.length; i += 2) {
+            assertTrue(index.remove(shapes[i]));
+        }
+        assertEquals(500, index.size());
+        assertTrue(index.searchPoint(5, 5).isEmpty());
+        assertEquals(List.of(shapes[41]), index.searchPoint(25, 25));
+        assertEquals(500, index.search(new java.awt.Rectangle(0, 0, 1000, 1000)).size());
+    }
+
+    public void testBulkInsertMatchesIncrementalIndex() {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            shapes.add(new Rectangle((i * 37) % 800, (i * 53) % 600, 10 + i % 30, 10 + i % 20));
+        }
+        SpatialIndex bulk = new SpatialIndex();
+        bulk.insertAll(shapes, Shape::getBounds);
+        SpatialIndex incremental = new SpatialIndex();
+        shapes.forEach(shape -> incremental.insert(shape, shape.getBounds()));
+
+        java.awt.Rectangle area = new java.awt.Rectangle(100, 100, 150, 80);
+        assertEquals(incremental.search(area), bulk.search(area));
+        assertEquals(incremental.searchPoint(400, 300), bulk.searchPoint(400, 300));
+
+        // The packed tree keeps working with regular updates
+        bulk.remove(shapes.get(0));
+        bulk.insert(shapes.get(0), new java.awt.Rectangle(2000, 2000, 5, 5));
+        assertEquals(List.of(shapes.get(0)), bulk.searchPoint(2002, 2002));
+        assertEquals(1000, bulk.search(new java.awt.Rectangle(0, 0, 3000, 3000)).size());
+    }
+}
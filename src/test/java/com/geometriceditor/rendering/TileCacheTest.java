@@ -0,0 +1,47 @@
+package com.geometriceditor.rendering;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the tiled offscreen scene cache.
+ */
+public class TileCacheTest extends TestCase {
+    private static final int TILE = TileCache.TILE_SIZE;
+
+    private final BufferedImage target = new BufferedImage(2 * TILE, 2 * TILE, BufferedImage.TYPE_INT_ARGB);
+    private final java.awt.Rectangle screen = new java.awt.Rectangle(0, 0, 2 * TILE, 2 * TILE);
+    private int paintedTiles = 0;
+
+    private void paint(TileCache cache) {
+        Graphics2D g = target.createGraphics();
+        try {
+            cache.paint(g, screen, (tileGraphics, area) -> paintedTiles++);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    public void testTilesAreRenderedOnceUntilInvalidated() {
+        TileCache cache = new TileCache(Long.MAX_VALUE);
+        paint(cache);
+        assertEquals(4, paintedTiles);
+
+        paint(cache);
+        assertEquals(4, paintedTiles);
+
+        cache.invalidate(new java.awt.Rectangle(10, 10, 5, 5));
+        paint(cache);
+        assertEquals(5, paintedTiles);
+    }
+
+    public void testMemoryCapEvictsLeastRecentlyUsedTiles() {
+        long tileBytes = (long) TILE * TILE * 4;
+        TileCache cache = new TileCache(2 * tileBytes);
+        paint(cache);
+        assertEquals(2, cache.getTileCount());
+        assertTrue(cache.getUsedBytes() <= cache.getMaxBytes());
+    }
+}
@@ -0,0 +1,58 @@
+package com.geometriceditor.state;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.geometriceditor.command.CommandManager;
+import com.geometriceditor.factory.ShapeFactory;
+import com.geometriceditor.io.DocumentReader;
+import com.geometriceditor.io.DocumentWriter;
+import com.geometriceditor.io.MappedDocument;
+import com.geometriceditor.model.Rectangle;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.ui.WhiteboardPanel;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for background saves of lazily loaded documents.
+ */
+public class AutosaveServiceTest extends TestCase {
+    private Path document;
+    private Path autosave;
+
+    @Override
+    protected void setUp() throws Exception {
+        document = Files.createTempFile("document", ".bin");
+        autosave = Files.createTempFile("autosave", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(document);
+        Files.deleteIfExists(autosave);
+    }
+
+    public void testPendingShapesAreCopiedWithoutBeingCreated() throws Exception {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            shapes.add(new Rectangle(i * 50, 0, 40, 40));
+        }
+        DocumentWriter.write(shapes, document);
+        WhiteboardPanel whiteboard = new WhiteboardPanel(ShapeFactory.getInstance(), new CommandManager());
+        whiteboard.loadLazily(MappedDocument.open(document));
+        AutosaveService autosave = new AutosaveService(whiteboard, this.autosave.toFile());
+
+        Rectangle added = new Rectangle(0, 500, 10, 10);
+        whiteboard.addShape(added);
+        autosave.close(); // Saves the pending change
+        assertNull(autosave.getLastFailure());
+        assertEquals(1, whiteboard.getCreatedShapes().size());
+
+        List<Shape> saved = DocumentReader.read(this.autosave);
+        assertEquals(101, saved.size());
+        assertEquals(added.getId(), saved.get(100).getId());
+    }
+}
@@ -0,0 +1,78 @@
+package com.geometriceditor.state;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.geometriceditor.command.CommandManager;
+import com.geometriceditor.factory.ShapeFactory;
+import com.geometriceditor.io.DocumentWriter;
+import com.geometriceditor.io.MappedDocument;
+import com.geometriceditor.model.Rectangle;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.ui.WhiteboardPanel;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for crash recovery from the journal of a whiteboard.
+ */
+public class CommandJournalTest extends TestCase {
+    private Path checkpoint;
+    private Path journal;
+
+    @Override
+    protected void setUp() throws Exception {
+        checkpoint = Files.createTempFile("checkpoint", ".bin");
+        journal = Files.createTempFile("journal", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        CommandJournal.delete(checkpoint, journal);
+    }
+
+    public void testDirectEditsAreRecovered() throws Exception {
+        WhiteboardPanel whiteboard = new WhiteboardPanel(ShapeFactory.getInstance(), new CommandManager());
+        Rectangle rectangle = new Rectangle(10, 20, 30, 40);
+        rectangle.setRotationCenter(new Shape.Point(100, 200));
+        whiteboard.addShape(rectangle);
+        CommandJournal commandJournal = new CommandJournal(whiteboard, checkpoint, journal);
+
+        whiteboard.directSelectShape(rectangle);
+        whiteboard.resetSelectedRotationCenters();
+        commandJournal.close();
+
+        List<Shape> recovered = CommandJournal.recover(checkpoint, journal);
+        assertEquals(1, recovered.size());
+        assertEquals(new Shape.Point(10, 20), recovered.get(0).getRotationCenter());
+    }
+
+    public void testCheckpointsDoNotCreatePendingShapes() throws Exception {
+        Path document = Files.createTempFile("document", ".bin");
+        try {
+            List<Shape> shapes = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                shapes.add(new Rectangle(i * 50, 0, 40, 40));
+            }
+            DocumentWriter.write(shapes, document);
+            WhiteboardPanel whiteboard = new WhiteboardPanel(ShapeFactory.getInstance(), new CommandManager());
+            whiteboard.loadLazily(MappedDocument.open(document));
+            CommandJournal commandJournal = new CommandJournal(whiteboard, checkpoint, journal);
+            commandJournal.setCheckpointThreshold(0); // Every batch becomes a checkpoint
+
+            Rectangle added = new Rectangle(0, 500, 10, 10);
+            whiteboard.addShape(added);
+            whiteboard.addShape(new Rectangle(20, 500, 10, 10));
+            commandJournal.close();
+            assertEquals(2, whiteboard.getCreatedShapes().size());
+
+            List<Shape> recovered = CommandJournal.recover(checkpoint, journal);
+            assertEquals(102, recovered.size());
+            assertEquals(added.getId(), recovered.get(100).getId());
+        } finally {
+            Files.deleteIfExists(document);
+        }
+    }
+}
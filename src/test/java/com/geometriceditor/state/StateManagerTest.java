@@ -0,0 +1,119 @@
+package com.geometriceditor.state;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.geometriceditor.command.CommandManager;
+import com.geometriceditor.factory.ShapeFactory;
+import com.geometriceditor.io.DocumentReader;
+import com.geometriceditor.io.DocumentWriter;
+import com.geometriceditor.model.Rectangle;
+import com.geometriceditor.model.Shape;
+import com.geometriceditor.model.ShapeChanges;
+import com.geometriceditor.ui.WhiteboardPanel;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for saving whiteboards again to the file they were saved to.
+ */
+public class StateManagerTest extends TestCase {
+    private Path file;
+    private StateManager stateManager;
+    private WhiteboardPanel whiteboard;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = Files.createTempFile("document", ".bin");
+        stateManager = new StateManager();
+        whiteboard = new WhiteboardPanel(ShapeFactory.getInstance(), new CommandManager());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    public void testSavingAgainKeepsEditedRotationCenters() throws Exception {
+        Rectangle rectangle = new Rectangle(10, 20, 30, 40);
+        rectangle.setRotationCenter(new Shape.Point(100, 200));
+        whiteboard.addShape(rectangle);
+        stateManager.saveToFile(whiteboard, file.toFile());
+        long savedLength = Files.size(file);
+
+        whiteboard.directSelectShape(rectangle);
+        whiteboard.resetSelectedRotationCenters();
+        stateManager.saveToFile(whiteboard, file.toFile());
+        assertTrue(Files.size(file) > savedLength); // Appended, not rewritten
+
+        List<Shape> loaded = DocumentReader.read(file);
+        assertEquals(1, loaded.size());
+        assertEquals(new Shape.Point(10, 20), loaded.get(0).getRotationCenter());
+    }
+
+    public void testTornFirstAppendIsOpenedInFull() throws Exception {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            shapes.add(new Rectangle(i * 20, 0, 10, 10));
+        }
+        DocumentWriter.write(shapes, file);
+        long baseLength = Files.size(file);
+        stateManager.setLazyLoadThreshold(0);
+
+        // A crash while writing the first segment leaves part of it behind
+        ShapeChanges changes = new ShapeChanges();
+        changes.recordAdded(new Rectangle(0, 100, 10, 10));
+        DocumentWriter.appendDelta(changes, file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(baseLength + 3);
+        }
+        stateManager.loadFromFile(whiteboard, file.toFile());
+        assertEquals(10, whiteboard.getShapes().size());
+
+        // The same from files whose header was not updated before the segment
+        DocumentWriter.write(shapes, file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 1, 0, 42 }));
+        }
+        stateManager.loadFromFile(whiteboard, file.toFile());
+        assertEquals(10, whiteboard.getShapes().size());
+
+        // Saving again appends after the complete segments
+        whiteboard.addShape(new Rectangle(0, 100, 10, 10));
+        stateManager.saveToFile(whiteboard, file.toFile());
+        assertEquals(11, DocumentReader.read(file).size());
+    }
+
+    public void testCancelledLoadKeepsPendingShapesPending() throws Exception {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            shapes.add(new Rectangle(i * 20, 0, 10, 10));
+        }
+        DocumentWriter.write(shapes, file);
+        stateManager.setLazyLoadThreshold(0);
+        stateManager.loadFromFile(whiteboard, file.toFile());
+        whiteboard.addShape(new Rectangle(0, 100, 10, 10));
+
+        // What DocumentLoader does around a load cancelled after its first chunk
+        StateManager.SavedState savedState = stateManager.setAsideSavedState(whiteboard);
+        WhiteboardPanel.DocumentState document = whiteboard.captureDocument();
+        whiteboard.loadShapes(List.of(new Rectangle(0, 0, 5, 5)), false);
+        stateManager.trackLoadedDocument(whiteboard, file, null);
+        whiteboard.restoreDocument(document);
+        stateManager.restoreSavedState(whiteboard, savedState);
+
+        assertNotNull(whiteboard.getLazyShapeSource());
+        assertEquals(1, whiteboard.getCreatedShapes().size());
+        assertFalse(whiteboard.getChangesSinceLoaded().isEmpty());
+        long savedLength = Files.size(file);
+        stateManager.saveToFile(whiteboard, file.toFile());
+        assertTrue(Files.size(file) > savedLength); // Appended, not rewritten
+        assertEquals(101, DocumentReader.read(file).size());
+        assertEquals(1, whiteboard.getCreatedShapes().size());
+    }
+}
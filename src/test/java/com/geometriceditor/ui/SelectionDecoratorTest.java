@@ -0,0 +1,56 @@
+package com.geometriceditor.ui;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import com.geometriceditor.model.Rectangle;
+import com.geometriceditor.model.RegularPolygon;
+import com.geometriceditor.model.Shape;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that selection decorations stay within the area reported for repaints.
+ */
+public class SelectionDecoratorTest extends TestCase {
+
+    // Bounds of the pixels the decoration paints, or null if none
+    private static java.awt.Rectangle paintedArea(Shape shape) {
+        BufferedImage image = new BufferedImage(400, 400, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            new SelectionDecorator(shape).drawSelection(g2d);
+        } finally {
+            g2d.dispose();
+        }
+        java.awt.Rectangle area = null;
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if ((image.getRGB(x, y) >>> 24) != 0) {
+                    java.awt.Rectangle pixel = new java.awt.Rectangle(x, y, 1, 1);
+                    area = area == null ? pixel : area.union(pixel);
+                }
+            }
+        }
+        return area;
+    }
+
+    public void testPolygonCircleIsCovered() {
+        RegularPolygon triangle = new RegularPolygon(200, 200, 3, 120);
+        triangle.setRotation(90);
+        java.awt.Rectangle painted = paintedArea(triangle);
+        assertTrue(new SelectionDecorator(triangle).getPaintBounds().contains(painted));
+        // The circle reaches well past the triangle's flat side
+        java.awt.Rectangle nearShape = triangle.getBounds();
+        nearShape.grow(8, 8);
+        assertFalse(nearShape.contains(painted));
+    }
+
+    public void testRotatedRectangleIsCovered() {
+        Rectangle rectangle = new Rectangle(150, 170, 100, 60);
+        rectangle.setRotation(30);
+        assertTrue(new SelectionDecorator(rectangle).getPaintBounds().contains(paintedArea(rectangle)));
+    }
+}